@@ -35,6 +35,13 @@ import com.google.uzaygezen.core.ranges.RangeHome;
  * two ranges with vacuum in between. In the latter case the filters are
  * guaranteed not to be used at all, unless they are created by the region
  * inspector itself.
+ * <p>
+ * Instead of, or on top of, the maximum number of ranges, a {@link
+ * MergeCostModel} can decide which gaps are cheap enough to be scanned over, so
+ * that the number of ranges follows from the relative costs of seeking and
+ * scanning in the data store. Use {@link Integer#MAX_VALUE} as the maximum
+ * number of ranges to leave the decision entirely to the cost model.
+ * </p>
  * 
  * @author Daniel Aioanei
  * 
@@ -49,6 +56,12 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
   private final int maxFilteredIndexRanges;
   private final boolean alwaysRemoveVacuum;
 
+  /**
+   * Null iff only {@link #maxFilteredIndexRanges} and {@link
+   * #alwaysRemoveVacuum} decide which ranges are joined.
+   */
+  private final MergeCostModel<? super V> mergeCostModel;
+
   private final RangeHome<T, V, R> rangeHome;
   private final V zero;
 
@@ -70,9 +83,12 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
 
   /**
    * Used solely for safety checking that the finished orthotopes are passed in
-   * increasing order and that none are skipped.
+   * increasing order and that none are skipped. Allocated on the first finished
+   * range and overwritten in place afterwards, since the visited ranges are
+   * views that the caller keeps modifying.
    */
-  private Pow2LengthBitSetRange lastFinishedIndexRange = null;
+  private BitVector lastFinishedStart = null;
+  private int lastFinishedLevel;
 
   /**
    * There are two types of sources for over-selectivity: the filter combiner
@@ -91,7 +107,8 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
    * <li>{@link SpatialRelation#COVERED}:
    * <ul>
    * <li>If the current gap is zero and {@link #alwaysRemoveVacuum} is
-   * {@literal true}, then it joins the new index range to the previous one.</li>
+   * {@literal true}, or if the cost model finds the gap cheaper to scan than to
+   * seek over, then it joins the new index range to the previous one.</li>
    * <li>Otherwise it adds the current range to the internal min-heap of ranges,
    * with the current gap as the key. Iff the number of filtered ranges exceeds
    * as a result {@link #maxFilteredIndexRanges}, does it then combine together
@@ -108,16 +125,17 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
    */
   @Override
   public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
-    Preconditions.checkArgument(lastFinishedIndexRange == null
-      || indexRange.getStart().compareTo(lastFinishedIndexRange.getStart()) > 0);
+    Preconditions.checkArgument(lastFinishedStart == null
+      || indexRange.getStart().compareTo(lastFinishedStart) > 0);
     /*
      * Even more than the previous check, we make sure that the new range starts
      * exactly where the previous finished one had its upper bound.
      */
-    assert (lastFinishedIndexRange == null) == (indexRange.getStart().length() == 0);
-    assert (lastFinishedIndexRange == null)
-      || (rangeHome.toRange(lastFinishedIndexRange).getEnd().equals(rangeHome.toRange(indexRange).getStart())) : String.format(
-      "lastFinishedIndexRange=%s indeRange=%s", lastFinishedIndexRange, indexRange);
+    assert (lastFinishedStart == null) == (indexRange.getStart().length() == 0);
+    assert (lastFinishedStart == null)
+      || (rangeHome.toRange(new Pow2LengthBitSetRange(lastFinishedStart, lastFinishedLevel)).getEnd().equals(rangeHome.toRange(indexRange).getStart())) : String.format(
+      "lastFinishedStart=%s lastFinishedLevel=%s indeRange=%s", lastFinishedStart,
+      lastFinishedLevel, indexRange);
     Assessment<F, V> assessment = regionInspector.assess(indexRange, orthotope);
     switch (assessment.getOutcome()) {
     case OVERLAPS:
@@ -126,17 +144,26 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
       processCoveredNode(
         indexRange, assessment.getFilter(), assessment.isPotentialOverSelectivity());
       potentialOverSelectivity |= assessment.isPotentialOverSelectivity();
-      lastFinishedIndexRange = indexRange.clone();
+      rememberFinished(indexRange);
       return false;
     case DISJOINT:
       processDisjointRegion(assessment.getEstimate());
-      lastFinishedIndexRange = indexRange.clone();
+      rememberFinished(indexRange);
       return false;
     default:
       throw new RuntimeException("Cannot be: " + assessment.getOutcome());
     }
   }
 
+  private void rememberFinished(Pow2LengthBitSetRange indexRange) {
+    if (lastFinishedStart == null) {
+      lastFinishedStart = indexRange.getStart().clone();
+    } else {
+      lastFinishedStart.copyFrom(indexRange.getStart());
+    }
+    lastFinishedLevel = indexRange.getLevel();
+  }
+
   private void processCoveredNode(
     Pow2LengthBitSetRange indexBitSetRange, F filter, boolean potentialOverSelectivityInRange) {
     R indexRange = rangeHome.toRange(indexBitSetRange);
@@ -145,13 +172,16 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
     // Fetching the last node is a constant time operation.
     Node<FilteredIndexRange<F, R>> end = nodeList.isEmpty() ? null
       : nodeList.getNode(nodeList.size() - 1);
-    if (alwaysRemoveVacuum & end != null & currentGap.isZero()) {
-      SelectiveFilter<F> combinedFilter = filterCombiner.combine(end.get(), indexQueryRange, zero);
+    if (end != null && ((alwaysRemoveVacuum && currentGap.isZero())
+      || (mergeCostModel != null && mergeCostModel.isMergeCheaper(currentGap)))) {
+      SelectiveFilter<F> combinedFilter =
+        filterCombiner.combine(end.get(), indexQueryRange, currentGap);
       end.set(new FilteredIndexRange<F, R>(
         rangeHome.of(end.get().getIndexRange().getStart(), indexRange.getEnd()),
         combinedFilter.getFilter(), combinedFilter.isPotentialOverSelectivity()
           | potentialOverSelectivityInRange));
       potentialOverSelectivity |= combinedFilter.isPotentialOverSelectivity();
+      currentGap = zero.clone();
     } else {
       Node<FilteredIndexRange<F, R>> node = nodeList.addAndGetNode(indexQueryRange);
       if (end != null) {
@@ -201,10 +231,34 @@ public class BacktrackingQueryBuilder<F, T, V extends Content<V>, R extends Rang
       regionInspector, intervalCombiner, maxFilteredIndexRanges, removeVacuum, rangeHome, zero);
   }
 
+  /**
+   * @param mergeCostModel joins consecutive ranges whenever that is estimated
+   * to make the query cheaper
+   * @param maxFilteredIndexRanges hard cap enforced after the cost model has
+   * had its say; {@link Integer#MAX_VALUE} effectively disables it
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> BacktrackingQueryBuilder<F, T, V, R> create(
+    RegionInspector<F, V> regionInspector, FilterCombiner<F, V, R> intervalCombiner,
+    MergeCostModel<? super V> mergeCostModel, int maxFilteredIndexRanges,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    return new BacktrackingQueryBuilder<F, T, V, R>(regionInspector, intervalCombiner,
+      Preconditions.checkNotNull(mergeCostModel, "mergeCostModel"), maxFilteredIndexRanges,
+      false, rangeHome, zero);
+  }
+
   public BacktrackingQueryBuilder(RegionInspector<F, V> regionInspector,
     FilterCombiner<F, V, R> intervalCombiner, int maxFilteredIndexRanges,
     boolean alwaysRemoveVacuum, RangeHome<T, V, R> rangeHome, V zero) {
+    this(regionInspector, intervalCombiner, null, maxFilteredIndexRanges, alwaysRemoveVacuum,
+      rangeHome, zero);
+  }
+
+  private BacktrackingQueryBuilder(RegionInspector<F, V> regionInspector,
+    FilterCombiner<F, V, R> intervalCombiner, MergeCostModel<? super V> mergeCostModel,
+    int maxFilteredIndexRanges, boolean alwaysRemoveVacuum, RangeHome<T, V, R> rangeHome,
+    V zero) {
     this.regionInspector = regionInspector;
+    this.mergeCostModel = mergeCostModel;
     this.filterCombiner = intervalCombiner;
     Preconditions.checkArgument(
       maxFilteredIndexRanges > 0, "maxFilteredIndexRanges must be positive");
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector for the grid points within a given distance of a center,
+ * in either the Euclidean or the Chebyshev metric. An orthotope is disjoint
+ * from the ball iff its closest point is farther than the radius, and covered
+ * iff its farthest corner is within the radius, so the classification is
+ * exact. All the arithmetic is done on longs, with the squares and sums of the
+ * Euclidean metric saturating at {@link Long#MAX_VALUE}, which compares as
+ * farther than any allowed radius.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class BallRegionInspector<F, T, V extends Content<V>, R extends Range<T, V>>
+  extends ShapeRegionInspector<F, T, V, R> {
+
+  /**
+   * The largest long whose square fits in a long.
+   */
+  private static final long MAX_SQUARE_ROOT = 3037000499L;
+
+  public enum Metric {
+    /**
+     * L2 distance.
+     */
+    EUCLIDEAN,
+    /**
+     * L-infinity distance.
+     */
+    CHEBYSHEV;
+  }
+
+  private final long[] center;
+  private final Metric metric;
+
+  /**
+   * The radius, squared for {@link Metric#EUCLIDEAN}.
+   */
+  private final long threshold;
+
+  private BallRegionInspector(long[] center, long radius, Metric metric,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    super(center.length, filterFactory, rangeHome, zero);
+    for (long c : center) {
+      Preconditions.checkArgument(c >= 0, "center coordinates must be non-negative");
+    }
+    Preconditions.checkArgument(radius >= 0, "radius must be non-negative");
+    Preconditions.checkArgument(metric != Metric.EUCLIDEAN || radius <= MAX_SQUARE_ROOT,
+      "Euclidean radius must be at most %s", MAX_SQUARE_ROOT);
+    this.center = center.clone();
+    this.metric = Preconditions.checkNotNull(metric, "metric");
+    this.threshold = metric == Metric.EUCLIDEAN ? square(radius) : radius;
+  }
+
+  /**
+   * @param center the center of the ball, one coordinate per dimension
+   * @param radius the points at exactly this distance belong to the ball; at
+   * most {@code 3037000499} for the Euclidean metric, so that its square fits
+   * in a long
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> BallRegionInspector<F, T, V, R> create(
+    long[] center, long radius, Metric metric, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    return new BallRegionInspector<F, T, V, R>(
+      center, radius, metric, filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  protected SpatialRelation classify(long[] low, long[] high) {
+    long near = 0;
+    long far = 0;
+    for (int i = 0; i < center.length; ++i) {
+      // The coordinates are non-negative, so none of the differences overflow.
+      long c = center[i];
+      long nearDelta = c < low[i] ? low[i] - c : c > high[i] ? c - high[i] : 0;
+      long farDelta = Math.max(Math.abs(c - low[i]), Math.abs(high[i] - c));
+      if (metric == Metric.EUCLIDEAN) {
+        near = saturatedAdd(near, square(nearDelta));
+        far = saturatedAdd(far, square(farDelta));
+      } else {
+        near = Math.max(near, nearDelta);
+        far = Math.max(far, farDelta);
+      }
+    }
+    if (near > threshold) {
+      return SpatialRelation.DISJOINT;
+    }
+    return far <= threshold ? SpatialRelation.COVERED : SpatialRelation.OVERLAPS;
+  }
+
+  private static long square(long x) {
+    return x > MAX_SQUARE_ROOT ? Long.MAX_VALUE : x * x;
+  }
+
+  private static long saturatedAdd(long x, long y) {
+    long sum = x + y;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
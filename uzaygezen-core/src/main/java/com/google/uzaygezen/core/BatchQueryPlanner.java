@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Plans many queries over the same multidimensional space with a single
+ * traversal of the compact Hilbert curve tree. Each node is shown only to the
+ * query builders that zoomed into its parent, and a subtree is skipped as soon
+ * as none of them wants to see it. Every builder therefore sees exactly the
+ * sequence of nodes it would see in a traversal of its own, and produces the
+ * same query, while the nodes shared by several queries are navigated only
+ * once.
+ * <p>
+ * The set of live queries for each node on the current path is kept as a
+ * {@link BitSet}, and the bit sets are reused between siblings. Instances are
+ * single use and not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <R> range type
+ */
+public class BatchQueryPlanner<F, R> {
+
+  private final MultiDimensionalSpec spec;
+  private final List<QueryBuilder<F, R>> builders;
+
+  /**
+   * Index level of each node on the current path that has at least one
+   * interested builder, from the root down.
+   */
+  private final int[] pathLevels;
+
+  /**
+   * The builders that want to see the children of each node on the current
+   * path. Allocated lazily, then reused.
+   */
+  private final List<BitSet> pathLive = new ArrayList<>();
+
+  private int pathSize;
+  private long nodesVisited;
+  private long builderVisits;
+  private boolean planned;
+
+  private BatchQueryPlanner(
+    MultiDimensionalSpec spec, List<? extends QueryBuilder<F, R>> builders) {
+    this.spec = Preconditions.checkNotNull(spec, "spec");
+    Preconditions.checkArgument(!builders.isEmpty(), "builders must not be empty");
+    this.builders = ImmutableList.copyOf(builders);
+    this.pathLevels = new int[spec.sumBitsPerDimension() + 1];
+  }
+
+  /**
+   * @param spec the multidimensional space shared by all the queries
+   * @param builders one fresh query builder per query, each with its own region
+   * inspector
+   */
+  public static <F, R> BatchQueryPlanner<F, R> create(
+    MultiDimensionalSpec spec, List<? extends QueryBuilder<F, R>> builders) {
+    return new BatchQueryPlanner<F, R>(spec, builders);
+  }
+
+  /**
+   * Navigates the curve once and returns the queries in the order of the
+   * builders. Can only be called once, since the builders keep their state.
+   */
+  public List<Query<F, R>> plan() {
+    Preconditions.checkState(!planned, "Already planned.");
+    planned = true;
+    CompactHilbertCurve curve = new CompactHilbertCurve(spec);
+    curve.accept(new ZoomingSpaceVisitorAdapter(curve, new BatchVisitor()));
+    List<Query<F, R>> queries = new ArrayList<>(builders.size());
+    for (QueryBuilder<F, R> builder : builders) {
+      queries.add(builder.get());
+    }
+    return queries;
+  }
+
+  /**
+   * @return the number of tree nodes navigated, which is the size of the union
+   * of the individual traversals
+   */
+  public long getNodesVisited() {
+    return nodesVisited;
+  }
+
+  /**
+   * @return the number of calls made to the builders, which is the sum of the
+   * sizes of the individual traversals
+   */
+  public long getBuilderVisits() {
+    return builderVisits;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private class BatchVisitor implements SpaceVisitor {
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      int level = indexRange.getLevel();
+      // Leave the subtrees of the previous siblings and of the ancestors' siblings.
+      while (pathSize != 0 && pathLevels[pathSize - 1] <= level) {
+        pathSize--;
+      }
+      BitSet parentLive = pathSize == 0 ? null : pathLive.get(pathSize - 1);
+      if (pathSize == pathLive.size()) {
+        pathLive.add(new BitSet(builders.size()));
+      }
+      BitSet live = pathLive.get(pathSize);
+      live.clear();
+      nodesVisited++;
+      if (parentLive == null) {
+        for (int i = 0; i < builders.size(); ++i) {
+          visit(i, indexRange, orthotope, live);
+        }
+      } else {
+        for (int i = parentLive.nextSetBit(0); i >= 0; i = parentLive.nextSetBit(i + 1)) {
+          visit(i, indexRange, orthotope, live);
+        }
+      }
+      if (live.isEmpty()) {
+        return false;
+      }
+      pathLevels[pathSize++] = level;
+      return true;
+    }
+
+    private void visit(int i, Pow2LengthBitSetRange indexRange,
+      List<Pow2LengthBitSetRange> orthotope, BitSet live) {
+      builderVisits++;
+      if (builders.get(i).visit(indexRange, orthotope)) {
+        live.set(i);
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+/**
+ * Estimates how much refining a node of the compact Hilbert curve tree is
+ * worth, i.e. how many rows are read needlessly if the node is not zoomed into
+ * and is scanned as a whole instead. Used by {@link BestFirstQueryPlanner} to
+ * decide which overlapping node to refine next.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <V> benefit type
+ */
+public interface BenefitEstimator<F, V> {
+
+  /**
+   * @param indexRange the index range of the node
+   * @param orthotope the orthotope filled by the node
+   * @param assessment what the region inspector said about the node
+   * @return the benefit of refining the node; higher is better
+   */
+  V estimate(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope,
+    Assessment<F, V> assessment);
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+import com.google.uzaygezen.core.ranges.RangeUtil;
+
+/**
+ * Query factory that refines the compact Hilbert curve tree best-first instead
+ * of depth-first. It keeps a frontier of the nodes assessed as {@link
+ * SpatialRelation#OVERLAPS}, and always zooms into the one with the highest
+ * benefit first. The benefit is the number of rows that would be read
+ * needlessly if the node were scanned as a whole, e.g. the part of the node
+ * outside the query region, as computed by {@link #overlapVolumeEstimator}.
+ * When the {@link PlanningBudget} runs out, the nodes left in the frontier
+ * become covered ranges with potential over-selectivity, and so do the
+ * children of a partially expanded node that were never assessed. So under
+ * the same budget precision goes where it saves the most rows rather than to
+ * the start of the curve. The
+ * finished nodes are finally replayed in index order into a query builder, and
+ * with an unlimited budget the query is the same as for a depth-first
+ * traversal.
+ * <p>
+ * The region inspector sees the nodes in no particular order, so it must not
+ * depend on it, which rules out {@link MapRegionInspector}. Not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class BestFirstQueryPlanner<F, T, V extends Comparable<V>, R extends Range<T, V>>
+  implements QueryFactory<F, R> {
+
+  private final RegionInspector<F, V> inspector;
+  private final Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory;
+  private final BenefitEstimator<F, V> benefitEstimator;
+  private final Function<? super R, F> filterFactory;
+  private final RangeHome<T, V, R> rangeHome;
+  private final PlanningBudget budget;
+  private final V zero;
+
+  private final CompactHilbertNodes nodes;
+
+  private BestFirstQueryPlanner(MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    BenefitEstimator<F, V> benefitEstimator,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, PlanningBudget budget,
+    V zero) {
+    this.inspector = Preconditions.checkNotNull(inspector, "inspector");
+    this.builderFactory = Preconditions.checkNotNull(builderFactory, "builderFactory");
+    this.benefitEstimator = Preconditions.checkNotNull(benefitEstimator, "benefitEstimator");
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.budget = Preconditions.checkNotNull(budget, "budget");
+    this.zero = zero;
+    this.nodes = new CompactHilbertNodes(spec);
+  }
+
+  /**
+   * @param spec the multidimensional space
+   * @param inspector must not depend on the order in which nodes are assessed
+   * @param builderFactory creates the query builder that receives the finished
+   * nodes in index order, e.g., a {@link BacktrackingQueryBuilder}
+   * @param benefitEstimator the benefit of refining an overlapping node, given
+   * its orthotope and its assessment; nodes with a higher benefit are refined
+   * first, and ties are broken in index order
+   * @param filterFactory creates the filters of the nodes left in the frontier
+   * when the budget runs out
+   * @param budget each assessed node consumes one unit
+   */
+  public static <F, T, V extends Comparable<V>, R extends Range<T, V>> BestFirstQueryPlanner<F, T, V, R> create(
+    MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    BenefitEstimator<F, V> benefitEstimator,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, PlanningBudget budget,
+    V zero) {
+    return new BestFirstQueryPlanner<F, T, V, R>(spec, inspector, builderFactory,
+      benefitEstimator, filterFactory, rangeHome, budget, zero);
+  }
+
+  /**
+   * Benefit estimator that uses the length of the index range of the node. All
+   * the nodes at the same level are then equally good, so refinement goes
+   * breadth-first; use it only when the query region is not known explicitly.
+   */
+  public static <F, T, V, R extends Range<T, V>> BenefitEstimator<F, V> lengthEstimator(
+    final RangeHome<T, V, R> rangeHome) {
+    return new BenefitEstimator<F, V>() {
+      @Override
+      public V estimate(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope,
+        Assessment<F, V> assessment) {
+        return rangeHome.toRange(indexRange).length();
+      }
+    };
+  }
+
+  /**
+   * Benefit estimator for uniformly distributed data that uses the volume of
+   * the node minus its overlap volume with the query region, i.e. the number of
+   * points that a degraded node would select needlessly. The volume of nodes
+   * on level {@code 63} or above does not fit in a {@code long}, so it
+   * saturates at {@link Long#MAX_VALUE}.
+   * 
+   * @param queryRegion disjoint orthotopes, as for {@link SimpleRegionInspector}
+   */
+  public static <F> BenefitEstimator<F, LongContent> overlapVolumeEstimator(
+    final List<? extends List<LongRange>> queryRegion) {
+    Preconditions.checkNotNull(queryRegion, "queryRegion");
+    return new BenefitEstimator<F, LongContent>() {
+      @Override
+      public LongContent estimate(Pow2LengthBitSetRange indexRange,
+        List<Pow2LengthBitSetRange> orthotope, Assessment<F, LongContent> assessment) {
+        LongContent overlap = new LongContent(0);
+        RangeUtil.overlapSum(RangeUtil.toOrthotope(orthotope, LongRangeHome.INSTANCE),
+          queryRegion, LongRangeHome.INSTANCE, overlap);
+        int level = indexRange.getLevel();
+        long volume = level < Long.SIZE - 1 ? 1L << level : Long.MAX_VALUE;
+        return new LongContent(Math.max(0, volume - overlap.value()));
+      }
+    };
+  }
+
+  /**
+   * Plans the query. The budget is shared by all the calls.
+   */
+  @Override
+  public Query<F, R> get() {
+    List<FinishedNode<F, V>> finished = new ArrayList<>();
+    PriorityQueue<FrontierNode> frontier = new PriorityQueue<>();
+    int mMax = nodes.getMaxLevel();
+    Pow2LengthBitSetRange root = nodes.root();
+    if (budget.tryConsume()) {
+      assess(root, mMax, finished, frontier);
+    } else {
+      degrade(root, nodes.orthotope(root, mMax), finished);
+    }
+    List<FinishedNode<F, V>> children = new ArrayList<>();
+    List<FrontierNode> childFrontier = new ArrayList<>();
+    FrontierNode node;
+    while ((node = frontier.poll()) != null) {
+      boolean expanded = expand(node, children, childFrontier, finished);
+      finished.addAll(children);
+      frontier.addAll(childFrontier);
+      if (!expanded) {
+        while ((node = frontier.poll()) != null) {
+          degrade(node.indexRange, node.orthotope, finished);
+        }
+        break;
+      }
+    }
+    Collections.sort(finished, FinishedNode.INDEX_ORDER);
+    return FinishedNode.replay(finished, builderFactory, nodes.getNumberOfDimensions());
+  }
+
+  /**
+   * Assesses the children of {@code node} into the first two output lists,
+   * after clearing them. If the budget runs out, the children assessed so far
+   * are kept, and the remaining ones are degraded into {@code finished}.
+   * 
+   * @return {@literal false} iff the budget ran out before all children have
+   * been assessed
+   */
+  private boolean expand(FrontierNode node, List<FinishedNode<F, V>> children,
+    List<FrontierNode> childFrontier, List<FinishedNode<F, V>> finished) {
+    children.clear();
+    childFrontier.clear();
+    BitVector r = BitVectorFactories.OPTIMAL.apply(nodes.childBitCount(node.curveLevel));
+    boolean withinBudget = true;
+    do {
+      Pow2LengthBitSetRange child = nodes.child(node.indexRange, node.curveLevel, r);
+      withinBudget = withinBudget && budget.tryConsume();
+      if (withinBudget) {
+        assess(child, node.curveLevel - 1, children, childFrontier);
+      } else {
+        degrade(child, nodes.orthotope(child, node.curveLevel - 1), finished);
+      }
+    } while (r.increment());
+    return withinBudget;
+  }
+
+  private void assess(Pow2LengthBitSetRange indexRange, int curveLevel,
+    List<FinishedNode<F, V>> finished, Collection<FrontierNode> frontier) {
+    List<Pow2LengthBitSetRange> orthotope = nodes.orthotope(indexRange, curveLevel);
+    Assessment<F, V> assessment = inspector.assess(indexRange, orthotope);
+    if (assessment.getOutcome() == SpatialRelation.OVERLAPS && curveLevel != 0) {
+      frontier.add(new FrontierNode(indexRange, orthotope, curveLevel,
+        benefitEstimator.estimate(indexRange, orthotope, assessment)));
+    } else {
+      finished.add(FinishedNode.of(indexRange, orthotope, assessment));
+    }
+  }
+
+  private void degrade(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope,
+    List<FinishedNode<F, V>> finished) {
+    budget.recordDegraded();
+    finished.add(FinishedNode.of(indexRange, orthotope, Assessment.<F, V>makeCovered(
+      filterFactory.apply(rangeHome.toRange(indexRange)), true, zero)));
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private class FrontierNode implements Comparable<FrontierNode> {
+
+    private final Pow2LengthBitSetRange indexRange;
+    private final List<Pow2LengthBitSetRange> orthotope;
+    private final int curveLevel;
+    private final V benefit;
+
+    private FrontierNode(Pow2LengthBitSetRange indexRange,
+      List<Pow2LengthBitSetRange> orthotope, int curveLevel, V benefit) {
+      this.indexRange = indexRange;
+      this.orthotope = orthotope;
+      this.curveLevel = curveLevel;
+      this.benefit = Preconditions.checkNotNull(benefit, "benefit");
+    }
+
+    /**
+     * Higher benefit first, then lower index.
+     */
+    @Override
+    public int compareTo(FrontierNode o) {
+      int cmp = o.benefit.compareTo(benefit);
+      return cmp != 0 ? cmp : indexRange.getStart().compareTo(o.indexRange.getStart());
+    }
+  }
+}
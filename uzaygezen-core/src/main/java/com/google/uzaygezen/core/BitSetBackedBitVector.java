@@ -17,6 +17,7 @@
 package com.google.uzaygezen.core;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -486,6 +487,53 @@ public final class BitSetBackedBitVector implements BitVector, Cloneable {
     bitset.or(bs);
   }
 
+  @Override
+  public void writeBigEndian(ByteBuffer dst) {
+    int n = MathUtils.bitCountToByteCount(size);
+    if (n == 0) {
+      return;
+    }
+    int wordCount = (size + 63) >>> 6;
+    MathUtils.putBigEndian(dst, word(wordCount - 1), n - ((wordCount - 1) << 3));
+    for (int i = wordCount - 1; --i >= 0; ) {
+      MathUtils.putBigEndian(dst, word(i), 8);
+    }
+  }
+
+  /**
+   * Extracts the little endian word with index {@code wordIndex} without going
+   * through {@link BitSet#toLongArray()}, which would allocate.
+   */
+  private long word(int wordIndex) {
+    int from = wordIndex << 6;
+    int to = Math.min(from + 64, size);
+    long x = 0;
+    for (int i = bitset.nextSetBit(from); i != -1 && i < to; i = bitset.nextSetBit(i + 1)) {
+      x |= 1L << (i - from);
+    }
+    return x;
+  }
+
+  @Override
+  public void readBigEndian(ByteBuffer src, int offset, int byteLen) {
+    int len = MathUtils.bitCountToByteCount(size);
+    Preconditions.checkArgument(byteLen == len, "Length must be %s.", len);
+    if (len == 0) {
+      return;
+    }
+    Preconditions.checkArgument(
+        MathUtils.numberOfLeadingZeros(src.get(offset)) >= (len << 3) - size,
+        "Some bit positions are too high.");
+    bitset.clear();
+    for (int i = 0; i < len; ++i) {
+      int b = src.get(offset + i) & 0xFF;
+      int base = (len - 1 - i) << 3;
+      for (; b != 0; b &= b - 1) {
+        bitset.set(base + Integer.numberOfTrailingZeros(b));
+      }
+    }
+  }
+
   @Override
   public boolean areAllLowestBitsClear(int bitCount) {
     Preconditions.checkArgument(0 <= bitCount & bitCount <= size, "bitCount is out of range");
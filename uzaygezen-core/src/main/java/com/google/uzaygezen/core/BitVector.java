@@ -17,6 +17,7 @@
 package com.google.uzaygezen.core;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 
 /**
@@ -264,6 +265,26 @@ public interface BitVector extends Comparable<BitVector> {
    */
   void copyFromBigEndian(byte[] array);
 
+  /**
+   * Writes the same bytes that {@link #toBigEndianByteArray()} would produce
+   * into {@code dst}, starting at its current position, without allocating an
+   * intermediate array. The position is advanced by {@code (size() + 7) / 8}.
+   * The byte order of the buffer is ignored; the output is always big endian.
+   * 
+   * @throws java.nio.BufferOverflowException if {@code dst} does not have
+   * enough bytes remaining
+   */
+  void writeBigEndian(ByteBuffer dst);
+
+  /**
+   * Counterpart of {@link #copyFromBigEndian(byte[])} that reads the bytes
+   * directly from {@code src}, starting at the absolute index {@code offset}.
+   * Neither the position nor the byte order of the buffer are used or modified.
+   * 
+   * @param byteLen must be {@code (size() + 7) / 8}
+   */
+  void readBigEndian(ByteBuffer src, int offset, int byteLen);
+
   void copyFrom(BigInteger s);
 
   /**
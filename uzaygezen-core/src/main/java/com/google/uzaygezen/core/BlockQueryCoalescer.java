@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Post-pass that joins consecutive ranges of a query when the gap between
+ * them lies in a storage block, e.g. an HBase region, that the scan reads
+ * anyway. The blocks are given by their sorted split points: block {@code b}
+ * spans the indexes from split point {@code b - 1}, inclusive, up to split
+ * point {@code b}, exclusive. Two consecutive ranges are joined iff they are
+ * adjacent, or the last block of the first one is the first block of the
+ * second one, i.e. no split point lies between the end of the first range and
+ * the start of the second one, both inclusive. So the joined query reads the
+ * same blocks as the original one, with fewer seeks.
+ * <p>
+ * The filters are combined with the configured {@link FilterCombiner}, with
+ * the index length of the gap as the gap estimate, as if the data were
+ * uniformly distributed. A join across a non-empty gap is marked as
+ * potentially over-selective. Instances are immutable and thread safe if the
+ * filter combiner is.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> index type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class BlockQueryCoalescer<F, T extends Comparable<T>, V extends Content<V>, R extends Range<T, V>> {
+
+  private final List<T> splitPoints;
+  private final FilterCombiner<F, V, R> filterCombiner;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+
+  private BlockQueryCoalescer(List<T> splitPoints, FilterCombiner<F, V, R> filterCombiner,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    this.splitPoints = ImmutableList.copyOf(splitPoints);
+    for (int i = 1; i < this.splitPoints.size(); ++i) {
+      Preconditions.checkArgument(
+        this.splitPoints.get(i - 1).compareTo(this.splitPoints.get(i)) < 0,
+        "Split points must be strictly increasing, but %s is followed by %s.",
+        this.splitPoints.get(i - 1), this.splitPoints.get(i));
+    }
+    this.filterCombiner = Preconditions.checkNotNull(filterCombiner, "filterCombiner");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = Preconditions.checkNotNull(zero, "zero");
+  }
+
+  /**
+   * @param splitPoints the first index of each block but the first one, in
+   * strictly increasing order; e.g. the HBase region start keys, minus the
+   * empty one, converted to indexes
+   * @param filterCombiner combines the filters of the joined ranges
+   */
+  public static <F, T extends Comparable<T>, V extends Content<V>, R extends Range<T, V>> BlockQueryCoalescer<F, T, V, R> create(
+    List<T> splitPoints, FilterCombiner<F, V, R> filterCombiner, RangeHome<T, V, R> rangeHome,
+    V zero) {
+    return new BlockQueryCoalescer<F, T, V, R>(splitPoints, filterCombiner, rangeHome, zero);
+  }
+
+  /**
+   * Takes time linear in the number of ranges, plus a binary search over the
+   * split points for each range.
+   */
+  public Query<F, R> coalesce(Query<F, R> query) {
+    List<FilteredIndexRange<F, R>> ranges = query.getFilteredIndexRanges();
+    if (ranges.size() < 2) {
+      return query;
+    }
+    List<FilteredIndexRange<F, R>> coalesced = new ArrayList<>(ranges.size());
+    FilteredIndexRange<F, R> current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); ++i) {
+      FilteredIndexRange<F, R> next = ranges.get(i);
+      T gapStart = current.getIndexRange().getEnd();
+      T gapEnd = next.getIndexRange().getStart();
+      Preconditions.checkArgument(gapStart.compareTo(gapEnd) <= 0,
+        "Ranges must be disjoint and in increasing order.");
+      if (gapStart.compareTo(gapEnd) == 0) {
+        current = join(current, next, zero);
+      } else if (isInsideOneBlock(gapStart, gapEnd)) {
+        current = join(current, next, rangeHome.of(gapStart, gapEnd).length());
+      } else {
+        coalesced.add(current);
+        current = next;
+      }
+    }
+    coalesced.add(current);
+    return coalesced.size() == ranges.size() ? query : Query.of(coalesced);
+  }
+
+  /**
+   * @return whether no split point lies in {@code [gapStart, gapEnd]}
+   */
+  private boolean isInsideOneBlock(T gapStart, T gapEnd) {
+    int pos = Collections.binarySearch(splitPoints, gapStart);
+    if (pos >= 0) {
+      return false;
+    }
+    int ceiling = -pos - 1;
+    return ceiling == splitPoints.size() || splitPoints.get(ceiling).compareTo(gapEnd) > 0;
+  }
+
+  private FilteredIndexRange<F, R> join(
+    FilteredIndexRange<F, R> first, FilteredIndexRange<F, R> second, V gapEstimate) {
+    SelectiveFilter<F> combinedFilter = filterCombiner.combine(first, second, gapEstimate);
+    return new FilteredIndexRange<F, R>(
+      rangeHome.of(first.getIndexRange().getStart(), second.getIndexRange().getEnd()),
+      combinedFilter.getFilter(), combinedFilter.isPotentialOverSelectivity()
+        | !gapEstimate.isZero() | first.isPotentialOverSelectivity()
+        | second.isPotentialOverSelectivity());
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector for a union of possibly overlapping orthotopes, meant for
+ * query regions with many of them. The orthotopes are indexed in a static
+ * bounding volume hierarchy, built by splitting them at the median along each
+ * dimension in turn, so each assessment only looks at the orthotopes near the
+ * node. The classification is exact, and overlapping orthotopes are never
+ * double counted, unlike with {@link SimpleRegionInspector}: a node is covered
+ * iff what remains of it after taking away the nearby orthotopes one by one is
+ * empty. That usually stops at the first one, but it can take time exponential
+ * in the number of nearby orthotopes, so at most {@link #MAX_PIECES} pieces
+ * are carved for each node. A node whose pieces run out is reported as
+ * overlapping, which only costs some extra zooming, since single points are
+ * never carved and are always classified exactly.
+ * <p>
+ * The scratch state makes instances not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class BoxUnionRegionInspector<F, T, V extends Content<V>, R extends Range<T, V>>
+  extends ShapeRegionInspector<F, T, V, R> {
+
+  /**
+   * Maximum number of orthotopes in a leaf of the hierarchy.
+   */
+  private static final int LEAF_SIZE = 8;
+
+  /**
+   * Maximum number of pieces carved out of the node being assessed.
+   */
+  private static final int MAX_PIECES = 256;
+
+  /**
+   * Inclusive bounds of each orthotope.
+   */
+  private final long[][] boxLow;
+  private final long[][] boxHigh;
+
+  private final Node root;
+
+  /**
+   * Scratch space for the orthotopes that intersect the node being assessed,
+   * in the first {@link #nearbyCount} elements.
+   */
+  private final int[] nearby;
+  private int nearbyCount;
+
+  /**
+   * Scratch bounds of the pieces being carved, one pair for each recursion
+   * depth, allocated as needed.
+   */
+  private final List<long[]> pieceLows = new ArrayList<>();
+  private final List<long[]> pieceHighs = new ArrayList<>();
+
+  /**
+   * The number of pieces that can still be carved out of the node being
+   * assessed.
+   */
+  private int pieceBudget;
+
+  private BoxUnionRegionInspector(List<? extends List<LongRange>> boxes,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    super(boxes.get(0).size(), filterFactory, rangeHome, zero);
+    int n = boxes.size();
+    int d = getNumberOfDimensions();
+    boxLow = new long[n][d];
+    boxHigh = new long[n][d];
+    for (int j = 0; j < n; ++j) {
+      List<LongRange> box = boxes.get(j);
+      Preconditions.checkArgument(box.size() == d, "All orthotopes must have %s dimensions.", d);
+      for (int i = 0; i < d; ++i) {
+        boxLow[j][i] = box.get(i).getStart();
+        boxHigh[j][i] = box.get(i).getEnd() - 1;
+      }
+    }
+    nearby = new int[n];
+    int[] order = new int[n];
+    for (int j = 0; j < n; ++j) {
+      order[j] = j;
+    }
+    root = build(order, 0, n, 0);
+  }
+
+  /**
+   * @param boxes the orthotopes whose union is the query region; they may
+   * overlap. At least one is required.
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> BoxUnionRegionInspector<F, T, V, R> create(
+    List<? extends List<LongRange>> boxes, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    return new BoxUnionRegionInspector<F, T, V, R>(boxes, filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  protected SpatialRelation classify(long[] low, long[] high) {
+    nearbyCount = 0;
+    collect(root, low, high);
+    if (nearbyCount == 0) {
+      return SpatialRelation.DISJOINT;
+    }
+    System.arraycopy(low, 0, pieceLow(0), 0, low.length);
+    System.arraycopy(high, 0, pieceHigh(0), 0, high.length);
+    pieceBudget = MAX_PIECES;
+    return isCovered(0, 0) ? SpatialRelation.COVERED : SpatialRelation.OVERLAPS;
+  }
+
+  /**
+   * Whether the piece at {@code depth} is covered by the union of the nearby
+   * orthotopes starting at position {@code from}. The piece is modified, and
+   * so are the pieces at greater depths. Gives up, returning false, once the
+   * piece budget is exhausted.
+   */
+  private boolean isCovered(int depth, int from) {
+    if (--pieceBudget < 0) {
+      return false;
+    }
+    long[] low = pieceLow(depth);
+    long[] high = pieceHigh(depth);
+    int d = low.length;
+    for (int k = from; k < nearbyCount; ++k) {
+      int j = nearby[k];
+      if (!intersects(boxLow[j], boxHigh[j], low, high)) {
+        continue;
+      }
+      // Every piece of the orthotope outside box j must be covered by the rest.
+      for (int i = 0; i < d; ++i) {
+        if (low[i] < boxLow[j][i]) {
+          long[] pieceLow = pieceLow(depth + 1);
+          long[] pieceHigh = pieceHigh(depth + 1);
+          System.arraycopy(low, 0, pieceLow, 0, d);
+          System.arraycopy(high, 0, pieceHigh, 0, d);
+          pieceHigh[i] = boxLow[j][i] - 1;
+          if (!isCovered(depth + 1, k + 1)) {
+            return false;
+          }
+          low[i] = boxLow[j][i];
+        }
+        if (high[i] > boxHigh[j][i]) {
+          long[] pieceLow = pieceLow(depth + 1);
+          long[] pieceHigh = pieceHigh(depth + 1);
+          System.arraycopy(low, 0, pieceLow, 0, d);
+          System.arraycopy(high, 0, pieceHigh, 0, d);
+          pieceLow[i] = boxHigh[j][i] + 1;
+          if (!isCovered(depth + 1, k + 1)) {
+            return false;
+          }
+          high[i] = boxHigh[j][i];
+        }
+      }
+      // What is left is inside box j.
+      return true;
+    }
+    return false;
+  }
+
+  private long[] pieceLow(int depth) {
+    if (depth == pieceLows.size()) {
+      pieceLows.add(new long[getNumberOfDimensions()]);
+    }
+    return pieceLows.get(depth);
+  }
+
+  private long[] pieceHigh(int depth) {
+    if (depth == pieceHighs.size()) {
+      pieceHighs.add(new long[getNumberOfDimensions()]);
+    }
+    return pieceHighs.get(depth);
+  }
+
+  private void collect(Node node, long[] low, long[] high) {
+    if (!intersects(node.low, node.high, low, high)) {
+      return;
+    }
+    if (node.boxes != null) {
+      for (int j : node.boxes) {
+        if (intersects(boxLow[j], boxHigh[j], low, high)) {
+          nearby[nearbyCount++] = j;
+        }
+      }
+    } else {
+      collect(node.left, low, high);
+      collect(node.right, low, high);
+    }
+  }
+
+  private static boolean intersects(long[] low1, long[] high1, long[] low2, long[] high2) {
+    for (int i = 0; i < low1.length; ++i) {
+      if (high1[i] < low2[i] | high2[i] < low1[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Node build(int[] order, int from, int to, int axis) {
+    int d = getNumberOfDimensions();
+    long[] low = new long[d];
+    long[] high = new long[d];
+    Arrays.fill(low, Long.MAX_VALUE);
+    Arrays.fill(high, Long.MIN_VALUE);
+    for (int k = from; k < to; ++k) {
+      for (int i = 0; i < d; ++i) {
+        low[i] = Math.min(low[i], boxLow[order[k]][i]);
+        high[i] = Math.max(high[i], boxHigh[order[k]][i]);
+      }
+    }
+    if (to - from <= LEAF_SIZE) {
+      return new Node(low, high, Arrays.copyOfRange(order, from, to), null, null);
+    }
+    int middle = (from + to) >>> 1;
+    selectMedian(order, from, to, middle, axis);
+    int nextAxis = axis + 1 == d ? 0 : axis + 1;
+    return new Node(low, high, null, build(order, from, middle, nextAxis),
+      build(order, middle, to, nextAxis));
+  }
+
+  /**
+   * Rearranges {@code order[from, to)} so that the orthotope at {@code middle}
+   * has the centre it would have if they were sorted by their centres along
+   * {@code axis}, with no larger centre before it and no smaller one after.
+   */
+  private void selectMedian(int[] order, int from, int to, int middle, int axis) {
+    int left = from;
+    int right = to - 1;
+    while (left < right) {
+      long pivot = centre(order[(left + right) >>> 1], axis);
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (centre(order[i], axis) < pivot) {
+          ++i;
+        }
+        while (centre(order[j], axis) > pivot) {
+          --j;
+        }
+        if (i <= j) {
+          int tmp = order[i];
+          order[i++] = order[j];
+          order[j--] = tmp;
+        }
+      }
+      if (middle <= j) {
+        right = j;
+      } else if (middle >= i) {
+        left = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * The centre of orthotope {@code j} along {@code axis}, computed without
+   * overflowing.
+   */
+  private long centre(int j, int axis) {
+    return boxLow[j][axis] / 2 + boxHigh[j][axis] / 2;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  /**
+   * Node of the bounding volume hierarchy: either a leaf with up to {@link
+   * #LEAF_SIZE} orthotopes, or an inner node with two children.
+   */
+  private static class Node {
+
+    private final long[] low;
+    private final long[] high;
+    private final int[] boxes;
+    private final Node left;
+    private final Node right;
+
+    private Node(long[] low, long[] high, int[] boxes, Node left, Node right) {
+      this.low = low;
+      this.high = high;
+      this.boxes = boxes;
+      this.left = left;
+      this.right = right;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A query together with a snapshot of the {@link PlanningBudget} consumed to
+ * plan it.
+ * 
+ * @author Daniel Aioanei
+ *
+ * @param <F> filter type
+ * @param <R> range type
+ */
+public class BudgetedQuery<F, R> {
+
+  private final Query<F, R> query;
+  private final long nodesAssessed;
+  private final long nodesDegraded;
+  private final boolean exhausted;
+  private final long elapsedNanos;
+
+  private BudgetedQuery(Query<F, R> query, long nodesAssessed, long nodesDegraded,
+    boolean exhausted, long elapsedNanos) {
+    this.query = Preconditions.checkNotNull(query, "query");
+    this.nodesAssessed = nodesAssessed;
+    this.nodesDegraded = nodesDegraded;
+    this.exhausted = exhausted;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /**
+   * Takes a snapshot of {@code budget}, which should no longer be in use.
+   */
+  public static <F, R> BudgetedQuery<F, R> of(Query<F, R> query, PlanningBudget budget) {
+    return new BudgetedQuery<F, R>(query, budget.getNodesAssessed(), budget.getNodesDegraded(),
+      budget.isExhausted(), budget.getElapsedNanos());
+  }
+
+  /**
+   * Convenience method that plans the query with {@code queryFactory} and
+   * takes a snapshot of {@code budget} right after.
+   */
+  public static <F, R> BudgetedQuery<F, R> plan(
+    QueryFactory<F, R> queryFactory, PlanningBudget budget) {
+    return of(queryFactory.get(), budget);
+  }
+
+  public Query<F, R> getQuery() {
+    return query;
+  }
+
+  public long getNodesAssessed() {
+    return nodesAssessed;
+  }
+
+  public long getNodesDegraded() {
+    return nodesDegraded;
+  }
+
+  /**
+   * When {@literal true}, the query is potentially over-selective due to the
+   * degraded nodes, in addition to any other reasons.
+   */
+  public boolean isExhausted() {
+    return exhausted;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  @Override
+  public String toString() {
+    return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
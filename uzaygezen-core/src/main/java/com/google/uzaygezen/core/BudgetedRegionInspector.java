@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector decorator that stops zooming in once a {@link
+ * PlanningBudget} is exhausted. From then on, every node that the delegate
+ * assesses as {@link SpatialRelation#OVERLAPS} is reported as {@link
+ * SpatialRelation#COVERED} with potential over-selectivity, and with a filter
+ * created from its index range. The resulting query is thus still correct, it
+ * just selects more than needed. Since the traversal stops zooming in, after
+ * exhaustion the delegate is only called for the remaining siblings of the
+ * nodes on the current path, which are at most the number of children per
+ * node times the depth of the tree.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class BudgetedRegionInspector<F, T, V, R> implements RegionInspector<F, V> {
+
+  private final RegionInspector<F, V> delegate;
+  private final PlanningBudget budget;
+  private final Function<? super R, F> filterFactory;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+
+  private BudgetedRegionInspector(RegionInspector<F, V> delegate, PlanningBudget budget,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    this.budget = Preconditions.checkNotNull(budget, "budget");
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = zero;
+  }
+
+  /**
+   * @param filterFactory factory of non-null filter objects for the degraded
+   * nodes, usually the same one the delegate uses for covered nodes
+   */
+  public static <F, T, V, R> BudgetedRegionInspector<F, T, V, R> create(
+    RegionInspector<F, V> delegate, PlanningBudget budget,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    return new BudgetedRegionInspector<F, T, V, R>(delegate, budget, filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  public int getNumberOfDimensions() {
+    return delegate.getNumberOfDimensions();
+  }
+
+  @Override
+  public Assessment<F, V> assess(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    boolean withinBudget = budget.tryConsume();
+    Assessment<F, V> assessment = delegate.assess(indexRange, orthotope);
+    if (withinBudget || assessment.getOutcome() != SpatialRelation.OVERLAPS
+      || indexRange.getLevel() == 0) {
+      return assessment;
+    }
+    budget.recordDegraded();
+    return Assessment.makeCovered(filterFactory.apply(rangeHome.toRange(indexRange)), true, zero);
+  }
+
+  public PlanningBudget getBudget() {
+    return budget;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
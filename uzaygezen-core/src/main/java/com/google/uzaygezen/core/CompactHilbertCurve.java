@@ -96,6 +96,29 @@ public class CompactHilbertCurve implements SpaceFillingCurve {
    */
   @Override
   public void index(BitVector[] p, int minLevel, BitVector index) {
+    indexAbove(p, minLevel, index);
+  }
+
+  /**
+   * Same as {@link #index}, but it also returns the orientation of the node at
+   * {@code minLevel} that contains {@code p}: its entry vertex is copied into
+   * {@code entry}, and its intra-subhypercube direction is returned. The index
+   * bits below {@code minLevel} depend only on the orientation, on the level
+   * and on the bits of {@code p} below {@code minLevel}, so nodes on the same
+   * level with the same orientation order their descendants the same way.
+   */
+  int indexAndOrientation(BitVector[] p, int minLevel, BitVector index, BitVector entry) {
+    int d = indexAbove(p, minLevel, index);
+    entry.copyFrom(e);
+    return d;
+  }
+
+  /**
+   * Leaves the entry vertex of the node at {@code minLevel} in {@link #e}.
+   * 
+   * @return the intra-subhypercube direction of the node at {@code minLevel}
+   */
+  private int indexAbove(BitVector[] p, int minLevel, BitVector index) {
     Preconditions.checkArgument(p.length == n, "Wrong number of elements.");
     Preconditions.checkArgument(0 <= minLevel & minLevel <= spec.maxBitsPerDimension());
     for (int i = 0; i < n; ++i) {
@@ -120,6 +143,7 @@ public class CompactHilbertCurve implements SpaceFillingCurve {
       updateE(oldD, w, e);
     }
     assert minLevel != 0 | exclusiveUpperBitIndexBound == 0;
+    return d;
   }
 
   /**
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Random access to the nodes of the compact Hilbert curve tree, for planners
+ * that do not navigate it through {@link CompactHilbertCurve#accept}. A node is
+ * identified by its index range and its curve level, which goes from {@code
+ * mMax} for the root down to {@code 0} for single cells. The children of a node
+ * have their index ranges in the same order as {@link
+ * CompactHilbertCurve#accept} visits them. Not thread safe.
+ * 
+ * @author Daniel Aioanei
+ */
+final class CompactHilbertNodes {
+
+  private final CompactHilbertCurve curve;
+  private final int[] m;
+
+  /**
+   * The index level of the nodes at each curve level.
+   */
+  private final int[] indexLevels;
+
+  /**
+   * Scratch space for {@link CompactHilbertCurve#indexInverse}.
+   */
+  private final BitVector[] p;
+
+  CompactHilbertNodes(MultiDimensionalSpec spec) {
+    curve = new CompactHilbertCurve(spec);
+    m = Ints.toArray(spec.getBitsPerDimension());
+    int mMax = spec.maxBitsPerDimension();
+    indexLevels = new int[mMax + 1];
+    for (int level = 0; level <= mMax; ++level) {
+      for (int i = 0; i < m.length; ++i) {
+        indexLevels[level] += Math.min(m[i], level);
+      }
+    }
+    p = new BitVector[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(m[i]);
+    }
+  }
+
+  int getNumberOfDimensions() {
+    return m.length;
+  }
+
+  int getMaxLevel() {
+    return indexLevels.length - 1;
+  }
+
+  Pow2LengthBitSetRange root() {
+    int mMax = getMaxLevel();
+    return new Pow2LengthBitSetRange(
+      BitVectorFactories.OPTIMAL.apply(indexLevels[mMax]), indexLevels[mMax]);
+  }
+
+  /**
+   * The number of index bits that tell apart the children of a node, which has
+   * thus {@code 1 << childBitCount(curveLevel)} children.
+   */
+  int childBitCount(int curveLevel) {
+    return indexLevels[curveLevel] - indexLevels[curveLevel - 1];
+  }
+
+  /**
+   * @param parent the index range of a node at {@code parentLevel}
+   * @param r which child, with {@link #childBitCount} bits
+   * @return the index range of the child, backed by a new bit vector
+   */
+  Pow2LengthBitSetRange child(Pow2LengthBitSetRange parent, int parentLevel, BitVector r) {
+    int lowBitCount = indexLevels[parentLevel - 1];
+    BitVector childStart = parent.getStart().clone();
+    childStart.copySectionFrom(lowBitCount, r);
+    return new Pow2LengthBitSetRange(childStart, lowBitCount);
+  }
+
+  /**
+   * Computes the orthotope filled by a node, backed by new bit vectors.
+   */
+  List<Pow2LengthBitSetRange> orthotope(Pow2LengthBitSetRange indexRange, int curveLevel) {
+    assert indexRange.getLevel() == indexLevels[curveLevel];
+    curve.indexInverse(indexRange.getStart(), p);
+    Pow2LengthBitSetRange[] ranges = new Pow2LengthBitSetRange[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      int level = Math.min(m[i], curveLevel);
+      BitVector corner = p[i].clone();
+      corner.clear(0, level);
+      ranges[i] = new Pow2LengthBitSetRange(corner, level);
+    }
+    return Collections.unmodifiableList(Arrays.asList(ranges));
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.Measurable;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector for the intersection, union or difference of the query
+ * regions of other inspectors, e.g. a box minus an exclusion polygon. The
+ * children are consulted in order and only until the outcome is settled: the
+ * first {@link SpatialRelation#DISJOINT} child of an intersection, or the
+ * first {@link SpatialRelation#COVERED} child with no potential
+ * over-selectivity of a union, makes the remaining children irrelevant. So
+ * the children must not rely on seeing every node, as {@link
+ * MapRegionInspector} does; such an inspector can wrap the composite instead.
+ * <p>
+ * A child that is {@link SpatialRelation#COVERED} with potential
+ * over-selectivity asks for the node not to be zoomed into. The composite
+ * honours that whenever the other children do not need the node to be zoomed
+ * into, and then reports potential over-selectivity as well. The estimate of a
+ * disjoint node is the one of the child that settled it, the largest one among
+ * the children of a union, and otherwise the length of the index range, i.e.,
+ * a uniform distribution as in {@link SimpleRegionInspector}. Covered nodes
+ * get their filters from {@code filterFactory}, since the filters of the
+ * children cannot be combined in general.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class CompositeRegionInspector<F, T, V extends Content<V>, R extends Measurable<V>>
+  implements RegionInspector<F, V> {
+
+  private enum Operator {
+    AND,
+    OR,
+    AND_NOT,
+  }
+
+  private final Operator operator;
+  private final List<RegionInspector<F, V>> children;
+  private final Function<? super R, F> filterFactory;
+  private final RangeHome<T, V, R> rangeHome;
+  private final Assessment<F, V> overlaps;
+  private final V zero;
+
+  private CompositeRegionInspector(Operator operator,
+    List<? extends RegionInspector<F, V>> children, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    this.operator = operator;
+    this.children = ImmutableList.copyOf(children);
+    Preconditions.checkArgument(!this.children.isEmpty(), "No children.");
+    int numberOfDimensions = this.children.get(0).getNumberOfDimensions();
+    for (RegionInspector<F, V> child : this.children) {
+      Preconditions.checkArgument(child.getNumberOfDimensions() == numberOfDimensions,
+        "All children must have %s dimensions.", numberOfDimensions);
+    }
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.overlaps = Assessment.makeOverlaps(zero);
+    this.zero = zero;
+  }
+
+  /**
+   * @param children non-empty; cheaper or more selective inspectors should
+   * come first, since they are more likely to settle the outcome early
+   * @param filterFactory factory of non-null filter objects for covered nodes
+   */
+  public static <F, T, V extends Content<V>, R extends Measurable<V>> CompositeRegionInspector<F, T, V, R> and(
+    List<? extends RegionInspector<F, V>> children, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    return new CompositeRegionInspector<F, T, V, R>(
+      Operator.AND, children, filterFactory, rangeHome, zero);
+  }
+
+  /**
+   * @param children non-empty; inspectors of larger regions should come
+   * first, since they are more likely to settle the outcome early
+   * @param filterFactory factory of non-null filter objects for covered nodes
+   */
+  public static <F, T, V extends Content<V>, R extends Measurable<V>> CompositeRegionInspector<F, T, V, R> or(
+    List<? extends RegionInspector<F, V>> children, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    return new CompositeRegionInspector<F, T, V, R>(
+      Operator.OR, children, filterFactory, rangeHome, zero);
+  }
+
+  /**
+   * The points of {@code include} that are not in {@code exclude}. The latter
+   * is only consulted for nodes that are not disjoint from the former.
+   * 
+   * @param filterFactory factory of non-null filter objects for covered nodes
+   */
+  public static <F, T, V extends Content<V>, R extends Measurable<V>> CompositeRegionInspector<F, T, V, R> andNot(
+    RegionInspector<F, V> include, RegionInspector<F, V> exclude,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    return new CompositeRegionInspector<F, T, V, R>(Operator.AND_NOT,
+      ImmutableList.of(include, exclude), filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  public Assessment<F, V> assess(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    switch (operator) {
+    case AND:
+      return assessAnd(indexRange, orthotope);
+    case OR:
+      return assessOr(indexRange, orthotope);
+    case AND_NOT:
+      return assessAndNot(indexRange, orthotope);
+    default:
+      throw new RuntimeException("Cannot be: " + operator);
+    }
+  }
+
+  private Assessment<F, V> assessAnd(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    boolean anyOverlaps = false;
+    boolean potentialOverSelectivity = false;
+    for (RegionInspector<F, V> child : children) {
+      Assessment<F, V> assessment = child.assess(indexRange, orthotope);
+      switch (assessment.getOutcome()) {
+      case DISJOINT:
+        return assessment;
+      case OVERLAPS:
+        anyOverlaps = true;
+        break;
+      case COVERED:
+        potentialOverSelectivity |= assessment.isPotentialOverSelectivity();
+        break;
+      default:
+        throw new RuntimeException("Cannot be: " + assessment.getOutcome());
+      }
+    }
+    return anyOverlaps ? overlaps : covered(indexRange, potentialOverSelectivity);
+  }
+
+  private Assessment<F, V> assessOr(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    boolean anyOverlaps = false;
+    boolean anyCovered = false;
+    V estimate = null;
+    for (RegionInspector<F, V> child : children) {
+      Assessment<F, V> assessment = child.assess(indexRange, orthotope);
+      switch (assessment.getOutcome()) {
+      case DISJOINT:
+        if (estimate == null || estimate.compareTo(assessment.getEstimate()) < 0) {
+          estimate = assessment.getEstimate();
+        }
+        break;
+      case OVERLAPS:
+        anyOverlaps = true;
+        break;
+      case COVERED:
+        if (!assessment.isPotentialOverSelectivity()) {
+          return covered(indexRange, false);
+        }
+        anyCovered = true;
+        break;
+      default:
+        throw new RuntimeException("Cannot be: " + assessment.getOutcome());
+      }
+    }
+    if (anyOverlaps) {
+      return overlaps;
+    }
+    return anyCovered ? covered(indexRange, true) : Assessment.<F, V>makeDisjoint(estimate);
+  }
+
+  private Assessment<F, V> assessAndNot(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    Assessment<F, V> include = children.get(0).assess(indexRange, orthotope);
+    if (include.getOutcome() == SpatialRelation.DISJOINT) {
+      return include;
+    }
+    Assessment<F, V> exclude = children.get(1).assess(indexRange, orthotope);
+    switch (exclude.getOutcome()) {
+    case DISJOINT:
+      return include.getOutcome() == SpatialRelation.OVERLAPS ? overlaps
+        : covered(indexRange, include.isPotentialOverSelectivity());
+    case COVERED:
+      if (!exclude.isPotentialOverSelectivity()) {
+        return Assessment.makeDisjoint(rangeHome.toRange(indexRange).length());
+      }
+      // The excluded region does not want to be zoomed into.
+      return include.getOutcome() == SpatialRelation.OVERLAPS ? overlaps
+        : covered(indexRange, true);
+    case OVERLAPS:
+      return include.getOutcome() == SpatialRelation.COVERED
+        && include.isPotentialOverSelectivity() ? covered(indexRange, true) : overlaps;
+    default:
+      throw new RuntimeException("Cannot be: " + exclude.getOutcome());
+    }
+  }
+
+  private Assessment<F, V> covered(
+    Pow2LengthBitSetRange indexRange, boolean potentialOverSelectivity) {
+    return Assessment.makeCovered(
+      filterFactory.apply(rangeHome.toRange(indexRange)), potentialOverSelectivity, zero);
+  }
+
+  @Override
+  public int getNumberOfDimensions() {
+    return children.get(0).getNumberOfDimensions();
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector for a convex polytope given as the intersection of
+ * half-spaces {@code a[j] . x <= b[j]}. For each half-space, the extreme
+ * values of {@code a[j] . x} over an orthotope are reached at the corners
+ * picked by the signs of the coefficients, so each orthotope is classified in
+ * time proportional to the number of half-spaces times the number of
+ * dimensions: disjoint if it is outside some half-space, covered if it is
+ * inside all of them, and overlapping otherwise. An orthotope that straddles
+ * several half-spaces while missing their intersection is reported as
+ * overlapping, which only costs some extra zooming, since single points are
+ * always classified exactly. The arithmetic is done in doubles.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class ConvexPolytopeRegionInspector<F, T, V extends Content<V>, R extends Range<T, V>>
+  extends ShapeRegionInspector<F, T, V, R> {
+
+  private final double[][] a;
+  private final double[] b;
+
+  private ConvexPolytopeRegionInspector(int numberOfDimensions, double[][] a, double[] b,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero) {
+    super(numberOfDimensions, filterFactory, rangeHome, zero);
+    this.a = a;
+    this.b = b;
+  }
+
+  /**
+   * @param numberOfDimensions the number of dimensions of the space
+   * @param a the coefficients of the half-spaces, one row per half-space and
+   * one column per dimension; with no half-spaces the polytope is the whole
+   * space
+   * @param b the right hand sides of the half-spaces
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> ConvexPolytopeRegionInspector<F, T, V, R> create(
+    int numberOfDimensions, double[][] a, double[] b, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    Preconditions.checkArgument(a.length == b.length, "a and b must have the same length");
+    double[][] aCopy = new double[a.length][];
+    for (int j = 0; j < a.length; ++j) {
+      Preconditions.checkArgument(
+        a[j].length == numberOfDimensions, "each row of a must have one column per dimension");
+      aCopy[j] = a[j].clone();
+    }
+    return new ConvexPolytopeRegionInspector<F, T, V, R>(
+      numberOfDimensions, aCopy, b.clone(), filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  protected SpatialRelation classify(long[] low, long[] high) {
+    boolean covered = true;
+    for (int j = 0; j < a.length; ++j) {
+      double[] row = a[j];
+      double min = 0;
+      double max = 0;
+      for (int i = 0; i < row.length; ++i) {
+        if (row[i] >= 0) {
+          min += row[i] * low[i];
+          max += row[i] * high[i];
+        } else {
+          min += row[i] * high[i];
+          max += row[i] * low[i];
+        }
+      }
+      if (min > b[j]) {
+        return SpatialRelation.DISJOINT;
+      }
+      covered &= max <= b[j];
+    }
+    return covered ? SpatialRelation.COVERED : SpatialRelation.OVERLAPS;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
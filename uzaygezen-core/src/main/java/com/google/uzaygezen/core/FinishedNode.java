@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A node of the space filling curve tree that has been assessed as covered or
+ * disjoint (or as overlapping at the lowest level), recorded so that it can
+ * later be replayed into a query builder. Planners that do not visit the nodes
+ * in depth-first order, or not on one thread, collect these and then {@link
+ * #replay} them in index order, which makes the produced query identical to the
+ * one of a sequential traversal.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <V> content type
+ */
+class FinishedNode<F, V> {
+
+  /**
+   * Orders the nodes by their index range start.
+   */
+  static final Comparator<FinishedNode<?, ?>> INDEX_ORDER = new Comparator<FinishedNode<?, ?>>() {
+    @Override
+    public int compare(FinishedNode<?, ?> o1, FinishedNode<?, ?> o2) {
+      return o1.indexRange.getStart().compareTo(o2.indexRange.getStart());
+    }
+  };
+
+  private final Pow2LengthBitSetRange indexRange;
+  private final List<Pow2LengthBitSetRange> orthotope;
+  private final Assessment<F, V> assessment;
+
+  private FinishedNode(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope,
+    Assessment<F, V> assessment) {
+    this.indexRange = indexRange;
+    this.orthotope = orthotope;
+    this.assessment = assessment;
+  }
+
+  /**
+   * Copies the possibly reused arguments.
+   */
+  static <F, V> FinishedNode<F, V> of(Pow2LengthBitSetRange indexRange,
+    List<Pow2LengthBitSetRange> orthotope, Assessment<F, V> assessment) {
+    ImmutableList.Builder<Pow2LengthBitSetRange> orthotopeCopy = ImmutableList.builder();
+    for (Pow2LengthBitSetRange range : orthotope) {
+      orthotopeCopy.add(range.clone());
+    }
+    return new FinishedNode<F, V>(indexRange.clone(), orthotopeCopy.build(), assessment);
+  }
+
+  Pow2LengthBitSetRange getIndexRange() {
+    return indexRange;
+  }
+
+  Assessment<F, V> getAssessment() {
+    return assessment;
+  }
+
+  /**
+   * Feeds {@code nodes}, which must be in index order and must cover the whole
+   * index space, into a query builder created by {@code builderFactory} for an
+   * inspector that hands out the recorded assessments.
+   */
+  static <F, V, R> Query<F, R> replay(List<FinishedNode<F, V>> nodes,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    int numberOfDimensions) {
+    ReplayRegionInspector<F, V> replay =
+      new ReplayRegionInspector<F, V>(nodes.iterator(), numberOfDimensions);
+    QueryBuilder<F, R> builder = builderFactory.apply(replay);
+    for (FinishedNode<F, V> node : nodes) {
+      boolean wantsChildren = builder.visit(node.indexRange, node.orthotope);
+      Preconditions.checkState(!wantsChildren || node.indexRange.getLevel() == 0,
+        "The query builder wants to zoom into a finished node.");
+    }
+    Preconditions.checkState(!replay.nodes.hasNext(), "Not all nodes have been replayed.");
+    return builder.get();
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  /**
+   * Hands out the recorded assessments in order.
+   */
+  private static class ReplayRegionInspector<F, V> implements RegionInspector<F, V> {
+
+    private final Iterator<FinishedNode<F, V>> nodes;
+    private final int numberOfDimensions;
+
+    private ReplayRegionInspector(Iterator<FinishedNode<F, V>> nodes, int numberOfDimensions) {
+      this.nodes = nodes;
+      this.numberOfDimensions = numberOfDimensions;
+    }
+
+    @Override
+    public int getNumberOfDimensions() {
+      return numberOfDimensions;
+    }
+
+    @Override
+    public Assessment<F, V> assess(
+      Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Preconditions.checkState(nodes.hasNext(), "No more recorded nodes.");
+      FinishedNode<F, V> node = nodes.next();
+      Preconditions.checkArgument(node.indexRange.equals(indexRange),
+        "Expected %s but got %s.", node.indexRange, indexRange);
+      return node.assessment;
+    }
+  }
+}
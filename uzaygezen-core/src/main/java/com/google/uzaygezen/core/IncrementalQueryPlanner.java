@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * Plans a sequence of queries for a moving orthotope, such as the window of a
+ * panned map or a sliding time range, reusing the work done for the previous
+ * one. The nodes are assessed by a {@link LongSimpleRegionInspector}, whose
+ * assessment of a node only depends on the part of the node inside the query
+ * orthotope. Whenever that part is the same for the old and the new orthotope,
+ * i.e., the node does not touch their symmetric difference, the finished nodes
+ * recorded for its subtree last time are reused without being looked at.
+ * Only the nodes along the boundary of the symmetric difference are assessed
+ * again.
+ * <p>
+ * The finished nodes are then replayed in index order into a fresh query
+ * builder, so each query is exactly the one a planning from scratch would
+ * produce, including any merging of ranges; the replay is linear in the number
+ * of finished nodes but assesses nothing. Not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class IncrementalQueryPlanner<F> {
+
+  private final MultiDimensionalSpec spec;
+  private final long minOverlappingContent;
+  private final Function<? super LongRange, F> filterFactory;
+  private final Function<? super RegionInspector<F, LongContent>, ? extends QueryBuilder<F, LongRange>> builderFactory;
+
+  /**
+   * The orthotope of the previous query, or null before the first one.
+   */
+  private List<LongRange> previousOrthotope;
+
+  /**
+   * The finished nodes of the previous query, in index order.
+   */
+  private List<FinishedNode<F, LongContent>> previousNodes = ImmutableList.of();
+
+  private long nodesAssessed;
+  private long nodesReused;
+
+  private IncrementalQueryPlanner(MultiDimensionalSpec spec, long minOverlappingContent,
+    Function<? super LongRange, F> filterFactory,
+    Function<? super RegionInspector<F, LongContent>, ? extends QueryBuilder<F, LongRange>> builderFactory) {
+    this.spec = Preconditions.checkNotNull(spec, "spec");
+    this.minOverlappingContent = minOverlappingContent;
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.builderFactory = Preconditions.checkNotNull(builderFactory, "builderFactory");
+  }
+
+  /**
+   * @param minOverlappingContent see {@link LongSimpleRegionInspector#create}
+   * @param filterFactory see {@link LongSimpleRegionInspector#create}
+   * @param builderFactory creates the query builder that receives the finished
+   * nodes in index order, e.g., a {@link BacktrackingQueryBuilder}
+   */
+  public static <F> IncrementalQueryPlanner<F> create(MultiDimensionalSpec spec,
+    long minOverlappingContent, Function<? super LongRange, F> filterFactory,
+    Function<? super RegionInspector<F, LongContent>, ? extends QueryBuilder<F, LongRange>> builderFactory) {
+    return new IncrementalQueryPlanner<F>(spec, minOverlappingContent, filterFactory,
+      builderFactory);
+  }
+
+  /**
+   * Plans the query for {@code orthotope}, reusing what can be reused from the
+   * previous call.
+   */
+  public Query<F, LongRange> plan(List<LongRange> orthotope) {
+    Preconditions.checkArgument(orthotope.size() == spec.getBitsPerDimension().size(),
+      "orthotope must have %s dimensions", spec.getBitsPerDimension().size());
+    List<LongRange> newOrthotope = ImmutableList.copyOf(orthotope);
+    LongSimpleRegionInspector<F> inspector = LongSimpleRegionInspector.create(
+      ImmutableList.of(newOrthotope), minOverlappingContent, filterFactory);
+    PatchingVisitor visitor = new PatchingVisitor(inspector, newOrthotope);
+    CompactHilbertCurve curve = new CompactHilbertCurve(spec);
+    curve.accept(new ZoomingSpaceVisitorAdapter(curve, visitor));
+    nodesAssessed = visitor.assessed;
+    nodesReused = visitor.reused;
+    previousOrthotope = newOrthotope;
+    previousNodes = visitor.nodes;
+    return FinishedNode.replay(previousNodes, builderFactory, orthotope.size());
+  }
+
+  /**
+   * @return the number of nodes assessed by the latest call to {@link #plan}
+   */
+  public long getNodesAssessed() {
+    return nodesAssessed;
+  }
+
+  /**
+   * @return the number of finished nodes that the latest call to {@link #plan}
+   * took over from the previous one
+   */
+  public long getNodesReused() {
+    return nodesReused;
+  }
+
+  /**
+   * Whether the parts of {@code node} inside {@code a} and inside {@code b}
+   * are the same.
+   */
+  private static boolean sameIntersection(
+    List<Pow2LengthBitSetRange> node, List<LongRange> a, List<LongRange> b) {
+    boolean emptyA = false;
+    boolean emptyB = false;
+    boolean same = true;
+    for (int i = 0; i < node.size(); ++i) {
+      long start = node.get(i).getStart().toExactLong();
+      long end = start + (1L << node.get(i).getLevel());
+      long startA = Math.max(start, a.get(i).getStart());
+      long endA = Math.min(end, a.get(i).getEnd());
+      long startB = Math.max(start, b.get(i).getStart());
+      long endB = Math.min(end, b.get(i).getEnd());
+      emptyA |= startA >= endA;
+      emptyB |= startB >= endB;
+      same &= startA == startB & endA == endB;
+    }
+    return emptyA & emptyB || (!emptyA & !emptyB & same);
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private class PatchingVisitor implements SpaceVisitor {
+
+    private final RegionInspector<F, LongContent> inspector;
+    private final List<LongRange> orthotope;
+    private final List<FinishedNode<F, LongContent>> nodes = new ArrayList<>();
+
+    /**
+     * Position in {@link #previousNodes} of the first node not yet reused or
+     * discarded. Only moves forward, since the nodes are visited in index order.
+     */
+    private int cursor;
+    private long assessed;
+    private long reused;
+
+    private PatchingVisitor(RegionInspector<F, LongContent> inspector, List<LongRange> orthotope) {
+      this.inspector = inspector;
+      this.orthotope = orthotope;
+    }
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> ranges) {
+      if (previousOrthotope != null && sameIntersection(ranges, previousOrthotope, orthotope)) {
+        LongRange subtree = LongRangeHome.INSTANCE.toRange(indexRange);
+        while (cursor < previousNodes.size() && start(cursor) < subtree.getStart()) {
+          cursor++;
+        }
+        /*
+         * The previous traversal reached this node iff a finished node starts
+         * exactly here and is not larger; otherwise one of the ancestors had
+         * been finished and there is nothing to reuse.
+         */
+        if (cursor < previousNodes.size() && start(cursor) == subtree.getStart()
+          && previousNodes.get(cursor).getIndexRange().getLevel() <= indexRange.getLevel()) {
+          while (cursor < previousNodes.size() && start(cursor) < subtree.getEnd()) {
+            nodes.add(previousNodes.get(cursor++));
+            reused++;
+          }
+          return false;
+        }
+      }
+      assessed++;
+      Assessment<F, LongContent> assessment = inspector.assess(indexRange, ranges);
+      if (assessment.getOutcome() == SpatialRelation.OVERLAPS && indexRange.getLevel() != 0) {
+        return true;
+      }
+      nodes.add(FinishedNode.of(indexRange, ranges, assessment));
+      return false;
+    }
+
+    private long start(int position) {
+      return previousNodes.get(position).getIndexRange().getStart().toExactLong();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector decorator that restricts planning to one interval of the
+ * space filling curve index, such as the one owned by a storage shard. Nodes
+ * outside the interval are reported as empty gaps without consulting the
+ * delegate, so the traversal never zooms into them. Nodes that straddle a
+ * boundary of the interval are always zoomed into unless the delegate finds
+ * them disjoint with the query region. Only the nodes on the two paths from
+ * the root to the boundaries are thus visited in addition to the nodes inside
+ * the interval, and the cost of planning is proportional to the part of the
+ * query inside the interval. All the ranges of the produced query are inside
+ * the interval.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class IndexIntervalRegionInspector<F, T extends Comparable<T>, V, R extends Range<T, V>>
+  implements RegionInspector<F, V> {
+
+  private final RegionInspector<F, V> delegate;
+  private final R interval;
+  private final RangeHome<T, V, R> rangeHome;
+
+  /**
+   * Recurring immutable results, allocated only once.
+   */
+  private final Assessment<F, V> disjointZero, overlapsZero;
+
+  private IndexIntervalRegionInspector(
+    RegionInspector<F, V> delegate, R interval, RangeHome<T, V, R> rangeHome, V zero) {
+    this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+    this.interval = Preconditions.checkNotNull(interval, "interval");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.disjointZero = Assessment.makeDisjoint(zero);
+    this.overlapsZero = Assessment.makeOverlaps(zero);
+  }
+
+  /**
+   * @param interval {@code [startIndex, endIndex)}, the part of the index space
+   * to plan for
+   */
+  public static <F, T extends Comparable<T>, V, R extends Range<T, V>> IndexIntervalRegionInspector<F, T, V, R> create(
+    RegionInspector<F, V> delegate, R interval, RangeHome<T, V, R> rangeHome, V zero) {
+    return new IndexIntervalRegionInspector<F, T, V, R>(delegate, interval, rangeHome, zero);
+  }
+
+  @Override
+  public int getNumberOfDimensions() {
+    return delegate.getNumberOfDimensions();
+  }
+
+  @Override
+  public Assessment<F, V> assess(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    R range = rangeHome.toRange(indexRange);
+    if (range.getEnd().compareTo(interval.getStart()) <= 0
+      || range.getStart().compareTo(interval.getEnd()) >= 0) {
+      return disjointZero;
+    }
+    Assessment<F, V> assessment = delegate.assess(indexRange, orthotope);
+    if (assessment.getOutcome() == SpatialRelation.DISJOINT
+      || (range.getStart().compareTo(interval.getStart()) >= 0
+        && range.getEnd().compareTo(interval.getEnd()) <= 0)) {
+      return assessment;
+    }
+    // A node of length one cannot straddle a boundary.
+    assert indexRange.getLevel() != 0;
+    return overlapsZero;
+  }
+
+  public R getInterval() {
+    return interval;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Planner for queries that only need some of the points in the query region,
+ * such as those with a {@code LIMIT} clause. Each call to {@link #next} plans
+ * just enough filtered index ranges, in index order, for them to be estimated
+ * to hold the requested number of rows, and the planner itself is the
+ * continuation: the next call picks up where the previous one stopped. The
+ * ranges come from a {@link StreamingQueryPlanner}, so the tree is only
+ * navigated as far as needed, and {@link MapRegionInspector} works as usual.
+ * <p>
+ * The rows of each range are estimated as the sum of the estimates for the
+ * covered nodes that make it up, as given by a row estimator such as {@link
+ * #rollupRowEstimator}. Covered nodes with potential over-selectivity are not
+ * counted, since their rows need not match the query, so they never make a
+ * batch stop early; a batch can thus hold more matching rows than requested,
+ * but as long as the estimates are exact, never fewer unless the ranges run
+ * out. A caller that does not want to keep the planner around
+ * can instead remember {@link #getResumeIndex()} and plan the rest later with
+ * an {@link IndexIntervalRegionInspector} that starts there. Not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class LimitQueryPlanner<F, T extends Comparable<T>, V extends Content<V>, R extends Range<T, V>> {
+
+  private final StreamingQueryPlanner<F, T, V, R> ranges;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+
+  /**
+   * Exactly covered nodes seen by the streaming planner but not yet accounted
+   * for in a produced range, in index order.
+   */
+  private final Deque<CoveredNode> covered = new ArrayDeque<>();
+
+  private T resumeIndex;
+  private V lastBatchRows;
+
+  private LimitQueryPlanner(MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    Function<? super Pow2LengthBitSetRange, V> rowEstimator,
+    FilterCombiner<F, V, R> filterCombiner, V maxGap, RangeHome<T, V, R> rangeHome, V zero) {
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = zero;
+    this.lastBatchRows = zero.clone();
+    this.ranges = StreamingQueryPlanner.create(spec,
+      new CountingRegionInspector(inspector, Preconditions.checkNotNull(rowEstimator,
+        "rowEstimator")), filterCombiner, maxGap, rangeHome, zero);
+  }
+
+  /**
+   * @param rowEstimator estimates the number of rows in a covered node
+   * @param maxGap see {@link StreamingQueryPlanner#create}
+   */
+  public static <F, T extends Comparable<T>, V extends Content<V>, R extends Range<T, V>> LimitQueryPlanner<F, T, V, R> create(
+    MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    Function<? super Pow2LengthBitSetRange, V> rowEstimator,
+    FilterCombiner<F, V, R> filterCombiner, V maxGap, RangeHome<T, V, R> rangeHome, V zero) {
+    return new LimitQueryPlanner<F, T, V, R>(
+      spec, inspector, rowEstimator, filterCombiner, maxGap, rangeHome, zero);
+  }
+
+  /**
+   * Row estimator that reads the rolled up counts, as produced by {@link
+   * BoundedRollup} and {@link Pow2LengthBitSetRangeFactory#applyCompact}. Nodes
+   * under a leaf get the count of the leaf divided by the relative size, as in
+   * {@link MapRegionInspector}, and nodes missing from the map otherwise are
+   * empty.
+   */
+  public static <V extends Content<V>> Function<Pow2LengthBitSetRange, V> rollupRowEstimator(
+    final Map<Pow2LengthBitSetRangeKey, NodeValue<V>> rollup, final V zero) {
+    return new Function<Pow2LengthBitSetRange, V>() {
+      @Override
+      public V apply(Pow2LengthBitSetRange node) {
+        NodeValue<V> value = rollup.get(Pow2LengthBitSetRangeKey.of(node));
+        if (value != null) {
+          return value.getValue();
+        }
+        BitVector start = node.getStart().clone();
+        for (int level = node.getLevel() + 1; level <= start.size(); ++level) {
+          start.clear(level - 1);
+          NodeValue<V> ancestor = rollup.get(
+            Pow2LengthBitSetRangeKey.of(new Pow2LengthBitSetRange(start, level)));
+          if (ancestor != null) {
+            if (!ancestor.isLeaf()) {
+              return zero;
+            }
+            V quotient = ancestor.getValue().clone();
+            quotient.shiftRight(level - node.getLevel());
+            return quotient;
+          }
+        }
+        return zero;
+      }
+    };
+  }
+
+  /**
+   * Plans the next ranges, stopping as soon as they are estimated to hold at
+   * least {@code rowTarget} matching rows, or when there are no more ranges.
+   */
+  public Query<F, R> next(V rowTarget) {
+    List<FilteredIndexRange<F, R>> batch = new ArrayList<>();
+    V rows = zero.clone();
+    while (rows.compareTo(rowTarget) < 0 && ranges.hasNext()) {
+      FilteredIndexRange<F, R> range = ranges.next();
+      batch.add(range);
+      T end = range.getIndexRange().getEnd();
+      CoveredNode node;
+      while ((node = covered.peek()) != null && node.start.compareTo(end) < 0) {
+        rows.add(covered.poll().rows);
+      }
+      resumeIndex = end;
+    }
+    lastBatchRows = rows;
+    return Query.of(batch);
+  }
+
+  /**
+   * @return whether {@link #next} can produce more ranges
+   */
+  public boolean hasMore() {
+    return ranges.hasNext();
+  }
+
+  /**
+   * @return the end of the last range produced so far, or null if none has
+   * been; no later range starts before it
+   */
+  public T getResumeIndex() {
+    return resumeIndex;
+  }
+
+  /**
+   * @return the estimated number of matching rows in the ranges of the latest
+   * batch, not counting the covered nodes with potential over-selectivity
+   */
+  public V getLastBatchRows() {
+    return lastBatchRows;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private class CoveredNode {
+
+    private final T start;
+    private final V rows;
+
+    private CoveredNode(T start, V rows) {
+      this.start = start;
+      this.rows = rows;
+    }
+  }
+
+  /**
+   * Records the estimated rows of each covered node with no potential
+   * over-selectivity.
+   */
+  private class CountingRegionInspector implements RegionInspector<F, V> {
+
+    private final RegionInspector<F, V> delegate;
+    private final Function<? super Pow2LengthBitSetRange, V> rowEstimator;
+
+    private CountingRegionInspector(
+      RegionInspector<F, V> delegate, Function<? super Pow2LengthBitSetRange, V> rowEstimator) {
+      this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+      this.rowEstimator = rowEstimator;
+    }
+
+    @Override
+    public Assessment<F, V> assess(
+      Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Assessment<F, V> assessment = delegate.assess(indexRange, orthotope);
+      if (assessment.getOutcome() == SpatialRelation.COVERED
+        && !assessment.isPotentialOverSelectivity()) {
+        covered.add(new CoveredNode(
+          rangeHome.toRange(indexRange).getStart(), rowEstimator.apply(indexRange)));
+      }
+      return assessment;
+    }
+
+    @Override
+    public int getNumberOfDimensions() {
+      return delegate.getNumberOfDimensions();
+    }
+  }
+}
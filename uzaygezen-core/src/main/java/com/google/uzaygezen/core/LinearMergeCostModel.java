@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Cost model where each range costs {@code seekCost} and each scanned point
+ * costs {@code rowCost}. Two ranges are joined iff {@code gapEstimate * rowCost
+ * < seekCost}, which is precomputed as a maximum joinable gap so that no
+ * arithmetic happens per gap.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <V> gap estimate type
+ */
+public class LinearMergeCostModel<V extends Comparable<V>> implements MergeCostModel<V> {
+
+  /**
+   * Null iff no gap is cheap enough to scan over.
+   */
+  private final V maxMergeableGap;
+
+  private LinearMergeCostModel(V maxMergeableGap) {
+    this.maxMergeableGap = maxMergeableGap;
+  }
+
+  public static LinearMergeCostModel<LongContent> ofLong(double seekCost, double rowCost) {
+    BigInteger max = maxMergeableGap(seekCost, rowCost);
+    final LongContent maxMergeableGap;
+    if (max.signum() < 0) {
+      maxMergeableGap = null;
+    } else {
+      maxMergeableGap = new LongContent(
+        max.bitLength() < Long.SIZE ? max.longValue() : Long.MAX_VALUE);
+    }
+    return new LinearMergeCostModel<>(maxMergeableGap);
+  }
+
+  public static LinearMergeCostModel<BigIntegerContent> ofBigInteger(
+    double seekCost, double rowCost) {
+    BigInteger max = maxMergeableGap(seekCost, rowCost);
+    return new LinearMergeCostModel<>(max.signum() < 0 ? null : new BigIntegerContent(max));
+  }
+
+  /**
+   * The largest integer gap {@code g} with {@code g * rowCost < seekCost}, or
+   * {@code -1} if there is no such non-negative number.
+   */
+  private static BigInteger maxMergeableGap(double seekCost, double rowCost) {
+    Preconditions.checkArgument(
+      seekCost >= 0 && !Double.isInfinite(seekCost), "seekCost must be finite and non-negative");
+    Preconditions.checkArgument(
+      rowCost > 0 && !Double.isInfinite(rowCost), "rowCost must be finite and positive");
+    return new BigDecimal(seekCost).divide(new BigDecimal(rowCost), 0, RoundingMode.CEILING)
+      .toBigIntegerExact().subtract(BigInteger.ONE);
+  }
+
+  /**
+   * @return the largest gap that is still joined, or null if no gap is
+   */
+  public V getMaxMergeableGap() {
+    return maxMergeableGap;
+  }
+
+  @Override
+  public boolean isMergeCheaper(V gapEstimate) {
+    return maxMergeableGap != null && gapEstimate.compareTo(maxMergeableGap) <= 0;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
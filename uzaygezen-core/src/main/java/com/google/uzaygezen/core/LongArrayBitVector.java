@@ -19,6 +19,7 @@ package com.google.uzaygezen.core;
 import com.google.common.base.Preconditions;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -633,6 +634,41 @@ public class LongArrayBitVector implements BitVector {
     assert checkSanity();
   }
   
+  @Override
+  public void writeBigEndian(ByteBuffer dst) {
+    int n = MathUtils.bitCountToByteCount(size);
+    if (n == 0) {
+      return;
+    }
+    // Only the most significant word can be written partially.
+    int topByteCount = n - (data.length - 1) * BYTES_IN_WORD;
+    MathUtils.putBigEndian(dst, data[data.length - 1], topByteCount);
+    for (int i = data.length - 1; --i >= 0; ) {
+      MathUtils.putBigEndian(dst, data[i], BYTES_IN_WORD);
+    }
+  }
+
+  @Override
+  public void readBigEndian(ByteBuffer src, int offset, int byteLen) {
+    int n = MathUtils.bitCountToByteCount(size);
+    Preconditions.checkArgument(byteLen == n, "byteLen must be %s.", n);
+    if (n == 0) {
+      return;
+    }
+    int topByteCount = n - (data.length - 1) * BYTES_IN_WORD;
+    long top = MathUtils.getBigEndian(src, offset, topByteCount);
+    Preconditions.checkArgument(
+        Long.numberOfLeadingZeros(top) >= data.length * WORD - size,
+        "Some bit positions are too high.");
+    data[data.length - 1] = top;
+    int index = offset + topByteCount;
+    for (int i = data.length - 1; --i >= 0; ) {
+      data[i] = MathUtils.getBigEndian(src, index, BYTES_IN_WORD);
+      index += BYTES_IN_WORD;
+    }
+    assert checkSanity();
+  }
+
   public void copyFrom(byte[] array) {
     Preconditions.checkArgument((size + BYTE - 1) / BYTE == array.length);
     clear();
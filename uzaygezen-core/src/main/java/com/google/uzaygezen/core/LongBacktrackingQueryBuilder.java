@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * Specialisation of {@link BacktrackingQueryBuilder} for {@link LongRange}
+ * indexes and {@link LongContent} estimates. Instead of a linked list of
+ * filtered ranges and a priority queue of gap objects, it keeps the ranges in
+ * parallel primitive arrays with {@code prev}/{@code next} links and a free
+ * list, and a binary min-heap of slot numbers keyed by their {@code long} left
+ * gaps. Nothing is allocated per visited node or per heap operation; the
+ * arrays only grow by doubling. Merging two ranges still allocates the
+ * arguments of {@link FilterCombiner#combine}.
+ * <p>
+ * The heap reproduces the sift-up and sift-down steps of {@link
+ * java.util.PriorityQueue}, so ties between equal gaps are broken in the same
+ * way, and the produced query is identical to the one of {@link
+ * BacktrackingQueryBuilder} with the same configuration.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class LongBacktrackingQueryBuilder<F> implements QueryBuilder<F, LongRange> {
+
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final RegionInspector<F, LongContent> regionInspector;
+  private final FilterCombiner<F, LongContent, LongRange> filterCombiner;
+  private final int maxFilteredIndexRanges;
+  private final boolean alwaysRemoveVacuum;
+
+  /**
+   * The gap between the last 2 ranges, if any; otherwise zero.
+   */
+  private long currentGap;
+
+  /*
+   * Range slots. The gap is the one between the range and its predecessor,
+   * and it is only meaningful for slots in the heap.
+   */
+  private long[] starts;
+  private long[] ends;
+  private long[] leftGaps;
+  private Object[] filters;
+  private boolean[] overSelectivities;
+  private int[] prev;
+  private int[] next;
+
+  private int first = NONE;
+  private int last = NONE;
+  private int size;
+
+  /**
+   * Free slots are linked through {@link #next}.
+   */
+  private int freeList = NONE;
+
+  /**
+   * Never exceeds {@link #maxFilteredIndexRanges} in size.
+   */
+  private int[] heap;
+  private int heapSize;
+
+  /**
+   * Used solely for safety checking that the finished orthotopes are passed in
+   * increasing order and that none are skipped.
+   */
+  private long lastFinishedEnd;
+
+  private LongBacktrackingQueryBuilder(RegionInspector<F, LongContent> regionInspector,
+    FilterCombiner<F, LongContent, LongRange> filterCombiner, int maxFilteredIndexRanges,
+    boolean alwaysRemoveVacuum) {
+    this.regionInspector = Preconditions.checkNotNull(regionInspector, "regionInspector");
+    this.filterCombiner = Preconditions.checkNotNull(filterCombiner, "filterCombiner");
+    Preconditions.checkArgument(
+      maxFilteredIndexRanges > 0, "maxFilteredIndexRanges must be positive");
+    this.maxFilteredIndexRanges = maxFilteredIndexRanges;
+    this.alwaysRemoveVacuum = alwaysRemoveVacuum;
+    int capacity = (int) Math.min(INITIAL_CAPACITY, maxFilteredIndexRanges + 1L);
+    starts = new long[capacity];
+    ends = new long[capacity];
+    leftGaps = new long[capacity];
+    filters = new Object[capacity];
+    overSelectivities = new boolean[capacity];
+    prev = new int[capacity];
+    next = new int[capacity];
+    heap = new int[capacity];
+    for (int i = 0; i < capacity; ++i) {
+      next[i] = i + 1 < capacity ? i + 1 : NONE;
+    }
+    freeList = 0;
+  }
+
+  public static <F> LongBacktrackingQueryBuilder<F> create(
+    RegionInspector<F, LongContent> regionInspector,
+    FilterCombiner<F, LongContent, LongRange> filterCombiner, int maxFilteredIndexRanges,
+    boolean removeVacuum) {
+    return new LongBacktrackingQueryBuilder<F>(
+      regionInspector, filterCombiner, maxFilteredIndexRanges, removeVacuum);
+  }
+
+  /**
+   * Same behaviour as {@link BacktrackingQueryBuilder#visit}.
+   */
+  @Override
+  public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    long start = indexRange.getStart().toExactLong();
+    Preconditions.checkArgument(start >= lastFinishedEnd);
+    assert start == lastFinishedEnd : "lastFinishedEnd=" + lastFinishedEnd + " start=" + start;
+    Assessment<F, LongContent> assessment = regionInspector.assess(indexRange, orthotope);
+    switch (assessment.getOutcome()) {
+      case OVERLAPS:
+        return true;
+      case COVERED:
+        lastFinishedEnd = start + (1L << indexRange.getLevel());
+        processCoveredNode(start, lastFinishedEnd, assessment.getFilter(),
+          assessment.isPotentialOverSelectivity());
+        return false;
+      case DISJOINT:
+        if (size != 0) {
+          currentGap += assessment.getEstimate().value();
+        }
+        lastFinishedEnd = start + (1L << indexRange.getLevel());
+        return false;
+      default:
+        throw new RuntimeException("Cannot be: " + assessment.getOutcome());
+    }
+  }
+
+  private void processCoveredNode(
+    long start, long end, F filter, boolean potentialOverSelectivityInRange) {
+    if (alwaysRemoveVacuum & last != NONE & currentGap == 0) {
+      SelectiveFilter<F> combinedFilter = filterCombiner.combine(rangeAt(last),
+        new FilteredIndexRange<F, LongRange>(
+          LongRange.of(start, end), filter, potentialOverSelectivityInRange),
+        new LongContent(0));
+      ends[last] = end;
+      filters[last] = combinedFilter.getFilter();
+      overSelectivities[last] =
+        combinedFilter.isPotentialOverSelectivity() | potentialOverSelectivityInRange;
+    } else {
+      int slot = allocateSlot();
+      starts[slot] = start;
+      ends[slot] = end;
+      filters[slot] = filter;
+      overSelectivities[slot] = potentialOverSelectivityInRange;
+      leftGaps[slot] = currentGap;
+      prev[slot] = last;
+      next[slot] = NONE;
+      if (last == NONE) {
+        first = slot;
+        last = slot;
+      } else {
+        next[last] = slot;
+        last = slot;
+        heapAdd(slot);
+        // We also have one interval which is not in the heap.
+        if (heapSize >= maxFilteredIndexRanges) {
+          int removed = heapPoll();
+          int previous = prev[removed];
+          SelectiveFilter<F> combinedFilter = filterCombiner.combine(
+            rangeAt(previous), rangeAt(removed), new LongContent(leftGaps[removed]));
+          ends[previous] = ends[removed];
+          filters[previous] = combinedFilter.getFilter();
+          overSelectivities[previous] =
+            combinedFilter.isPotentialOverSelectivity() | potentialOverSelectivityInRange;
+          unlink(removed);
+        }
+      }
+      currentGap = 0;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private FilteredIndexRange<F, LongRange> rangeAt(int slot) {
+    return new FilteredIndexRange<F, LongRange>(
+      LongRange.of(starts[slot], ends[slot]), (F) filters[slot], overSelectivities[slot]);
+  }
+
+  private int allocateSlot() {
+    if (freeList == NONE) {
+      grow();
+    }
+    int slot = freeList;
+    freeList = next[slot];
+    size++;
+    return slot;
+  }
+
+  private void unlink(int slot) {
+    int p = prev[slot];
+    int n = next[slot];
+    next[p] = n;
+    if (n == NONE) {
+      last = p;
+    } else {
+      prev[n] = p;
+    }
+    filters[slot] = null;
+    next[slot] = freeList;
+    freeList = slot;
+    size--;
+  }
+
+  private void grow() {
+    int oldCapacity = starts.length;
+    int capacity = (int) Math.min(2L * oldCapacity, Integer.MAX_VALUE - 8);
+    Preconditions.checkState(capacity > oldCapacity, "Too many ranges.");
+    starts = Arrays.copyOf(starts, capacity);
+    ends = Arrays.copyOf(ends, capacity);
+    leftGaps = Arrays.copyOf(leftGaps, capacity);
+    filters = Arrays.copyOf(filters, capacity);
+    overSelectivities = Arrays.copyOf(overSelectivities, capacity);
+    prev = Arrays.copyOf(prev, capacity);
+    next = Arrays.copyOf(next, capacity);
+    heap = Arrays.copyOf(heap, capacity);
+    for (int i = oldCapacity; i < capacity; ++i) {
+      next[i] = i + 1 < capacity ? i + 1 : freeList;
+    }
+    freeList = oldCapacity;
+  }
+
+  /**
+   * Same steps as {@code PriorityQueue.siftUp}.
+   */
+  private void heapAdd(int slot) {
+    int k = heapSize++;
+    long key = leftGaps[slot];
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      int e = heap[parent];
+      if (key >= leftGaps[e]) {
+        break;
+      }
+      heap[k] = e;
+      k = parent;
+    }
+    heap[k] = slot;
+  }
+
+  /**
+   * Same steps as {@code PriorityQueue.poll} and {@code siftDown}.
+   */
+  private int heapPoll() {
+    int result = heap[0];
+    int n = --heapSize;
+    int x = heap[n];
+    if (n != 0) {
+      long key = leftGaps[x];
+      int k = 0;
+      int half = n >>> 1;
+      while (k < half) {
+        int child = (k << 1) + 1;
+        int c = heap[child];
+        int right = child + 1;
+        if (right < n && leftGaps[c] > leftGaps[heap[right]]) {
+          c = heap[child = right];
+        }
+        if (key <= leftGaps[c]) {
+          break;
+        }
+        heap[k] = c;
+        k = child;
+      }
+      heap[k] = x;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the query constructed so far as a random access list.
+   */
+  @Override
+  public Query<F, LongRange> get() {
+    List<FilteredIndexRange<F, LongRange>> ranges = new ArrayList<>(size);
+    for (int slot = first; slot != NONE; slot = next[slot]) {
+      ranges.add(rangeAt(slot));
+    }
+    return Query.of(ranges);
+  }
+
+  /**
+   * Same as {@link #get}, but in the compact form, built straight from the
+   * internal arrays without going through {@link FilteredIndexRange} objects.
+   */
+  @SuppressWarnings("unchecked")
+  public LongQuery<F> getLongQuery() {
+    LongQuery.Builder<F> builder = LongQuery.builder(size);
+    for (int slot = first; slot != NONE; slot = next[slot]) {
+      builder.add(starts[slot], ends[slot], (F) filters[slot], overSelectivities[slot]);
+    }
+    return builder.build();
+  }
+}
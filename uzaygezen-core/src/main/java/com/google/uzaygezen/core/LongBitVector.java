@@ -17,6 +17,7 @@
 package com.google.uzaygezen.core;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -580,6 +581,18 @@ public final class LongBitVector implements BitVector, Cloneable {
     }
     copyFrom(x);
   }
+
+  @Override
+  public void writeBigEndian(ByteBuffer dst) {
+    MathUtils.putBigEndian(dst, data, MathUtils.bitCountToByteCount(size));
+  }
+
+  @Override
+  public void readBigEndian(ByteBuffer src, int offset, int byteLen) {
+    int n = MathUtils.bitCountToByteCount(size);
+    Preconditions.checkArgument(byteLen == n, "byteLen must be %s.", n);
+    copyFrom(MathUtils.getBigEndian(src, offset, n));
+  }
  
   @Override
   public boolean areAllLowestBitsClear(int bitCount) {
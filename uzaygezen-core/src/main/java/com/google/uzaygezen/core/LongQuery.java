@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * Compact form of a {@link Query} over {@link LongRange} indexes, for plans with
+ * many ranges. The range bounds are kept in two parallel {@code long} arrays and
+ * the over-selectivity flags in a {@link BitSet}. Since many ranges usually
+ * share the same filter instance, the filters are kept once each in a side
+ * table, and each range only stores the position of its filter there.
+ * Instances are immutable.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public final class LongQuery<F> {
+
+  private final long[] starts;
+  private final long[] ends;
+  private final BitSet overSelectivities;
+  private final int[] filterIds;
+  private final List<F> filters;
+
+  private LongQuery(
+    long[] starts, long[] ends, BitSet overSelectivities, int[] filterIds, List<F> filters) {
+    this.starts = starts;
+    this.ends = ends;
+    this.overSelectivities = overSelectivities;
+    this.filterIds = filterIds;
+    this.filters = filters;
+  }
+
+  public static <F> Builder<F> builder(int expectedSize) {
+    return new Builder<F>(expectedSize);
+  }
+
+  /**
+   * Converts {@code query} into the compact form.
+   */
+  public static <F> LongQuery<F> of(Query<F, LongRange> query) {
+    List<FilteredIndexRange<F, LongRange>> ranges = query.getFilteredIndexRanges();
+    Builder<F> builder = builder(ranges.size());
+    for (FilteredIndexRange<F, LongRange> range : ranges) {
+      builder.add(range.getIndexRange().getStart(), range.getIndexRange().getEnd(),
+        range.getFilter(), range.isPotentialOverSelectivity());
+    }
+    return builder.build();
+  }
+
+  public int size() {
+    return starts.length;
+  }
+
+  public long getStart(int i) {
+    return starts[i];
+  }
+
+  public long getEnd(int i) {
+    return ends[i];
+  }
+
+  public F getFilter(int i) {
+    return filters.get(filterIds[i]);
+  }
+
+  public boolean isPotentialOverSelectivity(int i) {
+    Preconditions.checkElementIndex(i, starts.length);
+    return overSelectivities.get(i);
+  }
+
+  public boolean isPotentialOverSelectivity() {
+    return !overSelectivities.isEmpty();
+  }
+
+  /**
+   * @return the distinct filter instances, in order of first use
+   */
+  public List<F> getFilters() {
+    return filters;
+  }
+
+  /**
+   * Converts back to the object based form.
+   */
+  public Query<F, LongRange> toQuery() {
+    List<FilteredIndexRange<F, LongRange>> ranges = new ArrayList<>(size());
+    for (int i = 0; i < size(); ++i) {
+      ranges.add(new FilteredIndexRange<F, LongRange>(
+        LongRange.of(starts[i], ends[i]), getFilter(i), overSelectivities.get(i)));
+    }
+    return Query.of(ranges);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(starts) + Arrays.hashCode(ends);
+  }
+
+  /**
+   * Two compact queries are equal iff they have the same ranges, flags and
+   * equal filters, which is the same as for their {@link #toQuery} forms.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof LongQuery)) {
+      return false;
+    }
+    LongQuery<?> other = (LongQuery<?>) o;
+    if (!Arrays.equals(starts, other.starts) || !Arrays.equals(ends, other.ends)
+      || !overSelectivities.equals(other.overSelectivities)) {
+      return false;
+    }
+    for (int i = 0; i < size(); ++i) {
+      if (!getFilter(i).equals(other.getFilter(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  /**
+   * Accumulates ranges in increasing index order. Not thread safe.
+   */
+  public static final class Builder<F> {
+
+    private long[] starts;
+    private long[] ends;
+    private int[] filterIds;
+    private final BitSet overSelectivities = new BitSet();
+    private final List<F> filters = new ArrayList<>();
+    private final Map<F, Integer> filterPositions = new IdentityHashMap<>();
+    private int size;
+
+    private Builder(int expectedSize) {
+      Preconditions.checkArgument(expectedSize >= 0, "expectedSize must not be negative");
+      starts = new long[expectedSize];
+      ends = new long[expectedSize];
+      filterIds = new int[expectedSize];
+    }
+
+    /**
+     * Appends the range {@code [start, end)}, which must start at or after the
+     * end of the previous one.
+     */
+    public Builder<F> add(long start, long end, F filter, boolean potentialOverSelectivity) {
+      Preconditions.checkArgument(0 <= start & start < end,
+        "start must be nonnegative and less than end.");
+      Preconditions.checkArgument(size == 0 || ends[size - 1] <= start,
+        "Ranges must be added in increasing order.");
+      Preconditions.checkNotNull(filter, "filter");
+      if (size == starts.length) {
+        int capacity = Math.max(8, 2 * size);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        filterIds = Arrays.copyOf(filterIds, capacity);
+      }
+      Integer position = filterPositions.get(filter);
+      if (position == null) {
+        position = filters.size();
+        filters.add(filter);
+        filterPositions.put(filter, position);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      filterIds[size] = position;
+      overSelectivities.set(size, potentialOverSelectivity);
+      size++;
+      return this;
+    }
+
+    public LongQuery<F> build() {
+      return new LongQuery<F>(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size),
+        (BitSet) overSelectivities.clone(), Arrays.copyOf(filterIds, size),
+        ImmutableList.copyOf(filters));
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * Specialisation of {@link SimpleRegionInspector} for {@link LongRange} and
+ * {@link LongContent}, with exactly the same assessments. The query region is
+ * kept as a flat array of bounds, and the orthotope of each node is read
+ * directly from the bit vectors of the visited ranges, so classifying a node
+ * allocates nothing. The disjoint assessments only depend on the level of the
+ * node and are created up front; only covered nodes allocate, for their
+ * filter. The estimates are shared between assessments, so they cannot be
+ * modified; clone them to get a modifiable copy.
+ * <p>
+ * Instances keep the bounds of the node being assessed as scratch state, so
+ * unlike {@link SimpleRegionInspector} they are not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class LongSimpleRegionInspector<F> implements RegionInspector<F, LongContent> {
+
+  private final int numberOfDimensions;
+
+  /**
+   * {@code bounds[2 * (j * numberOfDimensions + i)]} is the inclusive start and
+   * the next element the exclusive end of orthotope {@code j} in dimension
+   * {@code i}.
+   */
+  private final long[] bounds;
+
+  private final long minOverlappingContent;
+  private final Function<? super LongRange, F> filterFactory;
+  private final LongContent zero = new UnmodifiableLongContent(0);
+  private final Assessment<F, LongContent> overlaps = Assessment.makeOverlaps(zero);
+
+  /**
+   * Scratch space for the bounds of the node being assessed, laid out like
+   * those of a single orthotope in {@link #bounds}.
+   */
+  private final long[] node;
+
+  /**
+   * The disjoint assessment for each index level, created lazily.
+   */
+  private final Assessment<F, LongContent>[] disjoint;
+
+  private LongSimpleRegionInspector(List<? extends List<LongRange>> queryRegion,
+    long minOverlappingContent, Function<? super LongRange, F> filterFactory) {
+    Preconditions.checkArgument(!queryRegion.isEmpty(), "queryRegion must not be empty");
+    numberOfDimensions = queryRegion.get(0).size();
+    bounds = new long[2 * queryRegion.size() * numberOfDimensions];
+    node = new long[2 * numberOfDimensions];
+    int k = 0;
+    for (List<LongRange> orthotope : queryRegion) {
+      Preconditions.checkArgument(orthotope.size() == numberOfDimensions);
+      for (LongRange range : orthotope) {
+        bounds[k++] = range.getStart();
+        bounds[k++] = range.getEnd();
+      }
+    }
+    Preconditions.checkArgument(minOverlappingContent > 0,
+      "minOverlappingContent must be positive but it is %s.", minOverlappingContent);
+    this.minOverlappingContent = minOverlappingContent;
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    @SuppressWarnings("unchecked")
+    Assessment<F, LongContent>[] disjoint =
+      (Assessment<F, LongContent>[]) new Assessment<?, ?>[Long.SIZE];
+    this.disjoint = disjoint;
+  }
+
+  /**
+   * Same as {@link SimpleRegionInspector#create} with {@link
+   * LongRangeHome#INSTANCE}.
+   */
+  public static <F> LongSimpleRegionInspector<F> create(
+    List<? extends List<LongRange>> queryRegion, long minOverlappingContent,
+    Function<? super LongRange, F> filterFactory) {
+    return new LongSimpleRegionInspector<F>(queryRegion, minOverlappingContent, filterFactory);
+  }
+
+  @Override
+  public Assessment<F, LongContent> assess(
+    Pow2LengthBitSetRange indexBitSetRange, List<Pow2LengthBitSetRange> orthotope) {
+    for (int i = 0; i < numberOfDimensions; ++i) {
+      Pow2LengthBitSetRange range = orthotope.get(i);
+      long start = range.getStart().toExactLong();
+      node[2 * i] = start;
+      node[2 * i + 1] = start + (1L << range.getLevel());
+    }
+    long commonContent = 0;
+    for (int k = 0; k < bounds.length; k += node.length) {
+      long product = 1;
+      for (int i = 0; i < node.length; i += 2) {
+        long overlap = Math.min(node[i + 1], bounds[k + i + 1]) - Math.max(node[i], bounds[k + i]);
+        if (overlap <= 0) {
+          product = 0;
+          break;
+        }
+        product *= overlap;
+      }
+      commonContent += product;
+    }
+    int level = indexBitSetRange.getLevel();
+    long rangeLength = 1L << level;
+    if (commonContent == rangeLength) {
+      return Assessment.makeCovered(filterFactory.apply(toRange(indexBitSetRange)), false,
+        zero);
+    }
+    if (commonContent == 0) {
+      Assessment<F, LongContent> result = disjoint[level];
+      if (result == null) {
+        result = Assessment.makeDisjoint(new UnmodifiableLongContent(rangeLength));
+        disjoint[level] = result;
+      }
+      return result;
+    }
+    if (rangeLength >= minOverlappingContent) {
+      return overlaps;
+    }
+    return Assessment.makeCovered(filterFactory.apply(toRange(indexBitSetRange)), true,
+      zero);
+  }
+
+  private static LongRange toRange(Pow2LengthBitSetRange indexBitSetRange) {
+    return LongRangeHome.INSTANCE.toRange(indexBitSetRange);
+  }
+
+  @Override
+  public int getNumberOfDimensions() {
+    return numberOfDimensions;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  /**
+   * Estimate shared between assessments. Its clones are modifiable.
+   */
+  private static final class UnmodifiableLongContent extends LongContent {
+
+    private UnmodifiableLongContent(long v) {
+      super(v);
+    }
+
+    @Override
+    public void add(LongContent other) {
+      throw new UnsupportedOperationException("Shared estimates cannot be modified.");
+    }
+
+    @Override
+    public void shiftRight(int n) {
+      throw new UnsupportedOperationException("Shared estimates cannot be modified.");
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -28,6 +29,7 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 /**
  * Assessor of spatial relationships that first check the input into an internal
@@ -63,7 +65,7 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
   private static final Logger logger = Logger.getLogger(MapRegionInspector.class.getName());
   
   private final RegionInspector<T, V> delegate;
-  private final Map<Pow2LengthBitSetRange, NodeValue<V>> rolledupMap;
+  private final Map<Pow2LengthBitSetRangeKey, NodeValue<V>> rolledupMap;
   private final Map<BitVector, V> cacheHits;
   
   /**
@@ -72,8 +74,20 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
    */
   private Deque<StackElement<V>> stack = new ArrayDeque<>();
 
+  /**
+   * Refilled from each assessed index range to look up the map without
+   * allocating. Created on the first call, since only then is the number of
+   * index bits known.
+   */
+  private Pow2LengthBitSetRangeKey probe;
+
   private final V zero, one;
   
+  /**
+   * Recurring immutable results, allocated only once.
+   */
+  private final Assessment<T, V> overlapsZero, disjointZero;
+  
   /**
    * 
    * @param rolledupMap
@@ -85,7 +99,7 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
    * TODO: Somehow remove the filter altogether from Assessment.
    */
   private MapRegionInspector(
-      Map<Pow2LengthBitSetRange, NodeValue<V>> rolledupMap,
+      Map<Pow2LengthBitSetRangeKey, NodeValue<V>> rolledupMap,
       RegionInspector<T, V> delegate, boolean disguiseCacheHits, V zero, V one) {
     this.rolledupMap = Preconditions.checkNotNull(rolledupMap, "rolledupMap");
     this.delegate = Preconditions.checkNotNull(delegate, "delegate");
@@ -94,11 +108,29 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
     logger.info("disguiseCacheHits=" + disguiseCacheHits);
     this.zero = zero;
     this.one = one;
+    this.overlapsZero = Assessment.makeOverlaps(zero);
+    this.disjointZero = Assessment.makeDisjoint(zero);
   }
 
+  /**
+   * Copies the keys of {@code rolledupMap} into {@link Pow2LengthBitSetRangeKey}
+   * instances. Prefer {@link #createCompact} with the output of {@link
+   * Pow2LengthBitSetRangeFactory#applyCompact} to avoid the copy.
+   */
   public static <T, V extends Content<V>> MapRegionInspector<T, V> create(
       Map<Pow2LengthBitSetRange, NodeValue<V>> rolledupMap,
       RegionInspector<T, V> delegate, boolean disguiseCacheHits, V zero, V one) {
+    Map<Pow2LengthBitSetRangeKey, NodeValue<V>> compactMap =
+        Maps.newHashMapWithExpectedSize(rolledupMap.size());
+    for (Entry<Pow2LengthBitSetRange, NodeValue<V>> entry : rolledupMap.entrySet()) {
+      compactMap.put(Pow2LengthBitSetRangeKey.of(entry.getKey()), entry.getValue());
+    }
+    return new MapRegionInspector<T, V>(compactMap, delegate, disguiseCacheHits, zero, one);
+  }
+
+  public static <T, V extends Content<V>> MapRegionInspector<T, V> createCompact(
+      Map<Pow2LengthBitSetRangeKey, NodeValue<V>> rolledupMap,
+      RegionInspector<T, V> delegate, boolean disguiseCacheHits, V zero, V one) {
     return new MapRegionInspector<T, V>(rolledupMap, delegate, disguiseCacheHits, zero, one);
   }
 
@@ -111,22 +143,25 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
   public Assessment<T, V> assess(
       Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
     Preconditions.checkState(!stack.isEmpty() || indexRange.getStart().isEmpty());
+    if (probe == null || probe.getSize() != indexRange.getStart().size()) {
+      probe = Pow2LengthBitSetRangeKey.newProbe(indexRange.getStart().size());
+    }
+    probe.refill(indexRange);
     StackElement<V> top;
     while ((top = stack.peek()) != null) {
-      if (top.range.encloses(indexRange)) {
+      if (top.range.encloses(probe)) {
         break;
       } else {
         stack.pop();
       }
     }
-    NodeValue<V> value = rolledupMap.get(indexRange);
+    NodeValue<V> value = rolledupMap.get(probe);
     final Assessment<T, V> result;
     if (value != null) {
       assert stack.isEmpty()
-          || (stack.peek().range.encloses(indexRange) & !stack.peek().leaf);
+          || (stack.peek().range.encloses(probe) & !stack.peek().leaf);
       Preconditions.checkState(!value.getValue().isZero());
-      stack.push(new StackElement<V>(
-          indexRange.clone(), value.getValue(), value.isLeaf()));
+      stack.push(new StackElement<V>(probe.snapshot(), value.getValue(), value.isLeaf()));
       Assessment<T, V> localResult = delegateAssessment(indexRange, orthotope);
       // TODO: use an equivalence relation instead of getLevel() == 0 for "group by"
       if (cacheHits != null && localResult.getOutcome() == SpatialRelation.COVERED
@@ -136,7 +171,7 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
            * Go deeper until we're outside the cache, or until the last significant
            * level has been reached.
            */
-          result = Assessment.makeOverlaps(zero);
+          result = overlapsZero;
         } else {
           // Here we drop the filter.
           Content<V> old =
@@ -150,17 +185,17 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
       }
     } else {
       if (rolledupMap.isEmpty()) {
-        result = Assessment.makeDisjoint(zero);
+        result = disjointZero;
       } else {
         /*
          * latestPow2Range cannot be null, since the root is always in the map
          * when not empty.
          */
-        assert stack.peek().range.encloses(indexRange);
+        assert stack.peek().range.encloses(probe);
         if (stack.peek().leaf) {
           result = delegateAssessment(indexRange, orthotope);
         } else {
-          result = Assessment.makeDisjoint(zero);
+          result = disjointZero;
         }
       }
     }
@@ -198,11 +233,11 @@ public class MapRegionInspector<T, V extends Content<V>> implements RegionInspec
   
   private static class StackElement<V extends Content<V>> {
     
-    private final Pow2LengthBitSetRange range;
+    private final Pow2LengthBitSetRangeKey range;
     private final V value;
     private final boolean leaf;
     
-    public StackElement(Pow2LengthBitSetRange range, V value, boolean leaf) {
+    public StackElement(Pow2LengthBitSetRangeKey range, V value, boolean leaf) {
       this.range = range;
       this.value = value;
       this.leaf = leaf;
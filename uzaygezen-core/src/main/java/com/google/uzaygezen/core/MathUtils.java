@@ -16,6 +16,9 @@
 
 package com.google.uzaygezen.core;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -74,6 +77,46 @@ public class MathUtils {
     return value;
   }
   
+  /**
+   * Writes the lowest {@code byteCount} bytes of {@code value} into {@code dst}
+   * at its current position, most significant byte first, irrespective of the
+   * byte order of the buffer. A full word is written with a single bulk put.
+   * 
+   * @param byteCount between {@code 0} and {@code 8}
+   */
+  public static void putBigEndian(ByteBuffer dst, long value, int byteCount) {
+    assert 0 <= byteCount & byteCount <= 8;
+    if (byteCount == 8) {
+      dst.putLong(dst.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+    } else {
+      for (int i = byteCount; --i >= 0; ) {
+        dst.put((byte) (value >>> (i << 3)));
+      }
+    }
+  }
+
+  /**
+   * Inverse of {@link #putBigEndian}, but using absolute indexing so the
+   * position of {@code src} is not modified.
+   * 
+   * @param byteCount between {@code 0} and {@code 8}
+   */
+  public static long getBigEndian(ByteBuffer src, int index, int byteCount) {
+    assert 0 <= byteCount & byteCount <= 8;
+    final long value;
+    if (byteCount == 8) {
+      long x = src.getLong(index);
+      value = src.order() == ByteOrder.BIG_ENDIAN ? x : Long.reverseBytes(x);
+    } else {
+      long x = 0;
+      for (int i = 0; i < byteCount; ++i) {
+        x = (x << 8) | (src.get(index + i) & 0xFF);
+      }
+      value = x;
+    }
+    return value;
+  }
+
   /**
    * Computes the minimum number of bytes needed to cover {@code bitCount} bits.
    */
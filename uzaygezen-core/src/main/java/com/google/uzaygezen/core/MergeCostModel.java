@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+/**
+ * Decides whether two consecutive filtered index ranges should be joined into
+ * one. Joining saves the cost of starting a new range scan in the data store,
+ * but the points in the gap between the two ranges must then be read and
+ * filtered out. As long as the estimated cost of a query is the sum of a cost
+ * per range and a cost per point scanned, every gap can be decided on its own
+ * and the answer does not depend on the other gaps.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <V> gap estimate type
+ */
+public interface MergeCostModel<V> {
+
+  /**
+   * @param gapEstimate the estimated number of points between the two ranges, as
+   * provided by the region inspector
+   * @return whether scanning over the gap is estimated to be strictly cheaper
+   * than starting a separate range
+   */
+  boolean isMergeCheaper(V gapEstimate);
+}
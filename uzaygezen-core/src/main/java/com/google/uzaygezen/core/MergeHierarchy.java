@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Complete record of the order in which the gaps between the finest filtered
+ * index ranges of a query get joined, so that the query for any maximum number
+ * of ranges can be extracted without traversing the space again. It is the
+ * single linkage dendrogram of the ranges over the gap estimates: the smallest
+ * gap is joined first, and ties are broken in favour of the leftmost gap, which
+ * makes the result deterministic.
+ * <p>
+ * The dendrogram is kept as a Cartesian tree over the gaps, ordered by merge
+ * rank, with the finest ranges as the leaves. Each inner node also holds the
+ * filtered range of its whole subtree, combined once at construction time, so
+ * that a cut visits only the nodes it keeps apart and returns in time linear
+ * in the number of ranges produced. Instances are immutable and can be cut
+ * concurrently.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ */
+public final class MergeHierarchy<F, T, V extends Content<V>, R extends Range<T, V>> {
+
+  private final List<FilteredIndexRange<F, R>> leaves;
+
+  /**
+   * Gap {@code i} sits between leaves {@code i} and {@code i + 1}.
+   */
+  private final List<V> gaps;
+
+  /**
+   * Position of each gap in the merge order, {@code 0} being the first merged.
+   */
+  private final int[] rank;
+
+  /**
+   * Children of each gap in the Cartesian tree. A non-negative value is a gap,
+   * while a negative value {@code ~i} is leaf {@code i}.
+   */
+  private final int[] left;
+  private final int[] right;
+
+  /**
+   * The filtered range that covers the subtree rooted at each gap.
+   */
+  private final List<FilteredIndexRange<F, R>> clusters;
+
+  /**
+   * The gap joined last, or leaf {@code 0} if there are no gaps.
+   */
+  private final int root;
+
+  /**
+   * @param leaves the finest filtered index ranges, in increasing order
+   * @param gaps the gap estimates between consecutive leaves; there must be
+   * exactly one fewer than leaves, unless both are empty
+   * @param filterCombiner used to build the filter of every subtree
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> MergeHierarchy<F, T, V, R> create(
+    List<FilteredIndexRange<F, R>> leaves, List<V> gaps, FilterCombiner<F, V, R> filterCombiner,
+    RangeHome<T, V, R> rangeHome) {
+    return new MergeHierarchy<F, T, V, R>(leaves, gaps, filterCombiner, rangeHome);
+  }
+
+  private MergeHierarchy(List<FilteredIndexRange<F, R>> leaves, final List<V> gaps,
+    FilterCombiner<F, V, R> filterCombiner, RangeHome<T, V, R> rangeHome) {
+    Preconditions.checkArgument(gaps.size() == Math.max(0, leaves.size() - 1),
+      "There are %s leaves but %s gaps.", leaves.size(), gaps.size());
+    this.leaves = ImmutableList.copyOf(leaves);
+    this.gaps = ImmutableList.copyOf(gaps);
+    int n = gaps.size();
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        int cmp = gaps.get(o1).compareTo(gaps.get(o2));
+        return cmp != 0 ? cmp : Integer.compare(o1, o2);
+      }
+    });
+    rank = new int[n];
+    for (int i = 0; i < n; ++i) {
+      rank[order[i]] = i;
+    }
+    left = new int[n];
+    right = new int[n];
+    int[] stack = new int[n];
+    int top = 0;
+    for (int i = 0; i < n; ++i) {
+      left[i] = ~i;
+      right[i] = ~(i + 1);
+      int last = -1;
+      while (top != 0 && rank[stack[top - 1]] < rank[i]) {
+        last = stack[--top];
+      }
+      if (last != -1) {
+        left[i] = last;
+      }
+      if (top != 0) {
+        right[stack[top - 1]] = i;
+      }
+      stack[top++] = i;
+    }
+    root = n == 0 ? ~0 : stack[0];
+    // Children are always joined before their parent.
+    List<FilteredIndexRange<F, R>> clusterList = new ArrayList<>(n);
+    for (int i = 0; i < n; ++i) {
+      clusterList.add(null);
+    }
+    clusters = clusterList;
+    for (int i = 0; i < n; ++i) {
+      int gap = order[i];
+      FilteredIndexRange<F, R> first = cluster(left[gap]);
+      FilteredIndexRange<F, R> second = cluster(right[gap]);
+      SelectiveFilter<F> combinedFilter = filterCombiner.combine(first, second, gaps.get(gap));
+      clusterList.set(gap, new FilteredIndexRange<F, R>(
+        rangeHome.of(first.getIndexRange().getStart(), second.getIndexRange().getEnd()),
+        combinedFilter.getFilter(), combinedFilter.isPotentialOverSelectivity()
+          | first.isPotentialOverSelectivity() | second.isPotentialOverSelectivity()));
+    }
+  }
+
+  private FilteredIndexRange<F, R> cluster(int node) {
+    return node < 0 ? leaves.get(~node) : clusters.get(node);
+  }
+
+  /**
+   * @return the number of ranges in the finest query, which is the most that
+   * any cut can produce
+   */
+  public int getLeafCount() {
+    return leaves.size();
+  }
+
+  /**
+   * Produces the same ranges as {@link BacktrackingQueryBuilder} with the same
+   * maximum number of ranges, up to the choice between equal gaps.
+   * 
+   * @param maxFilteredIndexRanges positive
+   * @return the query that keeps apart only the largest {@code
+   * maxFilteredIndexRanges - 1} gaps
+   */
+  public Query<F, R> cut(int maxFilteredIndexRanges) {
+    Preconditions.checkArgument(
+      maxFilteredIndexRanges > 0, "maxFilteredIndexRanges must be positive");
+    return cut(gaps.size() - (maxFilteredIndexRanges - 1), null);
+  }
+
+  /**
+   * Keeps apart the gaps that the cost model does not find cheaper to scan
+   * over, for instance with the seek cost most recently observed in the data
+   * store. The model is expected to be monotonic in the gap size, as {@link
+   * LinearMergeCostModel} is: once a gap is joined, so are all the smaller gaps
+   * underneath it in the hierarchy.
+   */
+  public Query<F, R> cut(MergeCostModel<? super V> mergeCostModel) {
+    return cut(0, Preconditions.checkNotNull(mergeCostModel, "mergeCostModel"));
+  }
+
+  private boolean isKeptApart(int gap, int minKeptRank, MergeCostModel<? super V> mergeCostModel) {
+    return mergeCostModel == null ? rank[gap] >= minKeptRank
+      : !mergeCostModel.isMergeCheaper(gaps.get(gap));
+  }
+
+  private Query<F, R> cut(int minKeptRank, MergeCostModel<? super V> mergeCostModel) {
+    if (leaves.isEmpty()) {
+      return Query.emptyQuery();
+    }
+    List<FilteredIndexRange<F, R>> list = new ArrayList<>();
+    int[] stack = new int[gaps.size()];
+    int top = 0;
+    int node = root;
+    while (true) {
+      // In-order walk over the kept gaps only.
+      while (node >= 0 && isKeptApart(node, minKeptRank, mergeCostModel)) {
+        stack[top++] = node;
+        node = left[node];
+      }
+      list.add(cluster(node));
+      if (top == 0) {
+        break;
+      }
+      node = right[stack[--top]];
+    }
+    return Query.of(list);
+  }
+
+  @Override
+  public String toString() {
+    return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Query builder that records every finished range and gap in one traversal,
+ * so that {@link #getMergeHierarchy()} can later produce the query for any
+ * maximum number of ranges or any merge cost model. {@link #get()} returns the
+ * finest query.
+ * 
+ * @author Daniel Aioanei
+ */
+public class MergeHierarchyQueryBuilder<F, T, V extends Content<V>, R extends Range<T, V>>
+  implements QueryBuilder<F, R> {
+
+  private final RegionInspector<F, V> regionInspector;
+  private final FilterCombiner<F, V, R> filterCombiner;
+  private final boolean alwaysRemoveVacuum;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+
+  private final List<FilteredIndexRange<F, R>> leaves = new ArrayList<>();
+  private final List<V> gaps = new ArrayList<>();
+
+  /**
+   * The gap after the last covered range, if any; otherwise zero.
+   */
+  private V currentGap;
+
+  /**
+   * @param alwaysRemoveVacuum if {@literal true}, ranges separated by a zero
+   * gap estimate are joined straight away and never appear separately in the
+   * hierarchy
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> MergeHierarchyQueryBuilder<F, T, V, R> create(
+    RegionInspector<F, V> regionInspector, FilterCombiner<F, V, R> filterCombiner,
+    boolean alwaysRemoveVacuum, RangeHome<T, V, R> rangeHome, V zero) {
+    return new MergeHierarchyQueryBuilder<F, T, V, R>(
+      regionInspector, filterCombiner, alwaysRemoveVacuum, rangeHome, zero);
+  }
+
+  private MergeHierarchyQueryBuilder(RegionInspector<F, V> regionInspector,
+    FilterCombiner<F, V, R> filterCombiner, boolean alwaysRemoveVacuum,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    this.regionInspector = Preconditions.checkNotNull(regionInspector, "regionInspector");
+    this.filterCombiner = Preconditions.checkNotNull(filterCombiner, "filterCombiner");
+    this.alwaysRemoveVacuum = alwaysRemoveVacuum;
+    this.rangeHome = rangeHome;
+    this.zero = zero;
+    this.currentGap = zero.clone();
+  }
+
+  @Override
+  public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    Assessment<F, V> assessment = regionInspector.assess(indexRange, orthotope);
+    switch (assessment.getOutcome()) {
+    case OVERLAPS:
+      return true;
+    case COVERED:
+      FilteredIndexRange<F, R> range = new FilteredIndexRange<F, R>(
+        rangeHome.toRange(indexRange), assessment.getFilter(),
+        assessment.isPotentialOverSelectivity());
+      if (leaves.isEmpty()) {
+        leaves.add(range);
+      } else if (alwaysRemoveVacuum && currentGap.isZero()) {
+        FilteredIndexRange<F, R> last = leaves.get(leaves.size() - 1);
+        SelectiveFilter<F> combinedFilter = filterCombiner.combine(last, range, currentGap);
+        leaves.set(leaves.size() - 1, new FilteredIndexRange<F, R>(
+          rangeHome.of(last.getIndexRange().getStart(), range.getIndexRange().getEnd()),
+          combinedFilter.getFilter(), combinedFilter.isPotentialOverSelectivity()
+            | range.isPotentialOverSelectivity()));
+      } else {
+        gaps.add(currentGap);
+        leaves.add(range);
+      }
+      currentGap = zero.clone();
+      return false;
+    case DISJOINT:
+      if (!leaves.isEmpty()) {
+        currentGap.add(assessment.getEstimate());
+      }
+      return false;
+    default:
+      throw new RuntimeException("Cannot be: " + assessment.getOutcome());
+    }
+  }
+
+  /**
+   * @return the finest query, with no range joined other than across vacuum
+   * if so configured
+   */
+  @Override
+  public Query<F, R> get() {
+    return Query.of(new ArrayList<>(leaves));
+  }
+
+  /**
+   * Builds the hierarchy of the ranges visited so far. Takes time {@code O(n log
+   * n)} in the number of finest ranges, and combines each pair of adjacent
+   * subtrees exactly once.
+   */
+  public MergeHierarchy<F, T, V, R> getMergeHierarchy() {
+    return MergeHierarchy.create(leaves, gaps, filterCombiner, rangeHome);
+  }
+
+  @Override
+  public String toString() {
+    return ReflectionToStringBuilder.toString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
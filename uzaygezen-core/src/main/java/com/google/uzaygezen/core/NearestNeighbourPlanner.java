@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * Pull-based planner for the {@code k} nearest neighbours of a point, in
+ * Euclidean distance. The tree of rolled up counts, as produced by {@link
+ * BoundedRollup} and {@link Pow2LengthBitSetRangeFactory#applyCompact}, is
+ * navigated best-first in increasing order of the minimum distance from each
+ * node's orthotope to the query point, skipping the nodes without points. The
+ * leaves of the rollup are produced as filtered index ranges in that same
+ * order, so scanning can start with the most promising cells.
+ * <p>
+ * As the leaves come out, the planner keeps the smallest distance within which
+ * at least {@code k} of their points are known to lie. Once the next node is
+ * farther than that, the {@code k} nearest neighbours, and all the points tied
+ * with the farthest of them, are proven to be in the ranges already produced,
+ * and the iteration ends. The ranges are marked as potentially over-selective,
+ * since the caller still has to compute the distances of the points it scans
+ * and keep the closest {@code k}. Distances are computed in squared form as
+ * doubles. Not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class NearestNeighbourPlanner<F> extends AbstractIterator<FilteredIndexRange<F, LongRange>> {
+
+  private final CompactHilbertNodes nodes;
+  private final long[] point;
+  private final int k;
+  private final Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup;
+  private final Function<? super LongRange, F> filterFactory;
+
+  /**
+   * Rollup nodes not yet expanded or produced, the closest one first.
+   */
+  private final PriorityQueue<Candidate> frontier = new PriorityQueue<>();
+
+  /**
+   * The fewest produced leaves, farthest first, that are known to hold at least
+   * {@code k} points between them, or all of them if they hold fewer.
+   */
+  private final PriorityQueue<Candidate> nearest = new PriorityQueue<>(
+    11, Candidate.FARTHEST_FIRST);
+
+  private long nearestCount;
+  private long rowsCovered;
+
+  private NearestNeighbourPlanner(MultiDimensionalSpec spec, long[] point, int k,
+    Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup,
+    Function<? super LongRange, F> filterFactory) {
+    this.nodes = new CompactHilbertNodes(spec);
+    Preconditions.checkArgument(point.length == nodes.getNumberOfDimensions(),
+      "point must have %s coordinates", nodes.getNumberOfDimensions());
+    this.point = point.clone();
+    Preconditions.checkArgument(k > 0, "k must be positive");
+    this.k = k;
+    this.rollup = Preconditions.checkNotNull(rollup, "rollup");
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    offer(nodes.root(), nodes.getMaxLevel());
+  }
+
+  /**
+   * @param spec the multidimensional space
+   * @param point the query point, one coordinate per dimension
+   * @param k the number of neighbours wanted
+   * @param rollup the rolled up number of points for the nodes of the compact
+   * Hilbert curve tree; nodes that are not in the map are taken to be empty,
+   * unless they are under a leaf
+   * @param filterFactory creates the filter of each produced range
+   */
+  public static <F> NearestNeighbourPlanner<F> create(MultiDimensionalSpec spec, long[] point,
+    int k, Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup,
+    Function<? super LongRange, F> filterFactory) {
+    return new NearestNeighbourPlanner<F>(spec, point, k, rollup, filterFactory);
+  }
+
+  @Override
+  protected FilteredIndexRange<F, LongRange> computeNext() {
+    Candidate candidate;
+    while ((candidate = frontier.peek()) != null
+      && !(candidate.minDistance > getSquaredDistanceBound())) {
+      frontier.poll();
+      if (candidate.leaf) {
+        produced(candidate);
+        return new FilteredIndexRange<F, LongRange>(
+          candidate.indexRange, filterFactory.apply(candidate.indexRange), true);
+      }
+      expand(candidate);
+    }
+    return endOfData();
+  }
+
+  /**
+   * @return the square of a distance within which at least {@code k} points
+   * are known to lie among the ranges produced so far, or positive infinity
+   * while there are fewer points in those ranges
+   */
+  public double getSquaredDistanceBound() {
+    return nearestCount < k ? Double.POSITIVE_INFINITY : nearest.peek().maxDistance;
+  }
+
+  /**
+   * @return the total number of points in the ranges produced so far
+   */
+  public long getRowsCovered() {
+    return rowsCovered;
+  }
+
+  private void produced(Candidate candidate) {
+    rowsCovered += candidate.count;
+    nearest.add(candidate);
+    nearestCount += candidate.count;
+    while (nearestCount - nearest.peek().count >= k) {
+      nearestCount -= nearest.poll().count;
+    }
+  }
+
+  private void expand(Candidate parent) {
+    BitVector r = BitVectorFactories.OPTIMAL.apply(nodes.childBitCount(parent.curveLevel));
+    do {
+      offer(nodes.child(parent.bitSetRange, parent.curveLevel, r), parent.curveLevel - 1);
+    } while (r.increment());
+  }
+
+  private void offer(Pow2LengthBitSetRange bitSetRange, int curveLevel) {
+    NodeValue<LongContent> value = rollup.get(Pow2LengthBitSetRangeKey.of(bitSetRange));
+    if (value == null || value.getValue().isZero()) {
+      return;
+    }
+    List<Pow2LengthBitSetRange> orthotope = nodes.orthotope(bitSetRange, curveLevel);
+    double minDistance = 0;
+    double maxDistance = 0;
+    for (int i = 0; i < point.length; ++i) {
+      Pow2LengthBitSetRange range = orthotope.get(i);
+      long low = range.getStart().toExactLong();
+      long high = low + ((1L << range.getLevel()) - 1);
+      double below = low > point[i] ? (double) low - point[i] : 0;
+      double above = point[i] > high ? (double) point[i] - high : 0;
+      double near = Math.max(below, above);
+      double far = Math.max(Math.abs((double) point[i] - low), Math.abs((double) high - point[i]));
+      minDistance += near * near;
+      maxDistance += far * far;
+    }
+    frontier.add(new Candidate(bitSetRange, LongRangeHome.INSTANCE.toRange(bitSetRange),
+      curveLevel, value.getValue().value(), value.isLeaf() || curveLevel == 0, minDistance,
+      maxDistance));
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private static class Candidate implements Comparable<Candidate> {
+
+    private static final Comparator<Candidate> FARTHEST_FIRST =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+          return Double.compare(o2.maxDistance, o1.maxDistance);
+        }
+      };
+
+    private final Pow2LengthBitSetRange bitSetRange;
+    private final LongRange indexRange;
+    private final int curveLevel;
+    private final long count;
+    private final boolean leaf;
+    private final double minDistance;
+    private final double maxDistance;
+
+    private Candidate(Pow2LengthBitSetRange bitSetRange, LongRange indexRange, int curveLevel,
+      long count, boolean leaf, double minDistance, double maxDistance) {
+      this.bitSetRange = bitSetRange;
+      this.indexRange = indexRange;
+      this.curveLevel = curveLevel;
+      this.count = count;
+      this.leaf = leaf;
+      this.minDistance = minDistance;
+      this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Closer first, then lower index.
+     */
+    @Override
+    public int compareTo(Candidate o) {
+      int cmp = Double.compare(minDistance, o.minDistance);
+      return cmp != 0 ? cmp : Long.compare(indexRange.getStart(), o.indexRange.getStart());
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+/**
+ * Query factory that explores the compact Hilbert curve tree in parallel. The
+ * nodes down to {@code splitLevel} are assessed on the calling thread, and each
+ * node at {@code splitLevel} that overlaps the query region becomes a task on a
+ * {@link ForkJoinPool}, with its own curve and its own region inspector. All
+ * the finished nodes (i.e., covered or disjoint) are finally replayed in index
+ * order into a single query builder. Since a query builder only sees the
+ * sequence of finished nodes and their assessments, the produced query is the
+ * same as the one built by a sequential traversal, including the merging
+ * performed to honour the maximum number of ranges.
+ * <p>
+ * The price for that equivalence is that all finished nodes are kept in memory
+ * until the replay phase. Each inspector must assess a node the same way
+ * regardless of what other nodes it has seen, apart from the bookkeeping that
+ * {@link MapRegionInspector} does for the ancestors of the current node. To
+ * keep such inspectors consistent, each task also presents to its inspector all
+ * the ancestors of its subtree, starting with the root, but skips all other
+ * subtrees.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class ParallelQueryPlanner<F, V, R> implements QueryFactory<F, R> {
+
+  private final MultiDimensionalSpec spec;
+  private final Supplier<? extends RegionInspector<F, V>> inspectorSupplier;
+  private final Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory;
+  private final int splitLevel;
+  private final ForkJoinPool pool;
+
+  private ParallelQueryPlanner(MultiDimensionalSpec spec,
+    Supplier<? extends RegionInspector<F, V>> inspectorSupplier,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    int splitLevel, ForkJoinPool pool) {
+    this.spec = Preconditions.checkNotNull(spec, "spec");
+    this.inspectorSupplier = Preconditions.checkNotNull(inspectorSupplier, "inspectorSupplier");
+    this.builderFactory = Preconditions.checkNotNull(builderFactory, "builderFactory");
+    Preconditions.checkArgument(0 <= splitLevel & splitLevel <= spec.maxBitsPerDimension(),
+      "splitLevel must be between 0 and %s.", spec.maxBitsPerDimension());
+    this.splitLevel = splitLevel;
+    this.pool = Preconditions.checkNotNull(pool, "pool");
+  }
+
+  /**
+   * @param spec the multidimensional space; each task navigates its own
+   * {@link CompactHilbertCurve} for it
+   * @param inspectorSupplier must produce a new region inspector for each call,
+   * since inspectors are used by one thread at a time, and they may keep
+   * state. All inspectors must assess the query region in the same way.
+   * @param builderFactory creates the query builder used for the replay phase,
+   * for the given inspector. The builder must consult no other source of
+   * information than the inspector and the visited nodes, which is the case
+   * for {@link BacktrackingQueryBuilder}.
+   * @param splitLevel the curve level at which the tree is split into tasks,
+   * between {@code 0} and {@link MultiDimensionalSpec#maxBitsPerDimension()};
+   * the latter value means a sequential traversal
+   * @param pool the pool that runs the tasks
+   */
+  public static <F, V, R> ParallelQueryPlanner<F, V, R> create(MultiDimensionalSpec spec,
+    Supplier<? extends RegionInspector<F, V>> inspectorSupplier,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    int splitLevel, ForkJoinPool pool) {
+    return new ParallelQueryPlanner<F, V, R>(
+      spec, inspectorSupplier, builderFactory, splitLevel, pool);
+  }
+
+  /**
+   * Plans the query. Each call performs the complete traversal again.
+   */
+  @Override
+  public Query<F, R> get() {
+    SplittingVisitor splitter = new SplittingVisitor(inspectorSupplier.get());
+    CompactHilbertCurve curve = new CompactHilbertCurve(spec);
+    curve.accept(new ZoomingSpaceVisitorAdapter(curve, splitter));
+    List<FinishedNode<F, V>> finished = new ArrayList<>();
+    for (Part part : splitter.parts) {
+      if (part.task == null) {
+        finished.add(part.node);
+      } else {
+        finished.addAll(part.task.join());
+      }
+    }
+    return FinishedNode.replay(finished, builderFactory, spec.getBitsPerDimension().size());
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  /**
+   * Assesses the top of the tree and forks a task for each overlapping node at
+   * {@link #splitLevel}.
+   */
+  private class SplittingVisitor implements SpaceVisitor {
+
+    private final RegionInspector<F, V> inspector;
+
+    /**
+     * Top level finished nodes and forked subtrees, in index order.
+     */
+    private final List<Part> parts = new ArrayList<>();
+
+    private SplittingVisitor(RegionInspector<F, V> inspector) {
+      this.inspector = inspector;
+    }
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Assessment<F, V> assessment = inspector.assess(indexRange, orthotope);
+      if (assessment.getOutcome() != SpatialRelation.OVERLAPS) {
+        parts.add(new Part(FinishedNode.of(indexRange, orthotope, assessment), null));
+        return false;
+      }
+      if (curveLevel(orthotope) > splitLevel) {
+        return true;
+      }
+      SubtreeTask task = new SubtreeTask(indexRange.clone());
+      pool.execute(task);
+      parts.add(new Part(null, task));
+      return false;
+    }
+  }
+
+  /**
+   * The curve level is the highest level of any dimension.
+   */
+  private static int curveLevel(List<Pow2LengthBitSetRange> orthotope) {
+    int level = 0;
+    for (Pow2LengthBitSetRange range : orthotope) {
+      level = Math.max(level, range.getLevel());
+    }
+    return level;
+  }
+
+  /**
+   * Exactly one of the fields is not null.
+   */
+  private class Part {
+
+    private final FinishedNode<F, V> node;
+    private final SubtreeTask task;
+
+    private Part(FinishedNode<F, V> node, SubtreeTask task) {
+      assert (node == null) != (task == null);
+      this.node = node;
+      this.task = task;
+    }
+  }
+
+  /**
+   * Collects in index order the finished nodes of one subtree.
+   */
+  private class SubtreeTask extends RecursiveTask<List<FinishedNode<F, V>>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Pow2LengthBitSetRange subtree;
+
+    private SubtreeTask(Pow2LengthBitSetRange subtree) {
+      this.subtree = subtree;
+    }
+
+    @Override
+    protected List<FinishedNode<F, V>> compute() {
+      final RegionInspector<F, V> inspector = inspectorSupplier.get();
+      final List<FinishedNode<F, V>> finished = new ArrayList<>();
+      CompactHilbertCurve curve = new CompactHilbertCurve(spec);
+      curve.accept(new ZoomingSpaceVisitorAdapter(curve, new SpaceVisitor() {
+        @Override
+        public boolean visit(
+          Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+          if (subtree.encloses(indexRange)) {
+            Assessment<F, V> assessment = inspector.assess(indexRange, orthotope);
+            if (assessment.getOutcome() == SpatialRelation.OVERLAPS) {
+              return true;
+            }
+            finished.add(FinishedNode.of(indexRange, orthotope, assessment));
+            return false;
+          }
+          if (indexRange.encloses(subtree)) {
+            // Ancestor: keep stateful inspectors in sync, but always zoom in.
+            inspector.assess(indexRange, orthotope);
+            return true;
+          }
+          return false;
+        }
+      }));
+      return finished;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * Limits the amount of work spent on planning one query: a maximum number of
+ * assessed nodes, a deadline, or both. It can also be cancelled from another
+ * thread. Once the budget is exhausted, it stays exhausted. Instances are
+ * thread safe, so one budget can be shared by all the inspectors working on
+ * the same query, e.g. those of a {@link ParallelQueryPlanner}.
+ * 
+ * @see BudgetedRegionInspector
+ * @author Daniel Aioanei
+ */
+public class PlanningBudget {
+
+  private final long maxNodes;
+  /**
+   * Only meaningful when {@link #hasDeadline} holds. Compared by subtraction,
+   * as recommended by {@link System#nanoTime()}.
+   */
+  private final long deadlineNanos;
+  private final boolean hasDeadline;
+  private final long startNanos;
+  private final Ticker ticker;
+
+  private final AtomicLong nodesAssessed = new AtomicLong();
+  private final AtomicLong nodesDegraded = new AtomicLong();
+  private volatile boolean exhausted;
+  private volatile boolean cancelled;
+
+  private PlanningBudget(long maxNodes, long timeoutNanos, Ticker ticker) {
+    Preconditions.checkArgument(maxNodes > 0, "maxNodes must be positive");
+    Preconditions.checkArgument(timeoutNanos > 0, "timeout must be positive");
+    this.maxNodes = maxNodes;
+    this.ticker = Preconditions.checkNotNull(ticker, "ticker");
+    this.startNanos = ticker.read();
+    // TimeUnit.toNanos saturates to Long.MAX_VALUE.
+    this.hasDeadline = timeoutNanos != Long.MAX_VALUE;
+    this.deadlineNanos = startNanos + timeoutNanos;
+  }
+
+  /**
+   * Creates a budget that starts counting time right away.
+   * 
+   * @param maxNodes positive; {@link Long#MAX_VALUE} means no limit
+   * @param timeout positive; {@link Long#MAX_VALUE} nanoseconds or more mean no
+   * limit
+   * @param unit the unit of {@code timeout}
+   * @param ticker the time source, usually {@link Ticker#systemTicker()}
+   */
+  public static PlanningBudget create(long maxNodes, long timeout, TimeUnit unit, Ticker ticker) {
+    return new PlanningBudget(maxNodes, unit.toNanos(timeout), ticker);
+  }
+
+  public static PlanningBudget ofNodes(long maxNodes) {
+    return new PlanningBudget(maxNodes, Long.MAX_VALUE, Ticker.systemTicker());
+  }
+
+  public static PlanningBudget ofTimeout(long timeout, TimeUnit unit) {
+    return new PlanningBudget(Long.MAX_VALUE, unit.toNanos(timeout), Ticker.systemTicker());
+  }
+
+  /**
+   * Accounts for the assessment of one more node.
+   * 
+   * @return {@literal false} iff the budget is exhausted, in which case the
+   * caller should not zoom into the node any further
+   */
+  public boolean tryConsume() {
+    if (exhausted) {
+      return false;
+    }
+    long count = nodesAssessed.incrementAndGet();
+    if (count > maxNodes | cancelled || (hasDeadline && ticker.read() - deadlineNanos >= 0)) {
+      nodesAssessed.decrementAndGet();
+      exhausted = true;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Records that one node has been reported as covered instead of being
+   * zoomed into, because the budget was exhausted.
+   */
+  public void recordDegraded() {
+    nodesDegraded.incrementAndGet();
+  }
+
+  /**
+   * Exhausts the budget as soon as possible. Planning is not aborted, but all
+   * the remaining overlapping nodes are degraded.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isExhausted() {
+    return exhausted;
+  }
+
+  /**
+   * The number of successful {@link #tryConsume} calls.
+   */
+  public long getNodesAssessed() {
+    return nodesAssessed.get();
+  }
+
+  public long getNodesDegraded() {
+    return nodesDegraded.get();
+  }
+
+  public long getElapsedNanos() {
+    return ticker.read() - startNanos;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Region inspector for a simple, possibly concave, polygon in two dimensions.
+ * The polygon is closed: the grid points on its boundary belong to it. An
+ * orthotope that no edge touches is either inside or outside the polygon as a
+ * whole, and that is decided for one of its corners by point location in a
+ * precomputed slab decomposition, in logarithmic time. An orthotope touched by
+ * an edge overlaps the polygon, unless it is a single point, which is then on
+ * the boundary.
+ * <p>
+ * Finding the edges that touch an orthotope only looks at the edges that touch
+ * the closest enclosing orthotope seen before, which is the parent during a
+ * depth-first traversal, so most nodes only look at a handful of edges. Any
+ * other order is still correct, only slower. The arithmetic is done in
+ * doubles. If the polygon is not simple, the behaviour is undefined. Not
+ * thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class PolygonRegionInspector<F, T, V extends Content<V>, R extends Range<T, V>>
+  extends ShapeRegionInspector<F, T, V, R> {
+
+  /**
+   * Edge {@code e} goes from vertex {@code e} to vertex {@code (e + 1) % n}.
+   */
+  private final double[] x;
+  private final double[] y;
+
+  /**
+   * Distinct vertex ordinates in increasing order, delimiting the slabs.
+   */
+  private final double[] slabYs;
+
+  /**
+   * For each slab, the edges that cross it, from left to right.
+   */
+  private final int[][] slabEdges;
+
+  /**
+   * Enclosing orthotopes that overlapped the polygon, outermost first, with
+   * the edges that touch each of them.
+   */
+  private final List<Ancestor> ancestors = new ArrayList<>();
+
+  private final int[] allEdges;
+
+  /**
+   * Scratch space for the edges touching the orthotope being classified,
+   * copied only when the orthotope becomes an ancestor.
+   */
+  private final int[] touching;
+
+  private PolygonRegionInspector(double[] x, double[] y, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    super(2, filterFactory, rangeHome, zero);
+    Preconditions.checkArgument(x.length == y.length, "x and y must have the same length");
+    Preconditions.checkArgument(x.length >= 3, "a polygon needs at least 3 vertices");
+    this.x = x.clone();
+    this.y = y.clone();
+    int n = x.length;
+    allEdges = new int[n];
+    for (int e = 0; e < n; ++e) {
+      allEdges[e] = e;
+    }
+    touching = new int[n];
+    double[] sortedYs = this.y.clone();
+    Arrays.sort(sortedYs);
+    int distinct = 0;
+    for (int i = 0; i < n; ++i) {
+      if (i == 0 || sortedYs[i] != sortedYs[i - 1]) {
+        sortedYs[distinct++] = sortedYs[i];
+      }
+    }
+    slabYs = Arrays.copyOf(sortedYs, distinct);
+    slabEdges = new int[Math.max(0, distinct - 1)][];
+    List<Integer> crossing = new ArrayList<>();
+    for (int s = 0; s < slabEdges.length; ++s) {
+      crossing.clear();
+      for (int e = 0; e < n; ++e) {
+        if (minY(e) <= slabYs[s] && maxY(e) >= slabYs[s + 1]) {
+          crossing.add(e);
+        }
+      }
+      final double middle = (slabYs[s] + slabYs[s + 1]) / 2;
+      Collections.sort(crossing, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer e1, Integer e2) {
+          return Double.compare(xAt(e1, middle), xAt(e2, middle));
+        }
+      });
+      slabEdges[s] = Ints.toArray(crossing);
+    }
+  }
+
+  /**
+   * @param x the abscissae of the vertices, in order along the boundary
+   * @param y the ordinates of the vertices
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> PolygonRegionInspector<F, T, V, R> create(
+    double[] x, double[] y, Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome,
+    V zero) {
+    return new PolygonRegionInspector<F, T, V, R>(x, y, filterFactory, rangeHome, zero);
+  }
+
+  @Override
+  protected SpatialRelation classify(long[] low, long[] high) {
+    int size = ancestors.size();
+    while (size != 0 && !ancestors.get(size - 1).encloses(low, high)) {
+      ancestors.remove(--size);
+    }
+    int[] candidates = size == 0 ? allEdges : ancestors.get(size - 1).edges;
+    int touchingCount = 0;
+    for (int e : candidates) {
+      if (touches(e, low[0], low[1], high[0], high[1])) {
+        touching[touchingCount++] = e;
+      }
+    }
+    if (touchingCount == 0) {
+      return isInside(low[0], low[1]) ? SpatialRelation.COVERED : SpatialRelation.DISJOINT;
+    }
+    if (low[0] == high[0] & low[1] == high[1]) {
+      return SpatialRelation.COVERED;
+    }
+    ancestors.add(new Ancestor(low, high, Arrays.copyOf(touching, touchingCount)));
+    return SpatialRelation.OVERLAPS;
+  }
+
+  /**
+   * Crossing number parity of a point that is not on the boundary, counting
+   * the edges to its left in its slab.
+   */
+  private boolean isInside(double px, double py) {
+    if (slabEdges.length == 0 || py < slabYs[0] || py >= slabYs[slabYs.length - 1]) {
+      return false;
+    }
+    int s = Arrays.binarySearch(slabYs, py);
+    if (s < 0) {
+      s = -s - 2;
+    }
+    int[] edges = slabEdges[s];
+    int lo = 0;
+    int hi = edges.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (xAt(edges[mid], py) < px) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return (lo & 1) != 0;
+  }
+
+  /**
+   * Whether edge {@code e} has at least one point in the closed rectangle.
+   */
+  private boolean touches(int e, double lx, double ly, double hx, double hy) {
+    int f = next(e);
+    if (Math.max(x[e], x[f]) < lx || Math.min(x[e], x[f]) > hx || maxY(e) < ly || minY(e) > hy) {
+      return false;
+    }
+    // The bounding boxes intersect, so only the supporting line can separate them.
+    int signs = side(e, lx, ly) | side(e, hx, ly) | side(e, lx, hy) | side(e, hx, hy);
+    return signs != 1 && signs != 2;
+  }
+
+  /**
+   * @return 1 if the point is strictly on the left of edge {@code e}, 2 if it
+   * is strictly on its right, and 4 if it is on its supporting line
+   */
+  private int side(int e, double px, double py) {
+    int f = next(e);
+    double cross = (x[f] - x[e]) * (py - y[e]) - (y[f] - y[e]) * (px - x[e]);
+    return cross > 0 ? 1 : cross < 0 ? 2 : 4;
+  }
+
+  private double xAt(int e, double py) {
+    int f = next(e);
+    return x[e] + (x[f] - x[e]) * (py - y[e]) / (y[f] - y[e]);
+  }
+
+  private double minY(int e) {
+    return Math.min(y[e], y[next(e)]);
+  }
+
+  private double maxY(int e) {
+    return Math.max(y[e], y[next(e)]);
+  }
+
+  private int next(int e) {
+    return e + 1 == x.length ? 0 : e + 1;
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private static class Ancestor {
+
+    private final long[] low;
+    private final long[] high;
+    private final int[] edges;
+
+    private Ancestor(long[] low, long[] high, int[] edges) {
+      this.low = low.clone();
+      this.high = high.clone();
+      this.edges = edges;
+    }
+
+    private boolean encloses(long[] otherLow, long[] otherHigh) {
+      return low[0] <= otherLow[0] & low[1] <= otherLow[1] & otherHigh[0] <= high[0]
+        & otherHigh[1] <= high[1];
+    }
+  }
+}
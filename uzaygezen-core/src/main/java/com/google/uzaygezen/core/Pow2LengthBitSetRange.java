@@ -55,7 +55,8 @@ public class Pow2LengthBitSetRange {
   }
   
   /**
-   * Unsafe constructor. Keep it private.
+   * Unsafe constructor. Keep it private; {@link #view} is the package-private
+   * way in.
    */
   private Pow2LengthBitSetRange(BitVector start, int level, int anyInt) {
     assert anyInt == ANY_INT;
@@ -63,6 +64,15 @@ public class Pow2LengthBitSetRange {
     this.level = level;
   }
 
+  /**
+   * Unchecked factory for views over bit vectors that the caller keeps
+   * modifying, and which it knows to satisfy the constructor's preconditions
+   * by the time the view is used.
+   */
+  static Pow2LengthBitSetRange view(BitVector start, int level) {
+    return new Pow2LengthBitSetRange(start, level, ANY_INT);
+  }
+
   public BitVector getStart() {
     return start;
   }
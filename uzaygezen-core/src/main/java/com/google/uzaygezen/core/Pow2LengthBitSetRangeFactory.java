@@ -26,6 +26,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -66,6 +67,20 @@ public class Pow2LengthBitSetRangeFactory<V>
   
   @Override
   public Map<Pow2LengthBitSetRange, NodeValue<V>> apply(MapNode<BitVector, V> from) {
+    return build(from, Functions.<Pow2LengthBitSetRange>identity());
+  }
+
+  /**
+   * Same as {@link #apply}, but the keys are packed into {@link
+   * Pow2LengthBitSetRangeKey} instances, which take less memory and are faster
+   * to look up.
+   */
+  public Map<Pow2LengthBitSetRangeKey, NodeValue<V>> applyCompact(MapNode<BitVector, V> from) {
+    return build(from, Pow2LengthBitSetRangeKey.OF);
+  }
+
+  private <K> Map<K, NodeValue<V>> build(
+      MapNode<BitVector, V> from, Function<Pow2LengthBitSetRange, K> keyFunction) {
     if (from == null) {
       return ImmutableMap.of();
     }
@@ -78,11 +93,11 @@ public class Pow2LengthBitSetRangeFactory<V>
     outputStack.push(new BitVectorWithIterationLevelAndValue(
         BitVectorFactories.OPTIMAL.apply(bitCount), n, from.getValue()));
     MapNode<BitVector, V> inputNode;
-    Map<Pow2LengthBitSetRange, NodeValue<V>> map = Maps.newHashMap(); 
+    Map<K, NodeValue<V>> map = Maps.newHashMap();
     while ((inputNode = inputStack.poll()) != null) {
       BitVectorWithIterationLevelAndValue outputElement = outputStack.poll();
-      map.put(new Pow2LengthBitSetRange(outputElement.bitVector,
-          outputElement.level == 0 ? 0 : elementLengthSums[outputElement.level - 1]),
+      map.put(keyFunction.apply(new Pow2LengthBitSetRange(outputElement.bitVector,
+          outputElement.level == 0 ? 0 : elementLengthSums[outputElement.level - 1])),
           NodeValue.of(outputElement.value, inputNode.getChildren().isEmpty()));
       Preconditions.checkArgument(outputElement.level > 0
           || (inputNode.getChildren().isEmpty() && outputElement.level >= 0));
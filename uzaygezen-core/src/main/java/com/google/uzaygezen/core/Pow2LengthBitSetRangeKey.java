@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.uzaygezen.core;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
+/**
+ * Immutable, packed snapshot of a {@link Pow2LengthBitSetRange}, meant to be
+ * used as a hash map key. Starts of at most 64 bits are stored in a single
+ * {@code long}, wider ones in a {@code long[]} with the lowest bits in the first
+ * word. The hash code is computed once, at construction time. Unlike {@link
+ * Pow2LengthBitSetRange}, instances are not invalidated when the bit vector
+ * they were created from is modified.
+ * <p>
+ * Within this package, {@link #newProbe} also makes mutable keys that are
+ * refilled in place, so that maps can be looked up without allocating. Probes
+ * must never be stored; {@link #snapshot} makes an immutable copy.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ */
+public final class Pow2LengthBitSetRangeKey {
+
+  /**
+   * Function that snapshots a {@link Pow2LengthBitSetRange} into a key.
+   */
+  public static final Function<Pow2LengthBitSetRange, Pow2LengthBitSetRangeKey> OF =
+      new Function<Pow2LengthBitSetRange, Pow2LengthBitSetRangeKey>() {
+        @Override
+        public Pow2LengthBitSetRangeKey apply(Pow2LengthBitSetRange from) {
+          return of(from);
+        }
+      };
+
+  private final int size;
+  
+  /*
+   * The remaining fields only change in probes.
+   */
+  private int level;
+  
+  /**
+   * Start of the range when {@code size <= 64}, and zero otherwise.
+   */
+  private long word;
+  
+  /**
+   * Start of the range when {@code size > 64}, and null otherwise.
+   */
+  private final long[] words;
+  
+  private int hashCode;
+
+  private Pow2LengthBitSetRangeKey(int size, int level, long word, long[] words) {
+    this.size = size;
+    this.level = level;
+    this.word = word;
+    this.words = words;
+    computeHashCode();
+  }
+
+  private void computeHashCode() {
+    int h = words == null ? (int) (word ^ (word >>> 32)) : Arrays.hashCode(words);
+    hashCode = 31 * (31 * h + level) + size;
+  }
+
+  public static Pow2LengthBitSetRangeKey of(Pow2LengthBitSetRange range) {
+    BitVector start = range.getStart();
+    int size = start.size();
+    if (size <= 64) {
+      return new Pow2LengthBitSetRangeKey(size, range.getLevel(), start.toLong(), null);
+    } else {
+      return new Pow2LengthBitSetRangeKey(size, range.getLevel(), 0, start.toLongArray());
+    }
+  }
+
+  /**
+   * Creates a mutable key for ranges with {@code size} bits, to be filled with
+   * {@link #refill}.
+   */
+  static Pow2LengthBitSetRangeKey newProbe(int size) {
+    return new Pow2LengthBitSetRangeKey(
+        size, 0, 0, size <= 64 ? null : new long[(size + 63) >>> 6]);
+  }
+
+  /**
+   * Overwrites this probe with {@code range}, without allocating.
+   */
+  void refill(Pow2LengthBitSetRange range) {
+    BitVector start = range.getStart();
+    Preconditions.checkArgument(start.size() == size, "Size mismatch.");
+    level = range.getLevel();
+    if (words == null) {
+      word = start.toLong();
+    } else {
+      Arrays.fill(words, 0);
+      for (int i = start.nextSetBit(0); i != -1; i = start.nextSetBit(i + 1)) {
+        words[i >>> 6] |= 1L << i;
+      }
+    }
+    computeHashCode();
+  }
+
+  /**
+   * @return an immutable copy of this key
+   */
+  Pow2LengthBitSetRangeKey snapshot() {
+    return new Pow2LengthBitSetRangeKey(size, level, word, words == null ? null : words.clone());
+  }
+
+  /**
+   * Number of bits in the start of the range.
+   */
+  public int getSize() {
+    return size;
+  }
+  
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Creates a new, independent {@link Pow2LengthBitSetRange} equal to the
+   * range this key was created from.
+   */
+  public Pow2LengthBitSetRange toRange() {
+    BitVector start = BitVectorFactories.OPTIMAL.apply(size);
+    if (words == null) {
+      start.copyFrom(word);
+    } else {
+      start.copyFrom(words);
+    }
+    return new Pow2LengthBitSetRange(start, level);
+  }
+
+  /**
+   * Bit arithmetic equivalent of {@link Pow2LengthBitSetRange#encloses}.
+   */
+  public boolean encloses(Pow2LengthBitSetRangeKey other) {
+    Preconditions.checkArgument(size == other.size, "Size mismatch.");
+    if (level < other.level) {
+      return false;
+    }
+    if (level == other.level) {
+      return equals(other);
+    }
+    if (words == null) {
+      return level == 64 || ((word ^ other.word) >>> level) == 0;
+    }
+    int fullWords = level >>> 6;
+    for (int i = words.length; --i > fullWords; ) {
+      if (words[i] != other.words[i]) {
+        return false;
+      }
+    }
+    int remainder = level & 63;
+    return fullWords == words.length
+        || ((words[fullWords] ^ other.words[fullWords]) >>> remainder) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Pow2LengthBitSetRangeKey)) {
+      return false;
+    }
+    Pow2LengthBitSetRangeKey other = (Pow2LengthBitSetRangeKey) obj;
+    return hashCode == other.hashCode && level == other.level && size == other.size
+        && word == other.word && Arrays.equals(words, other.words);
+  }
+  
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
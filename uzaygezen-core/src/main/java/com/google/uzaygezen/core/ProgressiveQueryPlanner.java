@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Planner that hands out a coarse query right away and keeps refining it on a
+ * background executor. The coarse query zooms only into the top {@code
+ * coarseDepth} levels of the compact Hilbert curve tree; every node deeper
+ * than that which the inspector finds {@link SpatialRelation#OVERLAPS
+ * overlapping} is taken as {@link SpatialRelation#COVERED} with potential
+ * over-selectivity instead. Each refinement zooms {@code depthStep} levels
+ * deeper than the previous one, until the last one reaches the bottom of the
+ * tree and thus produces exactly the query of a plain traversal.
+ * <p>
+ * Every published query selects all the points of the query region, so a
+ * scanner can switch at any time to the latest one for the part of the index
+ * it has not scanned yet, with {@link #getLatest(Comparable)}. Each stage
+ * traverses the tree from the root again; since the size of the visited tree
+ * grows quickly with the depth, the work is dominated by the final stage.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> index type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class ProgressiveQueryPlanner<F, T extends Comparable<T>, V, R extends Range<T, V>> {
+
+  private final MultiDimensionalSpec spec;
+  private final Supplier<? extends RegionInspector<F, V>> inspectorSupplier;
+  private final Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory;
+  private final Function<? super R, F> filterFactory;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+  private final int coarseDepth;
+  private final int depthStep;
+  private final Executor executor;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private volatile boolean cancelled;
+
+  /**
+   * The most refined query published so far, together with its depth.
+   */
+  private final AtomicReference<Stage<F, R>> latest = new AtomicReference<>();
+
+  private final SettableFuture<Query<F, R>> finalQuery = SettableFuture.create();
+
+  private ProgressiveQueryPlanner(MultiDimensionalSpec spec,
+    Supplier<? extends RegionInspector<F, V>> inspectorSupplier,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero,
+    int coarseDepth, int depthStep, Executor executor) {
+    this.spec = Preconditions.checkNotNull(spec, "spec");
+    this.inspectorSupplier = Preconditions.checkNotNull(inspectorSupplier, "inspectorSupplier");
+    this.builderFactory = Preconditions.checkNotNull(builderFactory, "builderFactory");
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = zero;
+    Preconditions.checkArgument(coarseDepth >= 0, "coarseDepth must not be negative");
+    this.coarseDepth = coarseDepth;
+    Preconditions.checkArgument(depthStep > 0, "depthStep must be positive");
+    this.depthStep = depthStep;
+    this.executor = Preconditions.checkNotNull(executor, "executor");
+  }
+
+  /**
+   * @param inspectorSupplier must produce a new region inspector for each
+   * call, one for each stage, and they must all assess the query region in the
+   * same way
+   * @param builderFactory creates the query builder of each stage, for the
+   * given inspector, e.g. a {@link BacktrackingQueryBuilder}
+   * @param filterFactory creates the filters of the nodes that are not zoomed
+   * into, usually the same one the inspectors use for covered nodes
+   * @param coarseDepth how many levels of the tree the first query zooms into
+   * @param depthStep how many levels deeper each refinement zooms
+   * @param executor runs the refinements, all of them in a single task
+   */
+  public static <F, T extends Comparable<T>, V, R extends Range<T, V>> ProgressiveQueryPlanner<F, T, V, R> create(
+    MultiDimensionalSpec spec, Supplier<? extends RegionInspector<F, V>> inspectorSupplier,
+    Function<? super RegionInspector<F, V>, ? extends QueryBuilder<F, R>> builderFactory,
+    Function<? super R, F> filterFactory, RangeHome<T, V, R> rangeHome, V zero,
+    int coarseDepth, int depthStep, Executor executor) {
+    return new ProgressiveQueryPlanner<F, T, V, R>(spec, inspectorSupplier, builderFactory,
+      filterFactory, rangeHome, zero, coarseDepth, depthStep, executor);
+  }
+
+  /**
+   * Plans the coarse query on the calling thread, publishes it, and submits the
+   * refinements to the executor. Can only be called once.
+   * 
+   * @return the coarse query
+   */
+  public Query<F, R> start() {
+    Preconditions.checkState(started.compareAndSet(false, true), "Already started.");
+    int maxDepth = spec.maxBitsPerDimension();
+    Query<F, R> coarse = publish(Math.min(coarseDepth, maxDepth));
+    if (coarseDepth < maxDepth) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          refine();
+        }
+      });
+    }
+    return coarse;
+  }
+
+  private void refine() {
+    try {
+      int maxDepth = spec.maxBitsPerDimension();
+      for (int depth = coarseDepth; depth < maxDepth && !cancelled;) {
+        depth = (int) Math.min((long) depth + depthStep, maxDepth);
+        publish(depth);
+      }
+      if (cancelled) {
+        finalQuery.cancel(false);
+      }
+    } catch (RuntimeException | Error e) {
+      finalQuery.setException(e);
+      throw e;
+    }
+  }
+
+  private Query<F, R> publish(int depth) {
+    Query<F, R> query = plan(depth);
+    latest.set(new Stage<F, R>(query, depth));
+    if (depth == spec.maxBitsPerDimension()) {
+      finalQuery.set(query);
+    }
+    return query;
+  }
+
+  private Query<F, R> plan(int depth) {
+    RegionInspector<F, V> inspector = new DepthLimitedInspector(
+      inspectorSupplier.get(), spec.maxBitsPerDimension() - depth);
+    QueryBuilder<F, R> builder = builderFactory.apply(inspector);
+    CompactHilbertCurve curve = new CompactHilbertCurve(spec);
+    curve.accept(new ZoomingSpaceVisitorAdapter(curve, builder));
+    return builder.get();
+  }
+
+  /**
+   * @return the most refined query published so far, or null before {@link
+   * #start()}
+   */
+  public Query<F, R> getLatest() {
+    Stage<F, R> stage = latest.get();
+    return stage == null ? null : stage.query;
+  }
+
+  /**
+   * The part of the latest query that a scanner still has to read once it has
+   * scanned all the indexes below {@code resumeIndex}. The range containing
+   * {@code resumeIndex}, if any, is cut short to start there, keeping its
+   * filter.
+   */
+  public Query<F, R> getLatest(T resumeIndex) {
+    Query<F, R> query = getLatest();
+    Preconditions.checkState(query != null, "Not started.");
+    List<FilteredIndexRange<F, R>> rest = new ArrayList<>();
+    for (FilteredIndexRange<F, R> filteredRange : query.getFilteredIndexRanges()) {
+      R range = filteredRange.getIndexRange();
+      if (range.getEnd().compareTo(resumeIndex) <= 0) {
+        continue;
+      }
+      if (range.getStart().compareTo(resumeIndex) < 0) {
+        rest.add(new FilteredIndexRange<F, R>(rangeHome.of(resumeIndex, range.getEnd()),
+          filteredRange.getFilter(), filteredRange.isPotentialOverSelectivity()));
+      } else {
+        rest.add(filteredRange);
+      }
+    }
+    return Query.of(rest);
+  }
+
+  /**
+   * @return the depth the latest query zoomed into, or {@code -1} before
+   * {@link #start()}
+   */
+  public int getLatestDepth() {
+    Stage<F, R> stage = latest.get();
+    return stage == null ? -1 : stage.depth;
+  }
+
+  /**
+   * @return whether the latest query is the final, fully refined one
+   */
+  public boolean isFinished() {
+    return getLatestDepth() == spec.maxBitsPerDimension();
+  }
+
+  /**
+   * Completes with the fully refined query, or fails if a refinement fails, or
+   * is cancelled by {@link #cancel()}.
+   */
+  public ListenableFuture<Query<F, R>> getFinal() {
+    return finalQuery;
+  }
+
+  /**
+   * Stops the refinements after the current stage. The latest query stays
+   * available.
+   */
+  public void cancel() {
+    cancelled = true;
+    if (!started.get() || isFinished()) {
+      return;
+    }
+    finalQuery.cancel(false);
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private static final class Stage<F, R> {
+
+    private final Query<F, R> query;
+    private final int depth;
+
+    private Stage(Query<F, R> query, int depth) {
+      this.query = query;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * Stops zooming in below a certain curve level.
+   */
+  private class DepthLimitedInspector implements RegionInspector<F, V> {
+
+    private final RegionInspector<F, V> delegate;
+
+    /**
+     * Overlapping nodes at or below this curve level are not zoomed into.
+     */
+    private final int minZoomedLevel;
+
+    private DepthLimitedInspector(RegionInspector<F, V> delegate, int minZoomedLevel) {
+      this.delegate = delegate;
+      this.minZoomedLevel = minZoomedLevel;
+    }
+
+    @Override
+    public Assessment<F, V> assess(
+      Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Assessment<F, V> assessment = delegate.assess(indexRange, orthotope);
+      if (assessment.getOutcome() != SpatialRelation.OVERLAPS || indexRange.getLevel() == 0) {
+        return assessment;
+      }
+      // The curve level is the largest level of any dimension.
+      int curveLevel = 0;
+      for (Pow2LengthBitSetRange range : orthotope) {
+        curveLevel = Math.max(curveLevel, range.getLevel());
+      }
+      if (curveLevel > minZoomedLevel) {
+        return assessment;
+      }
+      return Assessment.makeCovered(
+        filterFactory.apply(rangeHome.toRange(indexRange)), true, zero);
+    }
+
+    @Override
+    public int getNumberOfDimensions() {
+      return delegate.getNumberOfDimensions();
+    }
+  }
+}
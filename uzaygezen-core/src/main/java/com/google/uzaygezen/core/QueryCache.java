@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Thread safe cache of query plans, backed by a Guava {@link Cache}. Entries
+ * are weighed by the number of ranges of their plan, and once the total
+ * weight exceeds the configured maximum, the least recently used entries are
+ * evicted first. Concurrent lookups of the same missing key plan the query only
+ * once. The statistics include the hit and miss counts, and the total planning
+ * time spent on misses.
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <R> range type
+ */
+public class QueryCache<F, R> {
+
+  private final Cache<QueryCacheKey, Query<F, R>> cache;
+
+  private QueryCache(long maxTotalRanges) {
+    Preconditions.checkArgument(maxTotalRanges > 0, "maxTotalRanges must be positive");
+    cache = CacheBuilder.newBuilder().maximumWeight(maxTotalRanges)
+      .weigher(new Weigher<QueryCacheKey, Query<F, R>>() {
+        @Override
+        public int weigh(QueryCacheKey key, Query<F, R> query) {
+          // Empty plans still take some memory.
+          return 1 + query.getFilteredIndexRanges().size();
+        }
+      }).recordStats().build();
+  }
+
+  /**
+   * @param maxTotalRanges the maximum total number of ranges, plus one for each
+   * entry, in all the cached plans
+   */
+  public static <F, R> QueryCache<F, R> create(long maxTotalRanges) {
+    return new QueryCache<F, R>(maxTotalRanges);
+  }
+
+  /**
+   * Returns the cached plan for {@code key}, or plans it with {@code planner}
+   * and caches the result. The planner must produce the query that {@code key}
+   * describes, and exceptions thrown by it are propagated unchecked.
+   */
+  public Query<F, R> get(QueryCacheKey key, final QueryFactory<F, R> planner) {
+    try {
+      return cache.get(key, new Callable<Query<F, R>>() {
+        @Override
+        public Query<F, R> call() {
+          return Preconditions.checkNotNull(planner.get(), "query");
+        }
+      });
+    } catch (ExecutionException e) {
+      // Only checked exceptions end up here, and the planner throws none.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the cached plan, or null
+   */
+  public Query<F, R> getIfPresent(QueryCacheKey key) {
+    return cache.getIfPresent(key);
+  }
+
+  public void invalidate(QueryCacheKey key) {
+    cache.invalidate(key);
+  }
+
+  /**
+   * Drops all the plans, e.g., when the rolled up map changes.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable key of a {@link QueryCache}: everything that determines the plan of
+ * a query, so one cache can be shared by several spaces and inspector
+ * configurations. The space is identified by its bits per dimension. The query
+ * region is normalised into a set of orthotopes, since the order of the
+ * disjoint orthotopes does not matter, and duplicates cannot occur in a valid
+ * region anyway. The ranges must implement {@link Object#equals} and {@link
+ * Object#hashCode}, like all the ranges in {@link
+ * com.google.uzaygezen.core.ranges} do.
+ * 
+ * @author Daniel Aioanei
+ */
+public final class QueryCacheKey {
+
+  private final List<Integer> bitsPerDimension;
+  private final Set<List<Object>> region;
+  private final Object minOverlappingContent;
+  private final int maxFilteredIndexRanges;
+  private final boolean alwaysRemoveVacuum;
+  private final Object combinerConfig;
+  private final long rollupVersion;
+  private final int hashCode;
+
+  private QueryCacheKey(List<Integer> bitsPerDimension, Set<List<Object>> region,
+    Object minOverlappingContent, int maxFilteredIndexRanges, boolean alwaysRemoveVacuum,
+    Object combinerConfig, long rollupVersion) {
+    this.bitsPerDimension = bitsPerDimension;
+    this.region = region;
+    this.minOverlappingContent = minOverlappingContent;
+    this.maxFilteredIndexRanges = maxFilteredIndexRanges;
+    this.alwaysRemoveVacuum = alwaysRemoveVacuum;
+    this.combinerConfig = combinerConfig;
+    this.rollupVersion = rollupVersion;
+    this.hashCode = Objects.hashCode(bitsPerDimension, region, minOverlappingContent,
+      maxFilteredIndexRanges, alwaysRemoveVacuum, combinerConfig, rollupVersion);
+  }
+
+  /**
+   * @param spec the space the query is planned in
+   * @param region the query region, as given to {@link SimpleRegionInspector}
+   * @param minOverlappingContent as given to {@link SimpleRegionInspector};
+   * like the ranges, it must implement {@link Object#equals} and {@link
+   * Object#hashCode}
+   * @param maxFilteredIndexRanges as given to {@link BacktrackingQueryBuilder}
+   * @param alwaysRemoveVacuum as given to {@link BacktrackingQueryBuilder}
+   * @param combinerConfig any value object that identifies the configuration
+   * of the {@link FilterCombiner} and of the filters, e.g., the threshold of a
+   * {@link ListConcatCombiner}
+   * @param rollupVersion the version of the rolled up map used by a {@link
+   * MapRegionInspector}, or any constant if there is none
+   */
+  public static QueryCacheKey of(MultiDimensionalSpec spec, List<? extends List<?>> region,
+    Object minOverlappingContent, int maxFilteredIndexRanges, boolean alwaysRemoveVacuum,
+    Object combinerConfig, long rollupVersion) {
+    ImmutableSet.Builder<List<Object>> normalised = ImmutableSet.builder();
+    for (List<?> orthotope : region) {
+      normalised.add(ImmutableList.<Object>copyOf(orthotope));
+    }
+    return new QueryCacheKey(ImmutableList.copyOf(spec.getBitsPerDimension()),
+      normalised.build(),
+      Preconditions.checkNotNull(minOverlappingContent, "minOverlappingContent"),
+      maxFilteredIndexRanges, alwaysRemoveVacuum,
+      Preconditions.checkNotNull(combinerConfig, "combinerConfig"), rollupVersion);
+  }
+
+  public List<Integer> getBitsPerDimension() {
+    return bitsPerDimension;
+  }
+
+  public Set<List<Object>> getRegion() {
+    return region;
+  }
+
+  public Object getMinOverlappingContent() {
+    return minOverlappingContent;
+  }
+
+  public int getMaxFilteredIndexRanges() {
+    return maxFilteredIndexRanges;
+  }
+
+  public boolean isAlwaysRemoveVacuum() {
+    return alwaysRemoveVacuum;
+  }
+
+  public Object getCombinerConfig() {
+    return combinerConfig;
+  }
+
+  public long getRollupVersion() {
+    return rollupVersion;
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof QueryCacheKey)) {
+      return false;
+    }
+    QueryCacheKey other = (QueryCacheKey) obj;
+    return hashCode == other.hashCode && maxFilteredIndexRanges == other.maxFilteredIndexRanges
+      && alwaysRemoveVacuum == other.alwaysRemoveVacuum && rollupVersion == other.rollupVersion
+      && bitsPerDimension.equals(other.bitsPerDimension)
+      && minOverlappingContent.equals(other.minOverlappingContent)
+      && combinerConfig.equals(other.combinerConfig) && region.equals(other.region);
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+}
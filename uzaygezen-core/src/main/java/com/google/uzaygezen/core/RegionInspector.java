@@ -44,11 +44,14 @@ public interface RegionInspector<F, V> {
    * index range is equal to the content of the orthotope.
    * </p>
    * 
-   * @param indexRange space filling curve index range
+   * @param indexRange space filling curve index range. The caller might reuse
+   * this parameter and its bit vector so no reference should be kept to them.
    * @param orthotope orthotope specification. The caller might reuse this
    * parameter so no reference should be kept to it by any concrete region
    * inspector.
-   * @return the immutable assessment result
+   * @return the immutable assessment result. Implementations are encouraged
+   * to return the same instance for recurring results such as {@link
+   * SpatialRelation#OVERLAPS}, since callers must not rely on identity.
    */
   Assessment<F, V> assess(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope);
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Base class for region inspectors of query regions that are described
+ * geometrically rather than as unions of orthotopes. Each orthotope is handed
+ * to {@link #classify} as the inclusive bounds of the grid points it contains,
+ * and the result is turned into an assessment the same way as {@link
+ * SimpleRegionInspector} does: disjoint orthotopes are estimated to contain as
+ * many points as the length of their index range, and covered ones get a
+ * filter from the filter factory. Subclasses must be exact at least for single
+ * points, so that the region is never over-selected.
+ * <p>
+ * The bounds are kept in scratch arrays, so instances are not thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public abstract class ShapeRegionInspector<F, T, V extends Content<V>, R extends Range<T, V>>
+  implements RegionInspector<F, V> {
+
+  private final int numberOfDimensions;
+  private final Function<? super R, F> filterFactory;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+  private final Assessment<F, V> overlaps;
+
+  private final long[] low;
+  private final long[] high;
+
+  protected ShapeRegionInspector(int numberOfDimensions, Function<? super R, F> filterFactory,
+    RangeHome<T, V, R> rangeHome, V zero) {
+    Preconditions.checkArgument(numberOfDimensions > 0, "numberOfDimensions must be positive");
+    this.numberOfDimensions = numberOfDimensions;
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = zero;
+    this.overlaps = Assessment.makeOverlaps(zero);
+    this.low = new long[numberOfDimensions];
+    this.high = new long[numberOfDimensions];
+  }
+
+  /**
+   * Classifies the grid points {@code low[i] <= x[i] <= high[i]} against the
+   * query region. Returning {@link SpatialRelation#OVERLAPS} is always
+   * correct, except when {@code low} and {@code high} are equal.
+   * 
+   * @param low inclusive lower bounds, not to be modified
+   * @param high inclusive upper bounds, not to be modified
+   */
+  protected abstract SpatialRelation classify(long[] low, long[] high);
+
+  @Override
+  public Assessment<F, V> assess(
+    Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+    for (int i = 0; i < numberOfDimensions; ++i) {
+      Pow2LengthBitSetRange range = orthotope.get(i);
+      low[i] = range.getStart().toExactLong();
+      high[i] = low[i] + ((1L << range.getLevel()) - 1);
+    }
+    SpatialRelation relation = classify(low, high);
+    switch (relation) {
+      case COVERED:
+        return Assessment.makeCovered(
+          filterFactory.apply(rangeHome.toRange(indexRange)), false, zero);
+      case DISJOINT:
+        return Assessment.makeDisjoint(rangeHome.toRange(indexRange).length());
+      case OVERLAPS:
+        Preconditions.checkState(indexRange.getLevel() != 0, "Single points cannot overlap.");
+        return overlaps;
+      default:
+        throw new RuntimeException("Cannot be: " + relation);
+    }
+  }
+
+  @Override
+  public int getNumberOfDimensions() {
+    return numberOfDimensions;
+  }
+}
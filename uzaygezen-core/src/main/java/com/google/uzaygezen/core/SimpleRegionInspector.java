@@ -60,6 +60,12 @@ public class SimpleRegionInspector<F, T, V extends AdditiveValue<V>, R extends M
   
   private final V zero;
   
+  /**
+   * Returned for all overlapping orthotopes, since it does not depend on the
+   * input.
+   */
+  private final Assessment<F, V> overlaps;
+  
   /**
    * @param <T> filter type
    * @param queryRegion set of disjoint orthotopes. If they are not disjoint the
@@ -107,6 +113,7 @@ public class SimpleRegionInspector<F, T, V extends AdditiveValue<V>, R extends M
     this.filterFactory = filterFactory;
     this.rangeHome = rangeHome;
     this.zero = zero;
+    this.overlaps = Assessment.makeOverlaps(zero);
   }
 
   /**
@@ -135,7 +142,7 @@ public class SimpleRegionInspector<F, T, V extends AdditiveValue<V>, R extends M
         return Assessment.makeDisjoint(rangeLength);
       } else {
         if (rangeLength.compareTo(minOverlappingContent) >= 0) {
-          return Assessment.makeOverlaps(zero);
+          return overlaps;
         } else {
           return Assessment.makeCovered(filterFactory.apply(indexRange), true, zero);
         }
@@ -58,6 +58,12 @@ public interface SpaceVisitor {
    * path. Its value is guaranteed to be greater than its value in all previous
    * calls that either returned {@literal false}, or they had an index range
    * length of {@code 1}.
+   * @param ranges the orthotope filled by {@code indexRange}
+   * <p>
+   * Both arguments, and the bit vectors inside them, may be reused and
+   * modified by the caller after this method returns, so implementations must
+   * copy anything they want to keep.
+   * </p>
    * 
    * @return Whether the visitor wants to zoom in.
    */
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.uzaygezen.core.ranges.Range;
+import com.google.uzaygezen.core.ranges.RangeHome;
+
+/**
+ * Pull-based planner that produces the filtered index ranges of a query one at
+ * a time, in index order, so that scanning can start before planning ends. The
+ * tree is navigated depth-first in the same order as {@link
+ * CompactHilbertCurve#accept}, but only as far as needed to produce the next
+ * range, so region inspectors such as {@link MapRegionInspector} work as
+ * usual.
+ * <p>
+ * Since the total number of ranges is not known in advance, the merging policy
+ * differs from the one of {@link BacktrackingQueryBuilder}: two consecutive
+ * covered ranges are joined iff the estimated gap between them does not exceed
+ * {@code maxGap}. The lookahead is thus bounded by one range: a range is
+ * produced as soon as the gap after it exceeds {@code maxGap}, or as soon as
+ * the next covered range is found too far. With a zero {@code maxGap} the
+ * result is the same as the one of a {@link BacktrackingQueryBuilder} with no
+ * limit on the number of ranges that always removes vacuum.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ * @param <T> unit type
+ * @param <V> content type
+ * @param <R> range type
+ */
+public class StreamingQueryPlanner<F, T, V extends Content<V>, R extends Range<T, V>>
+  extends AbstractIterator<FilteredIndexRange<F, R>> {
+
+  private final CompactHilbertNodes nodes;
+  private final RegionInspector<F, V> inspector;
+  private final FilterCombiner<F, V, R> filterCombiner;
+  private final V maxGap;
+  private final RangeHome<T, V, R> rangeHome;
+  private final V zero;
+
+  /**
+   * Nodes still to be visited, the next one on top.
+   */
+  private final Deque<Node> stack = new ArrayDeque<>();
+
+  /**
+   * The latest covered range, which may still be joined with the next one.
+   */
+  private FilteredIndexRange<F, R> pending;
+
+  /**
+   * The estimated gap after {@link #pending}.
+   */
+  private V currentGap;
+
+  private StreamingQueryPlanner(MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    FilterCombiner<F, V, R> filterCombiner, V maxGap, RangeHome<T, V, R> rangeHome, V zero) {
+    this.inspector = Preconditions.checkNotNull(inspector, "inspector");
+    this.filterCombiner = Preconditions.checkNotNull(filterCombiner, "filterCombiner");
+    this.maxGap = Preconditions.checkNotNull(maxGap, "maxGap");
+    this.rangeHome = Preconditions.checkNotNull(rangeHome, "rangeHome");
+    this.zero = zero;
+    this.currentGap = zero.clone();
+    this.nodes = new CompactHilbertNodes(spec);
+    stack.push(new Node(nodes.root(), nodes.getMaxLevel()));
+  }
+
+  /**
+   * @param maxGap the maximum estimated gap between two covered ranges that
+   * are joined together; zero means that only vacuum is removed
+   */
+  public static <F, T, V extends Content<V>, R extends Range<T, V>> StreamingQueryPlanner<F, T, V, R> create(
+    MultiDimensionalSpec spec, RegionInspector<F, V> inspector,
+    FilterCombiner<F, V, R> filterCombiner, V maxGap, RangeHome<T, V, R> rangeHome, V zero) {
+    return new StreamingQueryPlanner<F, T, V, R>(
+      spec, inspector, filterCombiner, maxGap, rangeHome, zero);
+  }
+
+  @Override
+  protected FilteredIndexRange<F, R> computeNext() {
+    Node node;
+    while ((node = stack.poll()) != null) {
+      FilteredIndexRange<F, R> result = visit(node);
+      if (result != null) {
+        return result;
+      }
+    }
+    if (pending != null) {
+      FilteredIndexRange<F, R> result = pending;
+      pending = null;
+      return result;
+    }
+    return endOfData();
+  }
+
+  /**
+   * @return the range that has just become final, if any
+   */
+  private FilteredIndexRange<F, R> visit(Node node) {
+    List<Pow2LengthBitSetRange> orthotope = nodes.orthotope(node.indexRange, node.curveLevel);
+    Assessment<F, V> assessment = inspector.assess(node.indexRange, orthotope);
+    switch (assessment.getOutcome()) {
+      case OVERLAPS:
+        if (node.curveLevel != 0) {
+          pushChildren(node);
+        }
+        return null;
+      case COVERED:
+        return processCoveredNode(node.indexRange, assessment.getFilter(),
+          assessment.isPotentialOverSelectivity());
+      case DISJOINT:
+        if (pending != null) {
+          currentGap.add(assessment.getEstimate());
+          if (currentGap.compareTo(maxGap) > 0) {
+            FilteredIndexRange<F, R> result = pending;
+            pending = null;
+            return result;
+          }
+        }
+        return null;
+      default:
+        throw new RuntimeException("Cannot be: " + assessment.getOutcome());
+    }
+  }
+
+  private FilteredIndexRange<F, R> processCoveredNode(
+    Pow2LengthBitSetRange indexBitSetRange, F filter, boolean potentialOverSelectivityInRange) {
+    FilteredIndexRange<F, R> covered = new FilteredIndexRange<F, R>(
+      rangeHome.toRange(indexBitSetRange), filter, potentialOverSelectivityInRange);
+    FilteredIndexRange<F, R> result;
+    if (pending == null) {
+      result = null;
+      pending = covered;
+    } else if (currentGap.compareTo(maxGap) <= 0) {
+      result = null;
+      SelectiveFilter<F> combinedFilter = filterCombiner.combine(pending, covered, currentGap);
+      pending = new FilteredIndexRange<F, R>(
+        rangeHome.of(pending.getIndexRange().getStart(), covered.getIndexRange().getEnd()),
+        combinedFilter.getFilter(),
+        combinedFilter.isPotentialOverSelectivity() | potentialOverSelectivityInRange);
+    } else {
+      result = pending;
+      pending = covered;
+    }
+    currentGap = zero.clone();
+    return result;
+  }
+
+  private void pushChildren(Node node) {
+    List<Node> children = new ArrayList<>();
+    BitVector r = BitVectorFactories.OPTIMAL.apply(nodes.childBitCount(node.curveLevel));
+    do {
+      children.add(new Node(nodes.child(node.indexRange, node.curveLevel, r), node.curveLevel - 1));
+    } while (r.increment());
+    for (int i = children.size(); --i >= 0; ) {
+      stack.push(children.get(i));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private static class Node {
+
+    private final Pow2LengthBitSetRange indexRange;
+    private final int curveLevel;
+
+    private Node(Pow2LengthBitSetRange indexRange, int curveLevel) {
+      this.indexRange = indexRange;
+      this.curveLevel = curveLevel;
+    }
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * Produces the exact queries of grid aligned tiles without traversing the
+ * compact Hilbert curve tree. At zoom level {@code z} there are {@code 2^min(z,
+ * m[i])} tiles along dimension {@code i}, each one {@code 2^max(m[i] - z, 0)}
+ * wide. A node of the tree at curve level {@code c} is an aligned box with
+ * {@code 2^min(m[i], c)} points along each dimension, and its points make up a
+ * single index range. So a tile is the union of the nodes at the highest curve
+ * level that fits it in every dimension. When all dimensions have the same
+ * number of bits, that is a single node, i.e. a single range. Otherwise the
+ * narrower dimensions bound the cell level, and the tile consists of several
+ * cells, the partial cells, whose ranges are sorted and the adjacent ones
+ * joined.
+ * <p>
+ * What is computed once per zoom level is the template: the tile size, the
+ * cell level and the layout of the cells. All the cells of a tile lie in the
+ * same node at the tile level, the lowest level whose nodes contain whole
+ * tiles, and their index offsets from the start of that node depend only on its
+ * orientation, i.e., its entry vertex and direction, and on the bits of the
+ * tile corner below that level, which the narrower dimensions have. So the
+ * sorted and joined cell offsets are memoized per template under that key,
+ * and each tile takes a single index computation, of its corner down to the
+ * tile level, plus a lookup. Only the first tile with a given key indexes all
+ * its cells. There are at most {@code n 2^n} orientations, where {@code n} is
+ * the number of dimensions, and when all dimensions have the same number of
+ * bits the tile corner has no bits below the tile level. The produced queries
+ * are the same as those of {@link BacktrackingQueryBuilder} with no limit on
+ * the number of ranges, vacuum removal, and an exact region inspector for the
+ * tile. Instances keep scratch state and the memoized offsets, so they are not
+ * thread safe.
+ * </p>
+ * 
+ * @author Daniel Aioanei
+ * 
+ * @param <F> filter type
+ */
+public class TileQueryTemplates<F> {
+
+  private final CompactHilbertCurve curve;
+  private final int[] m;
+  private final Function<? super LongRange, F> filterFactory;
+
+  /**
+   * Lazily built, one for each zoom level.
+   */
+  private final Template[] templates;
+
+  /**
+   * Scratch space for the corners of the cells.
+   */
+  private final BitVector[] p;
+  private final BitVector index;
+  private final BitVector entry;
+
+  private TileQueryTemplates(
+    MultiDimensionalSpec spec, Function<? super LongRange, F> filterFactory) {
+    Preconditions.checkArgument(spec.sumBitsPerDimension() < Long.SIZE - 1,
+      "The index must fit in %s bits.", Long.SIZE - 2);
+    this.curve = new CompactHilbertCurve(spec);
+    this.m = Ints.toArray(spec.getBitsPerDimension());
+    this.filterFactory = Preconditions.checkNotNull(filterFactory, "filterFactory");
+    this.templates = new Template[spec.maxBitsPerDimension() + 1];
+    this.p = new BitVector[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(m[i]);
+    }
+    this.index = BitVectorFactories.OPTIMAL.apply(spec.sumBitsPerDimension());
+    this.entry = BitVectorFactories.OPTIMAL.apply(m.length);
+  }
+
+  /**
+   * @param spec with at most 62 bits in total
+   * @param filterFactory creates the filter of each produced range
+   */
+  public static <F> TileQueryTemplates<F> create(
+    MultiDimensionalSpec spec, Function<? super LongRange, F> filterFactory) {
+    return new TileQueryTemplates<F>(spec, filterFactory);
+  }
+
+  /**
+   * The zoom level at which each tile is a single point.
+   */
+  public int getMaxZoom() {
+    return templates.length - 1;
+  }
+
+  /**
+   * The number of cells that make up each tile at {@code zoom}; it is one for
+   * full cell tiles. They are all indexed only for the first tile of each
+   * memoization key.
+   */
+  public long getCellsPerTile(int zoom) {
+    return 1L << template(zoom).cellBitSum;
+  }
+
+  /**
+   * The number of distinct cell offset lists memoized so far at {@code zoom}.
+   * <p>Visible for testing.</p>
+   */
+  int getMemoizedCount(int zoom) {
+    return template(zoom).cellRuns.size();
+  }
+
+  /**
+   * The box of points covered by a tile, with exclusive upper bounds.
+   */
+  public List<LongRange> getOrthotope(int zoom, long[] tile) {
+    Template template = template(zoom);
+    checkTile(template, tile);
+    List<LongRange> orthotope = new ArrayList<>(m.length);
+    for (int i = 0; i < m.length; ++i) {
+      orthotope.add(LongRange.of(
+        tile[i] << template.tileBits[i], (tile[i] + 1) << template.tileBits[i]));
+    }
+    return orthotope;
+  }
+
+  /**
+   * @param zoom between {@code 0} and {@link #getMaxZoom()}
+   * @param tile the tile coordinates, with {@code 0 <= tile[i] < 2^min(zoom,
+   * m[i])}
+   * @return the exact query of the tile, with no potential over-selectivity
+   */
+  public Query<F, LongRange> get(int zoom, long[] tile) {
+    Template template = template(zoom);
+    checkTile(template, tile);
+    for (int i = 0; i < m.length; ++i) {
+      p[i].copyFrom(tile[i] << template.tileBits[i]);
+    }
+    int direction = curve.indexAndOrientation(p, template.tileLevel, index, entry);
+    long base = index.toExactLong();
+    BitVector key = template.key;
+    key.copySectionFrom(0, entry);
+    int k = m.length;
+    for (int b = 0; b < template.directionBits; ++b) {
+      key.set(k++, (direction >>> b & 1) != 0);
+    }
+    for (int i = 0; i < m.length; ++i) {
+      for (int level = template.tileBits[i]; level < template.cornerBitsEnd[i]; ++level) {
+        key.set(k++, p[i].get(level));
+      }
+    }
+    assert k == key.size();
+    long[] runs = template.cellRuns.get(key);
+    if (runs == null) {
+      runs = cellRuns(template, tile, base);
+      template.cellRuns.put(key.clone(), runs);
+    }
+    List<FilteredIndexRange<F, LongRange>> ranges = new ArrayList<>(runs.length / 2);
+    for (int i = 0; i < runs.length; i += 2) {
+      LongRange range = LongRange.of(base + runs[i], base + runs[i + 1]);
+      ranges.add(new FilteredIndexRange<F, LongRange>(range, filterFactory.apply(range), false));
+    }
+    return Query.of(ranges);
+  }
+
+  /**
+   * Indexes every cell of the tile.
+   * 
+   * @param base the index of the tile corner, without the bits below the tile
+   * level
+   * @return the runs of adjacent cells in index order, as pairs of start and
+   * end offsets from {@code base}
+   */
+  private long[] cellRuns(Template template, long[] tile, long base) {
+    int cellCount = Ints.checkedCast(1L << template.cellBitSum);
+    long[] starts = new long[cellCount];
+    for (int cell = 0; cell < cellCount; ++cell) {
+      int rest = cell;
+      for (int i = 0; i < m.length; ++i) {
+        int offset = rest & ((1 << template.cellBits[i]) - 1);
+        rest >>>= template.cellBits[i];
+        p[i].copyFrom(
+          (tile[i] << template.tileBits[i]) + ((long) offset << template.cellLevels[i]));
+      }
+      curve.index(p, template.curveLevel, index);
+      starts[cell] = index.toExactLong() - base;
+    }
+    Arrays.sort(starts);
+    long cellLength = 1L << template.cellIndexBits;
+    long[] runs = new long[2 * cellCount];
+    int runCount = 0;
+    for (int i = 0; i < cellCount;) {
+      long start = starts[i];
+      long end = start + cellLength;
+      while (++i < cellCount && starts[i] == end) {
+        end += cellLength;
+      }
+      runs[runCount++] = start;
+      runs[runCount++] = end;
+    }
+    return Arrays.copyOf(runs, runCount);
+  }
+
+  private void checkTile(Template template, long[] tile) {
+    Preconditions.checkArgument(tile.length == m.length, "Wrong number of coordinates.");
+    for (int i = 0; i < m.length; ++i) {
+      Preconditions.checkArgument(0 <= tile[i] && tile[i] < 1L << (m[i] - template.tileBits[i]),
+        "Tile coordinate %s out of bounds in dimension %s.", tile[i], i);
+    }
+  }
+
+  private Template template(int zoom) {
+    Preconditions.checkArgument(0 <= zoom & zoom < templates.length,
+      "zoom must be between 0 and %s.", templates.length - 1);
+    if (templates[zoom] == null) {
+      templates[zoom] = new Template(m, templates.length - 1, zoom);
+    }
+    return templates[zoom];
+  }
+
+  @Override
+  public String toString() {
+    return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
+  }
+
+  private static final class Template {
+
+    /**
+     * Log2 of the tile width along each dimension.
+     */
+    private final int[] tileBits;
+
+    /**
+     * The curve level of the cells.
+     */
+    private final int curveLevel;
+
+    /**
+     * Log2 of the cell width along each dimension.
+     */
+    private final int[] cellLevels;
+
+    /**
+     * Log2 of the number of cells along each dimension.
+     */
+    private final int[] cellBits;
+    private final int cellBitSum;
+
+    /**
+     * Log2 of the index range length of a cell.
+     */
+    private final int cellIndexBits;
+
+    /**
+     * The level of the node that contains all the cells of a tile.
+     */
+    private final int tileLevel;
+
+    /**
+     * The bits of the tile corner that are part of the memoization key lie in
+     * the levels from {@code tileBits[i]} to {@code cornerBitsEnd[i]}.
+     */
+    private final int[] cornerBitsEnd;
+    private final int directionBits;
+
+    /**
+     * Scratch space for the memoization key: the entry vertex, the direction
+     * and the corner bits.
+     */
+    private final BitVector key;
+
+    /**
+     * The result of {@link TileQueryTemplates#cellRuns} for each key.
+     */
+    private final Map<BitVector, long[]> cellRuns = new HashMap<>();
+
+    private Template(int[] m, int maxLevel, int zoom) {
+      tileBits = new int[m.length];
+      int level = maxLevel;
+      for (int i = 0; i < m.length; ++i) {
+        tileBits[i] = Math.max(m[i] - zoom, 0);
+        if (tileBits[i] < m[i]) {
+          // A node at a higher level would be wider than the tile.
+          level = Math.min(level, tileBits[i]);
+        }
+      }
+      curveLevel = level;
+      cellLevels = new int[m.length];
+      cellBits = new int[m.length];
+      int bitSum = 0;
+      int indexBits = 0;
+      for (int i = 0; i < m.length; ++i) {
+        cellLevels[i] = Math.min(m[i], curveLevel);
+        cellBits[i] = tileBits[i] - cellLevels[i];
+        bitSum += cellBits[i];
+        indexBits += cellLevels[i];
+      }
+      Preconditions.checkArgument(bitSum < Integer.SIZE - 1,
+        "Too many cells per tile at zoom %s.", zoom);
+      cellBitSum = bitSum;
+      cellIndexBits = indexBits;
+      int maxTileBits = 0;
+      for (int i = 0; i < m.length; ++i) {
+        maxTileBits = Math.max(maxTileBits, tileBits[i]);
+      }
+      tileLevel = maxTileBits;
+      directionBits = Integer.SIZE - Integer.numberOfLeadingZeros(m.length);
+      cornerBitsEnd = new int[m.length];
+      int keyBits = m.length + directionBits;
+      for (int i = 0; i < m.length; ++i) {
+        cornerBitsEnd[i] = Math.max(Math.min(m[i], tileLevel), tileBits[i]);
+        keyBits += cornerBitsEnd[i] - tileBits[i];
+      }
+      key = BitVectorFactories.OPTIMAL.apply(keyBits);
+    }
+  }
+}
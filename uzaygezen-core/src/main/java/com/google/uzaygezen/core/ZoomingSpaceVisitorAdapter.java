@@ -16,8 +16,10 @@
 
 package com.google.uzaygezen.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
@@ -25,6 +27,14 @@ import com.google.common.primitives.Ints;
 /**
  * Adapts the user friendly {@link SpaceVisitor} to serve as a {@link
  * ZoomingNavigator}.
+ * <p>
+ * To avoid allocating a handful of objects for each visited node, the index
+ * range and the orthotope passed to the adaptee are views backed by the very
+ * bit vectors received from the navigating curve, which mutates them in place
+ * as it goes. The views are built once per navigation, for all levels, so the
+ * adaptee must copy anything it wants to keep after {@link
+ * SpaceVisitor#visit} returns.
+ * </p>
  * 
  * @author Daniel Aioanei
  */
@@ -39,6 +49,24 @@ public class ZoomingSpaceVisitorAdapter implements ZoomingNavigator {
    */
   private final int[] m;
   
+  /**
+   * The arguments for which {@link #indexRanges} and {@link #orthotopes} have
+   * been built. Only identity matters.
+   */
+  private BitVector cachedIndex;
+  private BitVector[] cachedP;
+  private BitVector[] cachedPoints;
+  
+  /**
+   * Index range view for each level.
+   */
+  private Pow2LengthBitSetRange[] indexRanges;
+  
+  /**
+   * Unmodifiable orthotope view for each level.
+   */
+  private List<List<Pow2LengthBitSetRange>> orthotopes;
+  
   /**
    * @param curve space filling curve
    * @param visitor adaptee
@@ -52,22 +80,49 @@ public class ZoomingSpaceVisitorAdapter implements ZoomingNavigator {
   @Override
   public boolean visit(int level, BitVector index, BitVector[] p) {
     checkArguments(level, p);
-    Pow2LengthBitSetRange[] ranges = new Pow2LengthBitSetRange[p.length];
-    int n = p.length;
-    // TODO: Compute all lowOrderBitCount in the constructor.
-    int lowOrderBitCount = 0;
-    for (int i = 0; i < n; ++i) {
-      int realLevel = Math.min(m[i], level);
-      ranges[i] = new Pow2LengthBitSetRange(p[i], realLevel);
-      lowOrderBitCount += realLevel;
+    if (!isCachedFor(index, p)) {
+      buildViews(index, p);
     }
+    Pow2LengthBitSetRange indexRange = indexRanges[level];
     assert computeIndex(p, level).equals(index);
-    assert index.areAllLowestBitsClear(lowOrderBitCount);
-    boolean needChildren = visitor.visit(
-        new Pow2LengthBitSetRange(index, lowOrderBitCount),
-        Collections.unmodifiableList(Arrays.asList(ranges)));
+    assert index.areAllLowestBitsClear(indexRange.getLevel());
+    boolean needChildren = visitor.visit(indexRange, orthotopes.get(level));
     return needChildren;
   }
+
+  private boolean isCachedFor(BitVector index, BitVector[] p) {
+    if (index != cachedIndex | p != cachedP) {
+      return false;
+    }
+    // The caller is free to swap the elements of p between calls.
+    for (int i = 0; i < p.length; ++i) {
+      if (p[i] != cachedPoints[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void buildViews(BitVector index, BitVector[] p) {
+    int n = p.length;
+    int mMax = curve.getSpec().maxBitsPerDimension();
+    indexRanges = new Pow2LengthBitSetRange[mMax + 1];
+    orthotopes = new ArrayList<>(mMax + 1);
+    for (int level = 0; level <= mMax; ++level) {
+      Pow2LengthBitSetRange[] ranges = new Pow2LengthBitSetRange[n];
+      int lowOrderBitCount = 0;
+      for (int i = 0; i < n; ++i) {
+        int realLevel = Math.min(m[i], level);
+        ranges[i] = Pow2LengthBitSetRange.view(p[i], realLevel);
+        lowOrderBitCount += realLevel;
+      }
+      indexRanges[level] = Pow2LengthBitSetRange.view(index, lowOrderBitCount);
+      orthotopes.add(Collections.unmodifiableList(Arrays.asList(ranges)));
+    }
+    cachedIndex = index;
+    cachedP = p;
+    cachedPoints = p.clone();
+  }
   
   private BitVector computeIndex(BitVector[] p, int level) {
     BitVector index = BitVectorFactories.OPTIMAL.apply(curve.getSpec().sumBitsPerDimension());
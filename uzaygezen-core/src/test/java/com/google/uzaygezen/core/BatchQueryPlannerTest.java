@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class BatchQueryPlannerTest {
+
+  @Test
+  public void sameQueriesAsSeparateTraversals() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 10; ++i) {
+      List<List<List<LongRange>>> regions = new ArrayList<>();
+      for (int j = 1 + random.nextInt(30); --j >= 0;) {
+        regions.add(QueryTestUtils.randomRegion(random, m, 1 + random.nextInt(3)));
+      }
+      for (int maxRanges : new int[] {1, 3, Integer.MAX_VALUE}) {
+        checkSameQueries(m, regions, maxRanges);
+      }
+    }
+  }
+
+  @Test
+  public void sharedNodesAreVisitedOnce() {
+    int[] m = {6, 6};
+    List<List<List<LongRange>>> regions = new ArrayList<>();
+    // A row of adjacent tiles.
+    for (int i = 0; i < 16; ++i) {
+      regions.add(box(LongRange.of(4 * i, 4 * i + 4), LongRange.of(8, 12)));
+    }
+    checkSameQueries(m, regions, Integer.MAX_VALUE);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void planOnlyOnce() {
+    int[] m = {2, 2};
+    List<List<List<LongRange>>> regions = new ArrayList<>();
+    regions.add(box(LongRange.of(0, 1), LongRange.of(1, 3)));
+    BatchQueryPlanner<RangeListFilter<Long, LongContent, LongRange>, LongRange> planner =
+      BatchQueryPlanner.create(spec(m), builders(regions, 1));
+    planner.plan();
+    planner.plan();
+  }
+
+  private static void checkSameQueries(
+    int[] m, List<List<List<LongRange>>> regions, int maxRanges) {
+    List<CountingBuilder> expected = builders(regions, maxRanges);
+    long separateVisits = 0;
+    for (CountingBuilder builder : expected) {
+      CompactHilbertCurve chc = new CompactHilbertCurve(m);
+      chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+      separateVisits += builder.visits;
+    }
+    List<CountingBuilder> batched = builders(regions, maxRanges);
+    BatchQueryPlanner<RangeListFilter<Long, LongContent, LongRange>, LongRange> planner =
+      BatchQueryPlanner.create(spec(m), batched);
+    List<Query<RangeListFilter<Long, LongContent, LongRange>, LongRange>> actual = planner.plan();
+    Assert.assertEquals(regions.size(), actual.size());
+    for (int i = 0; i < regions.size(); ++i) {
+      Assert.assertEquals(expected.get(i).get(), actual.get(i));
+      Assert.assertEquals(expected.get(i).visits, batched.get(i).visits);
+    }
+    Assert.assertEquals(separateVisits, planner.getBuilderVisits());
+    Assert.assertTrue(planner.getNodesVisited() <= planner.getBuilderVisits());
+    if (regions.size() > 1) {
+      // At least the root is shared.
+      Assert.assertTrue(planner.getNodesVisited() < planner.getBuilderVisits());
+    }
+  }
+
+  private static List<List<LongRange>> box(LongRange x, LongRange y) {
+    return ImmutableList.<List<LongRange>>of(ImmutableList.of(x, y));
+  }
+
+  private static MultiDimensionalSpec spec(int[] m) {
+    return new MultiDimensionalSpec(Ints.asList(m));
+  }
+
+  private static List<CountingBuilder> builders(
+    List<List<List<LongRange>>> regions, int maxRanges) {
+    List<CountingBuilder> builders = new ArrayList<>();
+    for (List<List<LongRange>> region : regions) {
+      RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector =
+        SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+          RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT);
+      builders.add(new CountingBuilder(BacktrackingQueryBuilder.create(inspector,
+        new ListConcatCombiner<Long, LongContent, LongRange>(5), maxRanges, true,
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT)));
+    }
+    return builders;
+  }
+
+  private static class CountingBuilder
+    implements QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> {
+
+    private final QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> delegate;
+    private int visits;
+
+    CountingBuilder(
+      QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      visits++;
+      return delegate.visit(indexRange, orthotope);
+    }
+
+    @Override
+    public Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> get() {
+      return delegate.get();
+    }
+  }
+}
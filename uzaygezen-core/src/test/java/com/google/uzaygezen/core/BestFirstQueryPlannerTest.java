@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class BestFirstQueryPlannerTest {
+
+  private static final int[] M = {4, 3, 4};
+  private static final MultiDimensionalSpec SPEC = new MultiDimensionalSpec(Ints.asList(M));
+
+  @Test
+  public void unlimitedBudgetMatchesDepthFirstTraversal() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 10; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      for (int maxRanges : new int[] {1, 3, 1000}) {
+        RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector =
+          inspector(region);
+        QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+          builderFactory(maxRanges).apply(inspector);
+        CompactHilbertCurve chc = new CompactHilbertCurve(SPEC);
+        chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+        PlanningBudget budget = PlanningBudget.ofNodes(Long.MAX_VALUE);
+        Assert.assertEquals(builder.get(), plan(region, maxRanges, budget));
+        Assert.assertEquals(0, budget.getNodesDegraded());
+      }
+    }
+  }
+
+  @Test
+  public void exhaustedBudgetProducesSuperset() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 10; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      for (int maxNodes = 1; maxNodes < 256; maxNodes *= 2) {
+        PlanningBudget budget = PlanningBudget.ofNodes(maxNodes);
+        Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query =
+          plan(region, 1000, budget);
+        Assert.assertTrue(budget.getNodesAssessed() <= maxNodes);
+        Assert.assertEquals(budget.isExhausted(), budget.getNodesDegraded() > 0);
+        BudgetedRegionInspectorTest.checkSelectsAllPoints(region, query);
+      }
+    }
+  }
+
+  @Test
+  public void readsLessThanDepthFirstUnderTheSameBudget() {
+    Random random = new Random(TestUtils.SEED);
+    long bestFirstLength = 0;
+    long depthFirstLength = 0;
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      bestFirstLength += selectedLength(plan(region, 1000, PlanningBudget.ofNodes(64)));
+      QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+        builderFactory(1000).apply(BudgetedRegionInspector.create(inspector(region),
+          PlanningBudget.ofNodes(64), RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE),
+          LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT));
+      CompactHilbertCurve chc = new CompactHilbertCurve(SPEC);
+      chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+      depthFirstLength += selectedLength(builder.get());
+    }
+    Assert.assertTrue(bestFirstLength + " " + depthFirstLength, bestFirstLength < depthFirstLength);
+  }
+
+  @Test
+  public void overlapVolumeBeatsLengthUnderTheSameBudget() {
+    Random random = new Random(TestUtils.SEED);
+    long overlapVolumeLength = 0;
+    long lengthLength = 0;
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      overlapVolumeLength += selectedLength(plan(region, 1000, PlanningBudget.ofNodes(64)));
+      lengthLength += selectedLength(plan(region, 1000, PlanningBudget.ofNodes(64),
+        BestFirstQueryPlanner.<RangeListFilter<Long, LongContent, LongRange>, Long, LongContent,
+          LongRange>lengthEstimator(LongRangeHome.INSTANCE)));
+    }
+    Assert.assertTrue(
+      overlapVolumeLength + " " + lengthLength, overlapVolumeLength < lengthLength);
+  }
+
+  @Test
+  public void overlapVolumeSaturatesForWideNodes() {
+    BenefitEstimator<RangeListFilter<Long, LongContent, LongRange>, LongContent> estimator =
+      BestFirstQueryPlanner.overlapVolumeEstimator(ImmutableList.of(ImmutableList.of(
+        LongRange.of(0, 1), LongRange.of(0, 1))));
+    for (int level : new int[] {63, 64}) {
+      Pow2LengthBitSetRange node =
+        new Pow2LengthBitSetRange(BitVectorFactories.OPTIMAL.apply(64), level);
+      Pow2LengthBitSetRange half =
+        new Pow2LengthBitSetRange(BitVectorFactories.OPTIMAL.apply(32), level / 2);
+      LongContent benefit = estimator.estimate(node, ImmutableList.of(half, half), null);
+      Assert.assertEquals(Long.MAX_VALUE - 1, benefit.value());
+    }
+  }
+
+  /**
+   * The root has 4 children of 512 indexes each. When the budget runs out
+   * while expanding it, the children already assessed keep their assessments,
+   * and only the others are degraded.
+   */
+  @Test
+  public void partialExpansionKeepsTheAssessedChildren() {
+    Random random = new Random(TestUtils.SEED);
+    CompactHilbertCurve chc = new CompactHilbertCurve(SPEC);
+    BitVector index = BitVectorFactories.OPTIMAL.apply(SPEC.sumBitsPerDimension());
+    BitVector[] p = new BitVector[M.length];
+    for (int j = 0; j < M.length; ++j) {
+      p[j] = BitVectorFactories.OPTIMAL.apply(M[j]);
+    }
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      BitSet regionIndexes = new BitSet();
+      for (int h = 0; h < 1 << SPEC.sumBitsPerDimension(); ++h) {
+        index.copyFrom(h);
+        chc.indexInverse(index, p);
+        for (List<LongRange> box : region) {
+          boolean inBox = true;
+          for (int j = 0; j < M.length; ++j) {
+            inBox &= box.get(j).contains(p[j].toExactLong());
+          }
+          if (inBox) {
+            regionIndexes.set(h);
+          }
+        }
+      }
+      for (int assessedChildren = 0; assessedChildren < 4; ++assessedChildren) {
+        BitSet expected = new BitSet();
+        int degraded = 0;
+        for (int child = 0; child < 4; ++child) {
+          int inside = regionIndexes.get(512 * child, 512 * (child + 1)).cardinality();
+          if (child >= assessedChildren) {
+            ++degraded;
+          } else if (inside == 0) {
+            continue;
+          } else if (inside < 512) {
+            // Overlapping, but there is no budget left to refine it.
+            ++degraded;
+          }
+          expected.set(512 * child, 512 * (child + 1));
+        }
+        PlanningBudget budget = PlanningBudget.ofNodes(1 + assessedChildren);
+        BitSet selected = new BitSet();
+        for (FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange> range
+          : plan(region, 1000, budget).getFilteredIndexRanges()) {
+          selected.set((int) (long) range.getIndexRange().getStart(),
+            (int) (long) range.getIndexRange().getEnd());
+        }
+        Assert.assertEquals(expected, selected);
+        Assert.assertEquals(degraded, budget.getNodesDegraded());
+      }
+    }
+  }
+
+  private static long selectedLength(Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query) {
+    long length = 0;
+    for (FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange> range
+      : query.getFilteredIndexRanges()) {
+      length += range.getIndexRange().length().value();
+    }
+    return length;
+  }
+
+  private static Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> plan(
+    List<List<LongRange>> region, int maxRanges, PlanningBudget budget) {
+    return plan(region, maxRanges, budget, BestFirstQueryPlanner
+      .<RangeListFilter<Long, LongContent, LongRange>>overlapVolumeEstimator(region));
+  }
+
+  private static Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> plan(
+    List<List<LongRange>> region, int maxRanges, PlanningBudget budget,
+    BenefitEstimator<RangeListFilter<Long, LongContent, LongRange>, LongContent> estimator) {
+    return BestFirstQueryPlanner.create(SPEC, inspector(region), builderFactory(maxRanges),
+      estimator, RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE),
+      LongRangeHome.INSTANCE, budget, TestUtils.ZERO_LONG_CONTENT).get();
+  }
+
+  private static RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector(
+    List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+      TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>> builderFactory(
+    final int maxRanges) {
+    return new Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>>() {
+      @Override
+      public QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> apply(
+        RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector) {
+        return BacktrackingQueryBuilder.create(inspector,
+          ListConcatCombiner.<Long, LongContent, LongRange>unbounded(), maxRanges, true,
+          LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      }
+    };
+  }
+}
@@ -19,6 +19,8 @@ package com.google.uzaygezen.core;
 import static org.junit.Assert.assertArrayEquals;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -1190,6 +1192,57 @@ public class BitVectorTest {
     }
   }
 
+  @Test
+  public void writeBigEndianAndReadBigEndianMatchByteArrays() {
+    for (Function<Integer, BitVector> factory : BitVectorFactories.values()) {
+      for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+        checkWriteBigEndianAndReadBigEndianMatchByteArrays(factory, order);
+      }
+    }
+  }
+
+  private void checkWriteBigEndianAndReadBigEndianMatchByteArrays(
+      Function<Integer, BitVector> factory, ByteOrder order) {
+    for (int size = 0; size < 200; ++size) {
+      BitVector bv = factory.apply(size);
+      randomInit(bv);
+      byte[] expected = bv.toBigEndianByteArray();
+      int offset = size % 5;
+      ByteBuffer buffer = ByteBuffer.allocate(offset + expected.length + 3).order(order);
+      buffer.position(offset);
+      bv.writeBigEndian(buffer);
+      Assert.assertEquals(offset + expected.length, buffer.position());
+      byte[] actual = Arrays.copyOfRange(buffer.array(), offset, offset + expected.length);
+      assertArrayEquals(expected, actual);
+      BitVector revived = factory.apply(size);
+      buffer.position(0);
+      revived.readBigEndian(buffer, offset, expected.length);
+      Assert.assertEquals(0, buffer.position());
+      Assert.assertEquals(bv, revived);
+    }
+  }
+
+  @Test
+  public void readBigEndianRejectsBitsAboveSize() {
+    for (Function<Integer, BitVector> factory : BitVectorFactories.values()) {
+      for (int size : new int[] {1, 7, 9, 63, 65, 127}) {
+        BitVector bv = factory.apply(size);
+        int n = MathUtils.bitCountToByteCount(size);
+        if ((n << 3) == size) {
+          continue;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(n);
+        buffer.put(0, (byte) 0x80);
+        try {
+          bv.readBigEndian(buffer, 0, n);
+          Assert.fail();
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+    }
+  }
+
   private void checkToBigEndianByteArrayAndCopyFromBigEndianAreInverse(
       Function<Integer, BitVector> factory) {
     Random random = new Random(TestUtils.SEED);
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class BlockQueryCoalescerTest {
+
+  private static final Object FILTER = new Object();
+
+  @Test
+  public void joinsRangesInTheSameBlock() {
+    Query<Object, LongRange> query = query(
+      0, 2, false, 3, 5, false, 5, 6, false, 9, 10, false, 12, 14, false);
+    Assert.assertEquals(query(0, 6, true, 9, 10, false, 12, 14, false),
+      coalescer(4L, 9L, 11L).coalesce(query));
+    Assert.assertEquals(query(0, 6, true, 9, 14, true), coalescer(4L, 9L).coalesce(query));
+    Assert.assertEquals(query(0, 14, true), coalescer().coalesce(query));
+    // Adjacent ranges are joined even at a split point, with no over-selectivity.
+    Assert.assertEquals(
+      query(3, 6, false), coalescer(5L).coalesce(query(3, 5, false, 5, 6, false)));
+  }
+
+  @Test
+  public void keepsRangesSeparatedBySplitPoints() {
+    Query<Object, LongRange> query = query(0, 2, false, 4, 6, true, 8, 9, false);
+    // Split points at the end of a range or at the start of the next one count.
+    Assert.assertSame(query, coalescer(2L, 8L).coalesce(query));
+    Assert.assertSame(query, coalescer(4L, 7L).coalesce(query));
+    Assert.assertEquals(query(0, 2, false, 4, 9, true), coalescer(3L).coalesce(query));
+  }
+
+  @Test
+  public void readsTheSameBlocksWithFewerSeeks() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 50; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      QueryBuilder<Object, LongRange> builder = BacktrackingQueryBuilder.create(
+        SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+          Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT),
+        combiner(), Integer.MAX_VALUE, true, LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+      CompactHilbertCurve chc = new CompactHilbertCurve(m);
+      chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+      Query<Object, LongRange> query = builder.get();
+      SortedSet<Long> splitPoints = new TreeSet<>();
+      int splitCount = random.nextInt(40);
+      while (splitPoints.size() < splitCount) {
+        splitPoints.add(1 + (long) random.nextInt((1 << 11) - 1));
+      }
+      Query<Object, LongRange> coalesced = BlockQueryCoalescer.create(
+        ImmutableList.copyOf(splitPoints), combiner(), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT).coalesce(query);
+      Assert.assertEquals(blocks(query, splitPoints), blocks(coalesced, splitPoints));
+      BitSet original = indexes(query);
+      BitSet covered = indexes(coalesced);
+      covered.and(original);
+      Assert.assertEquals(original, covered);
+      List<FilteredIndexRange<Object, LongRange>> ranges = coalesced.getFilteredIndexRanges();
+      for (int j = 1; j < ranges.size(); ++j) {
+        long gapStart = ranges.get(j - 1).getIndexRange().getEnd();
+        long gapEnd = ranges.get(j).getIndexRange().getStart();
+        Assert.assertFalse(splitPoints.subSet(gapStart, gapEnd + 1).isEmpty());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void splitPointsMustBeIncreasing() {
+    coalescer(4L, 4L);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void zeroMustNotBeNull() {
+    BlockQueryCoalescer.create(ImmutableList.of(4L), combiner(), LongRangeHome.INSTANCE, null);
+  }
+
+  private static BitSet blocks(Query<Object, LongRange> query, SortedSet<Long> splitPoints) {
+    BitSet blocks = new BitSet();
+    for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+      blocks.set(splitPoints.headSet(range.getIndexRange().getStart() + 1).size(),
+        splitPoints.headSet(range.getIndexRange().getEnd()).size() + 1);
+    }
+    return blocks;
+  }
+
+  private static BitSet indexes(Query<Object, LongRange> query) {
+    BitSet indexes = new BitSet();
+    for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+      indexes.set((int) (long) range.getIndexRange().getStart(),
+        (int) (long) range.getIndexRange().getEnd());
+    }
+    return indexes;
+  }
+
+  /**
+   * @param ranges triples of start, end and potential over-selectivity
+   */
+  private static Query<Object, LongRange> query(Object... ranges) {
+    List<FilteredIndexRange<Object, LongRange>> list = new ArrayList<>();
+    for (int i = 0; i < ranges.length; i += 3) {
+      list.add(FilteredIndexRange.of(
+        LongRange.of((Integer) ranges[i], (Integer) ranges[i + 1]), FILTER,
+        (Boolean) ranges[i + 2]));
+    }
+    return Query.of(list);
+  }
+
+  private static BlockQueryCoalescer<Object, Long, LongContent, LongRange> coalescer(
+    Long... splitPoints) {
+    return BlockQueryCoalescer.create(ImmutableList.copyOf(splitPoints), combiner(),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static PlainFilterCombiner<Object, Long, LongContent, LongRange> combiner() {
+    return new PlainFilterCombiner<Object, Long, LongContent, LongRange>(FILTER);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class BudgetedRegionInspectorTest {
+
+  private static final int[] M = {4, 3, 4};
+
+  @Test
+  public void unlimitedBudgetDoesNotChangeTheQuery() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 10; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      PlanningBudget budget = PlanningBudget.ofNodes(Long.MAX_VALUE);
+      BudgetedQuery<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual =
+        plan(region, budget);
+      Assert.assertEquals(plan(region, null).getQuery(), actual.getQuery());
+      Assert.assertFalse(actual.isExhausted());
+      Assert.assertEquals(0, actual.getNodesDegraded());
+      Assert.assertTrue(actual.getNodesAssessed() > 0);
+    }
+  }
+
+  @Test
+  public void exhaustedNodeBudgetProducesSuperset() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 10; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      for (int maxNodes = 1; maxNodes < 64; maxNodes *= 2) {
+        PlanningBudget budget = PlanningBudget.ofNodes(maxNodes);
+        BudgetedQuery<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual =
+          plan(region, budget);
+        Assert.assertTrue(actual.getNodesAssessed() <= maxNodes);
+        if (actual.isExhausted()) {
+          Assert.assertTrue(actual.getNodesDegraded() > 0);
+          Assert.assertTrue(actual.getQuery().isPotentialOverSelectivity());
+        }
+        checkSelectsAllPoints(region, actual.getQuery());
+      }
+    }
+  }
+
+  @Test
+  public void cancelledBudgetSelectsEverything() {
+    List<List<LongRange>> region =
+      QueryTestUtils.randomRegion(new Random(TestUtils.SEED), M, 1);
+    PlanningBudget budget = PlanningBudget.ofNodes(Long.MAX_VALUE);
+    budget.cancel();
+    BudgetedQuery<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual =
+      plan(region, budget);
+    Assert.assertTrue(actual.isExhausted());
+    Assert.assertEquals(0, actual.getNodesAssessed());
+    Assert.assertEquals(1, actual.getNodesDegraded());
+    Assert.assertEquals(1, actual.getQuery().getFilteredIndexRanges().size());
+    Assert.assertEquals(LongRange.of(0, 1 << (4 + 3 + 4)),
+      actual.getQuery().getFilteredIndexRanges().get(0).getIndexRange());
+  }
+
+  @Test
+  public void deadline() {
+    final long[] now = {-10};
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return now[0];
+      }
+    };
+    PlanningBudget budget = PlanningBudget.create(Long.MAX_VALUE, 5, TimeUnit.NANOSECONDS, ticker);
+    for (int i = 0; i < 5; ++i) {
+      Assert.assertTrue(budget.tryConsume());
+      now[0]++;
+    }
+    Assert.assertFalse(budget.tryConsume());
+    Assert.assertTrue(budget.isExhausted());
+    now[0] = -10;
+    // Exhaustion is permanent.
+    Assert.assertFalse(budget.tryConsume());
+    Assert.assertEquals(5, budget.getNodesAssessed());
+  }
+
+  static void checkSelectsAllPoints(
+    List<List<LongRange>> region, Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query) {
+    CompactHilbertCurve chc = new CompactHilbertCurve(M);
+    BitVector[] p = new BitVector[M.length];
+    for (int i = 0; i < M.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(M[i]);
+    }
+    BitVector index = BitVectorFactories.OPTIMAL.apply(chc.getSpec().sumBitsPerDimension());
+    for (List<LongRange> orthotope : region) {
+      for (long x = orthotope.get(0).getStart(); x < orthotope.get(0).getEnd(); ++x) {
+        for (long y = orthotope.get(1).getStart(); y < orthotope.get(1).getEnd(); ++y) {
+          for (long z = orthotope.get(2).getStart(); z < orthotope.get(2).getEnd(); ++z) {
+            p[0].copyFrom(x);
+            p[1].copyFrom(y);
+            p[2].copyFrom(z);
+            chc.index(p, 0, index);
+            long h = index.toExactLong();
+            boolean found = false;
+            for (FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange> range
+              : query.getFilteredIndexRanges()) {
+              found |= range.getIndexRange().contains(h);
+            }
+            Assert.assertTrue(found);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @param budget when null, the plain inspector is used
+   */
+  private static BudgetedQuery<RangeListFilter<Long, LongContent, LongRange>, LongRange> plan(
+    List<List<LongRange>> region, PlanningBudget budget) {
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector =
+      SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+        RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+    PlanningBudget actualBudget = budget == null ? PlanningBudget.ofNodes(Long.MAX_VALUE) : budget;
+    if (budget != null) {
+      inspector = BudgetedRegionInspector.create(inspector, budget,
+        RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+    }
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+      BacktrackingQueryBuilder.create(inspector,
+        ListConcatCombiner.<Long, LongContent, LongRange>unbounded(), 5, true,
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(new MultiDimensionalSpec(Ints.asList(M)));
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return BudgetedQuery.plan(builder, actualBudget);
+  }
+}
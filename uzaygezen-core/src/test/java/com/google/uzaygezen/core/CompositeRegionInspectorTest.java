@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.QueryTestUtils.Shape;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class CompositeRegionInspectorTest {
+
+  private static final Object FILTER = new Object();
+
+  @Test
+  public void selectsExactlyTheComposedRegion() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{5, 5}, {4, 3, 4}}) {
+      for (int i = 0; i < 10; ++i) {
+        List<List<LongRange>> boxes = QueryTestUtils.randomRegion(random, m, 3);
+        List<List<LongRange>> otherBoxes = QueryTestUtils.randomRegion(random, m, 2);
+        long[] center = new long[m.length];
+        for (int k = 0; k < m.length; ++k) {
+          center[k] = random.nextInt(1 << m[k]);
+        }
+        long radius = random.nextInt(1 << (m[0] - 1));
+        RegionInspector<Object, LongContent> box = boxes(boxes);
+        RegionInspector<Object, LongContent> ball = ball(center, radius);
+        RegionInspector<Object, LongContent> other = boxes(otherBoxes);
+        Shape boxShape = boxShape(boxes);
+        Shape ballShape = ballShape(center, radius);
+        Shape otherShape = boxShape(otherBoxes);
+        QueryTestUtils.checkShape(m, and(box, ball), and(boxShape, ballShape));
+        QueryTestUtils.checkShape(m, or(box, ball), or(boxShape, ballShape));
+        QueryTestUtils.checkShape(m, andNot(box, ball), andNot(boxShape, ballShape));
+        QueryTestUtils.checkShape(m, andNot(ball, box), andNot(ballShape, boxShape));
+        QueryTestUtils.checkShape(m, or(and(box, ball), other),
+          or(and(boxShape, ballShape), otherShape));
+        QueryTestUtils.checkShape(m, andNot(or(box, other), ball),
+          andNot(or(boxShape, otherShape), ballShape));
+      }
+    }
+  }
+
+  @Test
+  public void shortCircuits() {
+    int[] m = {4, 4};
+    CountingInspector counting = new CountingInspector(boxes(ImmutableList.of(
+      ImmutableList.of(LongRange.of(0, 3), LongRange.of(2, 9)))));
+    plan(m, and(constant(Assessment.<Object, LongContent>makeDisjoint(TestUtils.ONE_LONG_CONTENT)),
+      counting));
+    plan(m, or(constant(Assessment.<Object, LongContent>makeCovered(
+      FILTER, false, TestUtils.ZERO_LONG_CONTENT)), counting));
+    plan(m, andNot(constant(Assessment.<Object, LongContent>makeDisjoint(
+      TestUtils.ONE_LONG_CONTENT)), counting));
+    Assert.assertEquals(0, counting.count);
+    // A sloppy cover does not settle a union.
+    plan(m, or(constant(Assessment.<Object, LongContent>makeCovered(
+      FILTER, true, TestUtils.ZERO_LONG_CONTENT)), counting));
+    Assert.assertTrue(counting.count > 0);
+  }
+
+  @Test
+  public void disjointEstimates() {
+    int[] m = {4, 4};
+    RegionInspector<Object, LongContent> small =
+      constant(Assessment.<Object, LongContent>makeDisjoint(new LongContent(2)));
+    RegionInspector<Object, LongContent> large =
+      constant(Assessment.<Object, LongContent>makeDisjoint(new LongContent(5)));
+    Pow2LengthBitSetRange root =
+      new Pow2LengthBitSetRange(BitVectorFactories.OPTIMAL.apply(8), 8);
+    List<Pow2LengthBitSetRange> orthotope = ImmutableList.of(
+      new Pow2LengthBitSetRange(BitVectorFactories.OPTIMAL.apply(4), 4),
+      new Pow2LengthBitSetRange(BitVectorFactories.OPTIMAL.apply(4), 4));
+    Assert.assertEquals(
+      new LongContent(5), or(small, large).assess(root, orthotope).getEstimate());
+    Assert.assertEquals(
+      new LongContent(2), and(small, large).assess(root, orthotope).getEstimate());
+    // Excluding everything falls back to the index range length.
+    RegionInspector<Object, LongContent> all = constant(
+      Assessment.<Object, LongContent>makeCovered(FILTER, false, TestUtils.ZERO_LONG_CONTENT));
+    Assert.assertEquals(
+      new LongContent(256), andNot(all, all).assess(root, orthotope).getEstimate());
+    Assert.assertEquals(m.length, andNot(all, all).getNumberOfDimensions());
+  }
+
+  @Test
+  public void sloppyExclusionOverSelects() {
+    int[] m = {5, 5};
+    List<List<LongRange>> boxes = ImmutableList.<List<LongRange>>of(
+      ImmutableList.of(LongRange.of(3, 29), LongRange.of(1, 22)));
+    List<List<LongRange>> excluded = ImmutableList.<List<LongRange>>of(
+      ImmutableList.of(LongRange.of(7, 13), LongRange.of(9, 31)));
+    RegionInspector<Object, LongContent> sloppy = SimpleRegionInspector.create(excluded,
+      new LongContent(16), Functions.constant(FILTER), LongRangeHome.INSTANCE,
+      TestUtils.ZERO_LONG_CONTENT);
+    Query<Object, LongRange> exact = plan(m, andNot(boxes(boxes), boxes(excluded)));
+    Query<Object, LongRange> overSelective = plan(m, andNot(boxes(boxes), sloppy));
+    Assert.assertTrue(overSelective.isPotentialOverSelectivity());
+    BitSet exactIndexes = indexes(exact);
+    BitSet overSelectiveIndexes = indexes(overSelective);
+    BitSet boxIndexes = indexes(plan(m, boxes(boxes)));
+    Assert.assertTrue(exactIndexes.cardinality() < overSelectiveIndexes.cardinality());
+    overSelectiveIndexes.and(exactIndexes);
+    Assert.assertEquals(exactIndexes, overSelectiveIndexes);
+    BitSet outside = indexes(overSelective);
+    outside.andNot(boxIndexes);
+    Assert.assertTrue(outside.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void childrenMustAgreeOnDimensions() {
+    and(boxes(ImmutableList.<List<LongRange>>of(ImmutableList.of(LongRange.of(0, 1)))),
+      boxes(ImmutableList.<List<LongRange>>of(
+        ImmutableList.of(LongRange.of(0, 1), LongRange.of(0, 1)))));
+  }
+
+  private static BitSet indexes(Query<Object, LongRange> query) {
+    BitSet indexes = new BitSet();
+    for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+      indexes.set((int) (long) range.getIndexRange().getStart(),
+        (int) (long) range.getIndexRange().getEnd());
+    }
+    return indexes;
+  }
+
+  private static Query<Object, LongRange> plan(
+    int[] m, RegionInspector<Object, LongContent> inspector) {
+    QueryBuilder<Object, LongRange> builder = BacktrackingQueryBuilder.create(inspector,
+      new PlainFilterCombiner<Object, Long, LongContent, LongRange>(FILTER), Integer.MAX_VALUE,
+      true, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return builder.get();
+  }
+
+  private static RegionInspector<Object, LongContent> and(
+    RegionInspector<Object, LongContent> x, RegionInspector<Object, LongContent> y) {
+    return CompositeRegionInspector.and(ImmutableList.of(x, y), Functions.constant(FILTER),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static RegionInspector<Object, LongContent> or(
+    RegionInspector<Object, LongContent> x, RegionInspector<Object, LongContent> y) {
+    return CompositeRegionInspector.or(ImmutableList.of(x, y), Functions.constant(FILTER),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static RegionInspector<Object, LongContent> andNot(
+    RegionInspector<Object, LongContent> x, RegionInspector<Object, LongContent> y) {
+    return CompositeRegionInspector.andNot(x, y, Functions.constant(FILTER),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static Shape and(final Shape x, final Shape y) {
+    return new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        return x.contains(p) && y.contains(p);
+      }
+    };
+  }
+
+  private static Shape or(final Shape x, final Shape y) {
+    return new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        return x.contains(p) || y.contains(p);
+      }
+    };
+  }
+
+  private static Shape andNot(final Shape x, final Shape y) {
+    return new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        return x.contains(p) && !y.contains(p);
+      }
+    };
+  }
+
+  private static RegionInspector<Object, LongContent> boxes(List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static Shape boxShape(final List<List<LongRange>> region) {
+    return new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        for (List<LongRange> box : region) {
+          boolean inside = true;
+          for (int k = 0; k < p.length; ++k) {
+            inside &= box.get(k).contains(p[k]);
+          }
+          if (inside) {
+            return true;
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  private static RegionInspector<Object, LongContent> ball(long[] center, long radius) {
+    return BallRegionInspector.create(center, radius, BallRegionInspector.Metric.EUCLIDEAN,
+      Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static Shape ballShape(final long[] center, final long radius) {
+    return new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        long distance = 0;
+        for (int k = 0; k < p.length; ++k) {
+          distance += (p[k] - center[k]) * (p[k] - center[k]);
+        }
+        return distance <= radius * radius;
+      }
+    };
+  }
+
+  private static RegionInspector<Object, LongContent> constant(
+    final Assessment<Object, LongContent> assessment) {
+    return new RegionInspector<Object, LongContent>() {
+      @Override
+      public Assessment<Object, LongContent> assess(
+        Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+        return assessment;
+      }
+
+      @Override
+      public int getNumberOfDimensions() {
+        return 2;
+      }
+    };
+  }
+
+  private static class CountingInspector implements RegionInspector<Object, LongContent> {
+
+    private final RegionInspector<Object, LongContent> delegate;
+    private int count;
+
+    CountingInspector(RegionInspector<Object, LongContent> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Assessment<Object, LongContent> assess(
+      Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      ++count;
+      return delegate.assess(indexRange, orthotope);
+    }
+
+    @Override
+    public int getNumberOfDimensions() {
+      return delegate.getNumberOfDimensions();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class IncrementalQueryPlannerTest {
+
+  private static final Function<LongRange, RangeListFilter<Long, LongContent, LongRange>> FILTER_FACTORY =
+    RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE);
+
+  @Test
+  public void slidingWindowMatchesPlanningFromScratch() {
+    int[] m = {8, 8};
+    IncrementalQueryPlanner<RangeListFilter<Long, LongContent, LongRange>> planner =
+      IncrementalQueryPlanner.create(spec(m), 1, FILTER_FACTORY, builderFactory(10));
+    long incremental = 0;
+    long fromScratch = 0;
+    for (int x = 10; x < 200; x += 3) {
+      List<LongRange> window = ImmutableList.of(LongRange.of(x, x + 40), LongRange.of(60, 90));
+      Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query = planner.plan(window);
+      long assessed = checkSameAsFromScratch(m, window, 10, query);
+      if (x != 10) {
+        incremental += planner.getNodesAssessed();
+        fromScratch += assessed;
+        Assert.assertTrue(planner.getNodesReused() > 0);
+      } else {
+        Assert.assertEquals(assessed, planner.getNodesAssessed());
+      }
+    }
+    // Only the two faces across the direction of the movement are assessed again.
+    Assert.assertTrue(incremental + " vs " + fromScratch, 3 * incremental < 2 * fromScratch);
+  }
+
+  @Test
+  public void arbitraryJumpsMatchPlanningFromScratch() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int maxRanges : new int[] {1, 4, Integer.MAX_VALUE}) {
+      IncrementalQueryPlanner<RangeListFilter<Long, LongContent, LongRange>> planner =
+        IncrementalQueryPlanner.create(spec(m), 1, FILTER_FACTORY, builderFactory(maxRanges));
+      for (int i = 0; i < 30; ++i) {
+        List<LongRange> orthotope = QueryTestUtils.randomRegion(random, m, 1).get(0);
+        checkSameAsFromScratch(m, orthotope, maxRanges, planner.plan(orthotope));
+      }
+    }
+  }
+
+  /**
+   * @return the number of nodes assessed from scratch
+   */
+  private static long checkSameAsFromScratch(int[] m, List<LongRange> orthotope, int maxRanges,
+    Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual) {
+    final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector =
+      LongSimpleRegionInspector.create(ImmutableList.of(orthotope), 1, FILTER_FACTORY);
+    final long[] assessed = new long[1];
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> counting =
+      new RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>() {
+        @Override
+        public Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assess(
+          Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> ranges) {
+          assessed[0]++;
+          return inspector.assess(indexRange, ranges);
+        }
+
+        @Override
+        public int getNumberOfDimensions() {
+          return inspector.getNumberOfDimensions();
+        }
+      };
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+      builderFactory(maxRanges).apply(counting);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    Assert.assertEquals(builder.get(), actual);
+    return assessed[0];
+  }
+
+  private static Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>> builderFactory(
+    final int maxRanges) {
+    return new Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>>() {
+      @Override
+      public QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> apply(
+        RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector) {
+        return BacktrackingQueryBuilder.create(inspector,
+          new ListConcatCombiner<Long, LongContent, LongRange>(5), maxRanges, true,
+          LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      }
+    };
+  }
+
+  private static MultiDimensionalSpec spec(int[] m) {
+    return new MultiDimensionalSpec(Ints.asList(m));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class IndexIntervalRegionInspectorTest {
+
+  private static final int[] M = {4, 3, 4};
+
+  @Test
+  public void restrictedQueryIsTheClippedFullQuery() {
+    Random random = new Random(TestUtils.SEED);
+    long total = 1L << (4 + 3 + 4);
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 2);
+      int[] fullCalls = new int[1];
+      List<LongRange> full = plan(counting(inspector(region), fullCalls));
+      for (int j = 0; j < 5; ++j) {
+        long a = (long) (random.nextDouble() * total);
+        long b = a + 1 + (long) (random.nextDouble() * (total - a - 1));
+        LongRange interval = LongRange.of(a, b);
+        List<LongRange> expected = new ArrayList<>();
+        for (LongRange range : full) {
+          long start = Math.max(range.getStart(), a);
+          long end = Math.min(range.getEnd(), b);
+          if (start < end) {
+            expected.add(LongRange.of(start, end));
+          }
+        }
+        int[] restrictedCalls = new int[1];
+        List<LongRange> actual = plan(IndexIntervalRegionInspector.create(
+          counting(inspector(region), restrictedCalls), interval, LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT));
+        Assert.assertEquals(expected, actual);
+        Assert.assertTrue(restrictedCalls[0] <= fullCalls[0]);
+      }
+    }
+  }
+
+  @Test
+  public void delegateIsNotCalledOutsideTheInterval() {
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), M, 1);
+    final LongRange interval = LongRange.of(100, 132);
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> checking =
+      new ForwardingInspector(inspector(region)) {
+        @Override
+        public Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assess(
+          Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+          LongRange range = LongRangeHome.INSTANCE.toRange(indexRange);
+          Assert.assertTrue(range.getStart() < interval.getEnd()
+            && range.getEnd() > interval.getStart());
+          return super.assess(indexRange, orthotope);
+        }
+      };
+    for (LongRange range : plan(IndexIntervalRegionInspector.create(
+      checking, interval, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT))) {
+      Assert.assertTrue(range.getStart() >= interval.getStart());
+      Assert.assertTrue(range.getEnd() <= interval.getEnd());
+    }
+  }
+
+  private static List<LongRange> plan(
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector) {
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+      BacktrackingQueryBuilder.create(inspector,
+        ListConcatCombiner.<Long, LongContent, LongRange>unbounded(), Integer.MAX_VALUE, true,
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(M);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    List<LongRange> ranges = new ArrayList<>();
+    for (FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange> range
+      : builder.get().getFilteredIndexRanges()) {
+      ranges.add(range.getIndexRange());
+    }
+    return ranges;
+  }
+
+  private static RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector(
+    List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+      TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> counting(
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> delegate,
+    final int[] calls) {
+    return new ForwardingInspector(delegate) {
+      @Override
+      public Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assess(
+        Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+        calls[0]++;
+        return super.assess(indexRange, orthotope);
+      }
+    };
+  }
+
+  private static class ForwardingInspector
+    implements RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> {
+
+    private final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> delegate;
+
+    ForwardingInspector(
+      RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int getNumberOfDimensions() {
+      return delegate.getNumberOfDimensions();
+    }
+
+    @Override
+    public Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assess(
+      Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      return delegate.assess(indexRange, orthotope);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class LimitQueryPlannerTest {
+
+  private static final Object FILTER = new Object();
+  private static final Object COMBINED_FILTER = new Object();
+
+  /**
+   * One row for each index.
+   */
+  private static final Function<Pow2LengthBitSetRange, LongContent> ROW_ESTIMATOR =
+    new Function<Pow2LengthBitSetRange, LongContent>() {
+      @Override
+      public LongContent apply(Pow2LengthBitSetRange indexRange) {
+        return new LongContent(1L << indexRange.getLevel());
+      }
+    };
+
+  @Test
+  public void batchesAreMinimalAndAddUpToTheStreamingQuery() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      long target = 1 + random.nextInt(100);
+      LimitQueryPlanner<Object, Long, LongContent, LongRange> planner = LimitQueryPlanner.create(
+        spec(m), inspector(region), ROW_ESTIMATOR,
+        combiner(), TestUtils.ZERO_LONG_CONTENT, LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+      List<FilteredIndexRange<Object, LongRange>> all = new ArrayList<>();
+      while (planner.hasMore()) {
+        List<FilteredIndexRange<Object, LongRange>> batch =
+          planner.next(new LongContent(target)).getFilteredIndexRanges();
+        Assert.assertFalse(batch.isEmpty());
+        long rows = 0;
+        for (FilteredIndexRange<Object, LongRange> range : batch) {
+          rows += range.getIndexRange().length().value();
+        }
+        Assert.assertEquals(rows, planner.getLastBatchRows().value());
+        long lastRows = batch.get(batch.size() - 1).getIndexRange().length().value();
+        Assert.assertTrue(rows - lastRows < target);
+        Assert.assertTrue(rows >= target || !planner.hasMore());
+        Assert.assertEquals(
+          batch.get(batch.size() - 1).getIndexRange().getEnd(), planner.getResumeIndex());
+        all.addAll(batch);
+      }
+      List<FilteredIndexRange<Object, LongRange>> expected = new ArrayList<>();
+      Iterators.addAll(expected, StreamingQueryPlanner.create(spec(m), inspector(region),
+        combiner(), TestUtils.ZERO_LONG_CONTENT, LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT));
+      Assert.assertEquals(expected, all);
+    }
+  }
+
+  @Test
+  public void overSelectiveNodesDoNotCountTowardsTheTarget() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    BitVector index = BitVectorFactories.OPTIMAL.apply(chc.getSpec().sumBitsPerDimension());
+    BitVector[] p = new BitVector[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(m[i]);
+    }
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      long target = 1 + random.nextInt(100);
+      // Overlapping nodes of fewer than 16 points become over-selective covered nodes.
+      LimitQueryPlanner<Object, Long, LongContent, LongRange> planner = LimitQueryPlanner.create(
+        spec(m), SimpleRegionInspector.create(region, new LongContent(16),
+          Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT),
+        ROW_ESTIMATOR, combiner(), TestUtils.ZERO_LONG_CONTENT, LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+      while (planner.hasMore()) {
+        long matching = 0;
+        for (FilteredIndexRange<Object, LongRange> range :
+          planner.next(new LongContent(target)).getFilteredIndexRanges()) {
+          for (long h = range.getIndexRange().getStart(); h < range.getIndexRange().getEnd();
+            ++h) {
+            index.copyFrom(h);
+            chc.indexInverse(index, p);
+            if (contains(region, p)) {
+              matching++;
+            }
+          }
+        }
+        Assert.assertTrue(planner.getLastBatchRows().value() <= matching);
+        Assert.assertTrue(matching >= target || !planner.hasMore());
+      }
+    }
+  }
+
+  @Test
+  public void exactRollupCountsTheRowsInTheRegion() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {5, 5};
+    long[][] points = new long[300][];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = new long[] {random.nextInt(32), random.nextInt(32)};
+    }
+    Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup =
+      QueryTestUtils.rollup(m, points, Integer.MAX_VALUE);
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 2);
+    LimitQueryPlanner<Object, Long, LongContent, LongRange> planner = LimitQueryPlanner.create(
+      spec(m), MapRegionInspector.createCompact(rollup, inspector(region), false,
+        TestUtils.ZERO_LONG_CONTENT, TestUtils.ONE_LONG_CONTENT),
+      LimitQueryPlanner.rollupRowEstimator(rollup, TestUtils.ZERO_LONG_CONTENT), combiner(),
+      TestUtils.ZERO_LONG_CONTENT, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    List<FilteredIndexRange<Object, LongRange>> batch =
+      planner.next(new LongContent(10)).getFilteredIndexRanges();
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    long inBatch = 0;
+    for (long[] point : points) {
+      BitVector[] p = {BitVectorFactories.OPTIMAL.apply(5), BitVectorFactories.OPTIMAL.apply(5)};
+      p[0].copyFrom(point[0]);
+      p[1].copyFrom(point[1]);
+      BitVector index = BitVectorFactories.OPTIMAL.apply(10);
+      chc.index(p, 0, index);
+      for (FilteredIndexRange<Object, LongRange> range : batch) {
+        if (range.getIndexRange().contains(index.toExactLong())) {
+          inBatch++;
+        }
+      }
+    }
+    Assert.assertEquals(inBatch, planner.getLastBatchRows().value());
+    Assert.assertTrue(inBatch >= 10 || !planner.hasMore());
+  }
+
+  @Test
+  public void rollupRowEstimatorDividesLeavesEvenly() {
+    int[] m = {2, 2};
+    long[][] points = new long[16][];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = new long[] {i & 3, i >> 2};
+    }
+    // Only the root survives.
+    Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup =
+      QueryTestUtils.rollup(m, points, 1);
+    com.google.common.base.Function<Pow2LengthBitSetRange, LongContent> estimator =
+      LimitQueryPlanner.rollupRowEstimator(rollup, TestUtils.ZERO_LONG_CONTENT);
+    BitVector start = BitVectorFactories.OPTIMAL.apply(4);
+    Assert.assertEquals(16, estimator.apply(new Pow2LengthBitSetRange(start, 4)).value());
+    start.copyFrom(8);
+    Assert.assertEquals(4, estimator.apply(new Pow2LengthBitSetRange(start, 2)).value());
+    start.copyFrom(13);
+    Assert.assertEquals(1, estimator.apply(new Pow2LengthBitSetRange(start, 0)).value());
+  }
+
+  private static boolean contains(List<List<LongRange>> region, BitVector[] p) {
+    for (List<LongRange> orthotope : region) {
+      boolean inside = true;
+      for (int i = 0; i < p.length; ++i) {
+        inside &= orthotope.get(i).contains(p[i].toExactLong());
+      }
+      if (inside) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static RegionInspector<Object, LongContent> inspector(List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static PlainFilterCombiner<Object, Long, LongContent, LongRange> combiner() {
+    return new PlainFilterCombiner<Object, Long, LongContent, LongRange>(COMBINED_FILTER);
+  }
+
+  private static MultiDimensionalSpec spec(int[] m) {
+    return new MultiDimensionalSpec(Ints.asList(m));
+  }
+}
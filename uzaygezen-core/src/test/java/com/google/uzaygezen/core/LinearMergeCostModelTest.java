@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class LinearMergeCostModelTest {
+
+  @Test
+  public void maxMergeableGap() {
+    Assert.assertEquals(3, LinearMergeCostModel.ofLong(10, 3).getMaxMergeableGap().value());
+    Assert.assertEquals(2, LinearMergeCostModel.ofLong(9, 3).getMaxMergeableGap().value());
+    Assert.assertEquals(0, LinearMergeCostModel.ofLong(0.5, 1).getMaxMergeableGap().value());
+    Assert.assertNull(LinearMergeCostModel.ofLong(0, 1).getMaxMergeableGap());
+    Assert.assertEquals(
+      Long.MAX_VALUE, LinearMergeCostModel.ofLong(1e30, 1).getMaxMergeableGap().value());
+    Assert.assertEquals(BigInteger.valueOf(199),
+      LinearMergeCostModel.ofBigInteger(1000, 5).getMaxMergeableGap().value());
+  }
+
+  @Test
+  public void isMergeCheaper() {
+    LinearMergeCostModel<LongContent> model = LinearMergeCostModel.ofLong(10, 3);
+    Assert.assertTrue(model.isMergeCheaper(new LongContent(0)));
+    Assert.assertTrue(model.isMergeCheaper(new LongContent(3)));
+    Assert.assertFalse(model.isMergeCheaper(new LongContent(4)));
+    Assert.assertFalse(LinearMergeCostModel.ofLong(0, 1).isMergeCheaper(new LongContent(0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rowCostMustBePositive() {
+    LinearMergeCostModel.ofLong(1, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void seekCostMustNotBeNaN() {
+    LinearMergeCostModel.ofLong(Double.NaN, 1);
+  }
+
+  /**
+   * With a uniform data distribution the gap estimate is the index distance, so
+   * the cost based query must be the exact query with all the gaps no larger
+   * than the maximum mergeable gap joined.
+   */
+  @Test
+  public void joinsExactlyTheCheapGaps() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 4);
+      for (double seekCost : new double[] {0, 1, 2.5, 8, 100, 1e6}) {
+        LinearMergeCostModel<LongContent> model = LinearMergeCostModel.ofLong(seekCost, 1);
+        List<LongRange> exact = ranges(plan(m, region, BacktrackingQueryBuilder.create(
+          inspector(region), combiner(), Integer.MAX_VALUE, false, LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT)));
+        List<LongRange> actual = ranges(plan(m, region, BacktrackingQueryBuilder.create(
+          inspector(region), combiner(), model, Integer.MAX_VALUE, LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT)));
+        Assert.assertEquals(join(exact, model), actual);
+      }
+    }
+  }
+
+  @Test
+  public void hardCapStillApplies() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 6);
+    Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query = plan(m, region,
+      BacktrackingQueryBuilder.create(inspector(region), combiner(),
+        LinearMergeCostModel.ofLong(1, 1), 2, LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT));
+    Assert.assertTrue(query.getFilteredIndexRanges().size() <= 2);
+  }
+
+  private static List<LongRange> join(List<LongRange> ranges, MergeCostModel<LongContent> model) {
+    List<LongRange> joined = new ArrayList<>();
+    for (LongRange range : ranges) {
+      int last = joined.size() - 1;
+      if (last >= 0 && model.isMergeCheaper(
+        new LongContent(range.getStart() - joined.get(last).getEnd()))) {
+        joined.set(last, LongRange.of(joined.get(last).getStart(), range.getEnd()));
+      } else {
+        joined.add(range);
+      }
+    }
+    return joined;
+  }
+
+  private static List<LongRange> ranges(
+    Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query) {
+    List<LongRange> ranges = new ArrayList<>();
+    for (FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange> range
+      : query.getFilteredIndexRanges()) {
+      ranges.add(range.getIndexRange());
+    }
+    return ranges;
+  }
+
+  private static Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> plan(int[] m,
+    List<List<LongRange>> region,
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder) {
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return builder.get();
+  }
+
+  private static RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector(
+    List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static ListConcatCombiner<Long, LongContent, LongRange> combiner() {
+    return new ListConcatCombiner<Long, LongContent, LongRange>(5);
+  }
+}
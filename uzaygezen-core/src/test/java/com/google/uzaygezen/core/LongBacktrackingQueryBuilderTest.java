@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class LongBacktrackingQueryBuilderTest {
+
+  @Test
+  public void sameQueryAsBacktrackingQueryBuilder() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      for (int maxRanges : new int[] {1, 2, 3, 5, 8, 13, 1000}) {
+        for (boolean removeVacuum : new boolean[] {false, true}) {
+          checkSameQuery(m, region, maxRanges, removeVacuum);
+        }
+      }
+    }
+  }
+
+  /**
+   * Many ranges with plenty of equal gaps, to exercise tie breaking, and enough
+   * of them for a large maximum number of ranges.
+   */
+  @Test
+  public void sameQueryWithManyRanges() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {8, 8};
+    for (int i = 0; i < 3; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 100);
+      for (int maxRanges : new int[] {1, 10, 100, 1000, 10000, Integer.MAX_VALUE}) {
+        checkSameQuery(m, region, maxRanges, i % 2 == 0);
+      }
+    }
+  }
+
+  private static void checkSameQuery(
+    int[] m, List<List<LongRange>> region, int maxRanges, boolean removeVacuum) {
+    RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector =
+      SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+        RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+    ListConcatCombiner<Long, LongContent, LongRange> combiner =
+      new ListConcatCombiner<Long, LongContent, LongRange>(5);
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> expected =
+      BacktrackingQueryBuilder.create(inspector, combiner, maxRanges, removeVacuum,
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, expected));
+    QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual =
+      LongBacktrackingQueryBuilder.create(inspector, combiner, maxRanges, removeVacuum);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, actual));
+    Assert.assertEquals(expected.get(), actual.get());
+    Assert.assertTrue(actual.get().getFilteredIndexRanges().size() <= maxRanges);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class LongQueryTest {
+
+  @Test
+  public void roundTrip() {
+    String a = "a";
+    String b = "b";
+    Query<String, LongRange> query = Query.of(ImmutableList.of(
+      FilteredIndexRange.of(LongRange.of(0, 3), a, false),
+      FilteredIndexRange.of(LongRange.of(3, 5), b, true),
+      FilteredIndexRange.of(LongRange.of(7, 100), a, false)));
+    LongQuery<String> longQuery = LongQuery.of(query);
+    Assert.assertEquals(3, longQuery.size());
+    Assert.assertEquals(3, longQuery.getStart(1));
+    Assert.assertEquals(100, longQuery.getEnd(2));
+    Assert.assertSame(a, longQuery.getFilter(2));
+    Assert.assertTrue(longQuery.isPotentialOverSelectivity(1));
+    Assert.assertFalse(longQuery.isPotentialOverSelectivity(2));
+    Assert.assertTrue(longQuery.isPotentialOverSelectivity());
+    Assert.assertEquals(ImmutableList.of(a, b), longQuery.getFilters());
+    Assert.assertEquals(query, longQuery.toQuery());
+    Assert.assertEquals(longQuery, LongQuery.of(longQuery.toQuery()));
+    Assert.assertEquals(longQuery.hashCode(), LongQuery.of(longQuery.toQuery()).hashCode());
+  }
+
+  @Test
+  public void emptyQuery() {
+    LongQuery<Object> longQuery = LongQuery.<Object>builder(0).build();
+    Assert.assertEquals(0, longQuery.size());
+    Assert.assertFalse(longQuery.isPotentialOverSelectivity());
+    Assert.assertEquals(Query.emptyQuery(), longQuery.toQuery());
+  }
+
+  @Test
+  public void builderGrows() {
+    LongQuery.Builder<Object> builder = LongQuery.builder(1);
+    Object filter = new Object();
+    for (int i = 0; i < 100; ++i) {
+      builder.add(2 * i, 2 * i + 1, filter, i % 3 == 0);
+    }
+    LongQuery<Object> longQuery = builder.build();
+    Assert.assertEquals(100, longQuery.size());
+    Assert.assertEquals(1, longQuery.getFilters().size());
+    Assert.assertEquals(199, longQuery.getEnd(99));
+    Assert.assertTrue(longQuery.isPotentialOverSelectivity(99));
+    Assert.assertFalse(longQuery.isPotentialOverSelectivity(98));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rangesMustBeInOrder() {
+    LongQuery.<Object>builder(2).add(5, 6, "x", false).add(4, 5, "x", false);
+  }
+
+  @Test
+  public void longBacktrackingQueryBuilderProducesTheSameQuery() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      for (int maxRanges : new int[] {1, 3, Integer.MAX_VALUE}) {
+        LongBacktrackingQueryBuilder<RangeListFilter<Long, LongContent, LongRange>> builder =
+          LongBacktrackingQueryBuilder.create(SimpleRegionInspector.create(region,
+            TestUtils.ONE_LONG_CONTENT, RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE),
+            LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT),
+            new ListConcatCombiner<Long, LongContent, LongRange>(5), maxRanges, i % 2 == 0);
+        CompactHilbertCurve chc = new CompactHilbertCurve(m);
+        chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+        LongQuery<RangeListFilter<Long, LongContent, LongRange>> longQuery =
+          builder.getLongQuery();
+        Assert.assertEquals(LongQuery.of(builder.get()), longQuery);
+        Assert.assertEquals(builder.get(), longQuery.toQuery());
+      }
+    }
+  }
+}
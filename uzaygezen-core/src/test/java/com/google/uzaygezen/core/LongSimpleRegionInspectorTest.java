@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class LongSimpleRegionInspectorTest {
+
+  private static final Function<LongRange, RangeListFilter<Long, LongContent, LongRange>> FILTER_FACTORY =
+    RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE);
+
+  @Test
+  public void sameAssessmentsAsSimpleRegionInspector() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{4, 3, 4}, {6, 6}, {2, 5, 1, 3}}) {
+      for (int i = 0; i < 20; ++i) {
+        // The orthotopes may overlap, which must be double counted the same way.
+        List<List<LongRange>> region = new ArrayList<>();
+        for (int j = 1 + random.nextInt(5); --j >= 0;) {
+          List<LongRange> orthotope = new ArrayList<>();
+          for (int k = 0; k < m.length; ++k) {
+            long a = random.nextInt(1 << m[k]);
+            orthotope.add(LongRange.of(a, a + 1 + random.nextInt((int) ((1 << m[k]) - a))));
+          }
+          region.add(orthotope);
+        }
+        for (long minOverlappingContent : new long[] {1, 2, 16, 1 << 10}) {
+          RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> expected =
+            SimpleRegionInspector.create(region, new LongContent(minOverlappingContent),
+              FILTER_FACTORY, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+          RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> actual =
+            LongSimpleRegionInspector.create(region, minOverlappingContent, FILTER_FACTORY);
+          Assert.assertEquals(expected.getNumberOfDimensions(), actual.getNumberOfDimensions());
+          CompactHilbertCurve chc = new CompactHilbertCurve(m);
+          chc.accept(new ZoomingSpaceVisitorAdapter(chc, new ComparingVisitor(expected, actual)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void disjointAssessmentsAreShared() {
+    List<List<LongRange>> region = new ArrayList<>();
+    List<LongRange> orthotope = new ArrayList<>();
+    orthotope.add(LongRange.of(0, 1));
+    orthotope.add(LongRange.of(0, 1));
+    region.add(orthotope);
+    LongSimpleRegionInspector<RangeListFilter<Long, LongContent, LongRange>> inspector =
+      LongSimpleRegionInspector.create(region, 1, FILTER_FACTORY);
+    int[] m = {3, 3};
+    RecordingVisitor visitor = new RecordingVisitor(inspector);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, visitor));
+    Assert.assertNotNull(visitor.firstDisjoint);
+    Assert.assertTrue(visitor.disjointCount > 1);
+    Assert.assertTrue(visitor.sharedDisjoint);
+  }
+
+  @Test
+  public void sharedEstimatesCannotBeModified() {
+    List<List<LongRange>> region = new ArrayList<>();
+    List<LongRange> orthotope = new ArrayList<>();
+    orthotope.add(LongRange.of(0, 1));
+    orthotope.add(LongRange.of(0, 1));
+    region.add(orthotope);
+    LongSimpleRegionInspector<RangeListFilter<Long, LongContent, LongRange>> inspector =
+      LongSimpleRegionInspector.create(region, 1, FILTER_FACTORY);
+    RecordingVisitor visitor = new RecordingVisitor(inspector);
+    CompactHilbertCurve chc = new CompactHilbertCurve(new int[] {3, 3});
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, visitor));
+    LongContent estimate = visitor.firstDisjoint.getEstimate();
+    long value = estimate.value();
+    try {
+      estimate.add(TestUtils.ONE_LONG_CONTENT);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+    try {
+      estimate.shiftRight(1);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+    Assert.assertEquals(value, estimate.value());
+    LongContent copy = estimate.clone();
+    copy.add(TestUtils.ONE_LONG_CONTENT);
+    Assert.assertEquals(value + 1, copy.value());
+  }
+
+  /**
+   * Visits the whole tree, zooming in whenever the expected inspector says so.
+   */
+  private static class ComparingVisitor implements SpaceVisitor {
+
+    private final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> expected;
+    private final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> actual;
+
+    ComparingVisitor(
+      RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> expected,
+      RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> actual) {
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assessment =
+        expected.assess(indexRange, orthotope);
+      Assert.assertEquals(assessment, actual.assess(indexRange, orthotope));
+      return assessment.getOutcome() == SpatialRelation.OVERLAPS;
+    }
+  }
+
+  private static class RecordingVisitor implements SpaceVisitor {
+
+    private final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector;
+    private Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> firstDisjoint;
+    private int disjointCount;
+    private boolean sharedDisjoint;
+
+    RecordingVisitor(
+      RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector) {
+      this.inspector = inspector;
+    }
+
+    @Override
+    public boolean visit(Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+      Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assessment =
+        inspector.assess(indexRange, orthotope);
+      if (assessment.getOutcome() == SpatialRelation.DISJOINT) {
+        disjointCount++;
+        if (firstDisjoint == null) {
+          firstDisjoint = assessment;
+        } else if (firstDisjoint.getEstimate().equals(assessment.getEstimate())) {
+          sharedDisjoint |= firstDisjoint == assessment;
+        }
+      }
+      return assessment.getOutcome() == SpatialRelation.OVERLAPS;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class MergeHierarchyTest {
+
+  private static final Object FILTER = new Object();
+
+  @Test
+  public void cutMatchesBacktrackingQueryBuilder() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 4);
+      for (boolean removeVacuum : new boolean[] {false, true}) {
+        MergeHierarchyQueryBuilder<Object, Long, LongContent, LongRange> builder =
+          MergeHierarchyQueryBuilder.create(inspector(region), combiner(), removeVacuum,
+            LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+        Query<Object, LongRange> finest = plan(m, builder);
+        MergeHierarchy<Object, Long, LongContent, LongRange> hierarchy =
+          builder.getMergeHierarchy();
+        int n = hierarchy.getLeafCount();
+        Assert.assertEquals(finest.getFilteredIndexRanges().size(), n);
+        for (int k = 1; k <= n + 1; ++k) {
+          Query<Object, LongRange> expected = plan(m, BacktrackingQueryBuilder.create(
+            inspector(region), combiner(), k, removeVacuum, LongRangeHome.INSTANCE,
+            TestUtils.ZERO_LONG_CONTENT));
+          Query<Object, LongRange> actual = hierarchy.cut(k);
+          if (k == 1 || k >= n) {
+            Assert.assertEquals(expected, actual);
+          } else {
+            // Equal gaps may be joined in a different order.
+            Assert.assertEquals(
+              expected.getFilteredIndexRanges().size(), actual.getFilteredIndexRanges().size());
+            Assert.assertEquals(coveredLength(expected), coveredLength(actual));
+          }
+        }
+        Assert.assertEquals(finest, hierarchy.cut(Integer.MAX_VALUE));
+      }
+    }
+  }
+
+  @Test
+  public void costModelCutMatchesBacktrackingQueryBuilder() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 4);
+      MergeHierarchyQueryBuilder<Object, Long, LongContent, LongRange> builder =
+        MergeHierarchyQueryBuilder.create(inspector(region), combiner(), false,
+          LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      plan(m, builder);
+      MergeHierarchy<Object, Long, LongContent, LongRange> hierarchy = builder.getMergeHierarchy();
+      for (double seekCost : new double[] {0, 1, 2.5, 8, 100, 1e6}) {
+        LinearMergeCostModel<LongContent> model = LinearMergeCostModel.ofLong(seekCost, 1);
+        Assert.assertEquals(plan(m, BacktrackingQueryBuilder.create(inspector(region),
+          combiner(), model, Integer.MAX_VALUE, LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT)), hierarchy.cut(model));
+      }
+    }
+  }
+
+  @Test
+  public void mergeOrder() {
+    List<FilteredIndexRange<Object, LongRange>> leaves = ImmutableList.of(
+      FilteredIndexRange.of(LongRange.of(0, 1), FILTER, false),
+      FilteredIndexRange.of(LongRange.of(3, 4), FILTER, false),
+      FilteredIndexRange.of(LongRange.of(5, 6), FILTER, true),
+      FilteredIndexRange.of(LongRange.of(10, 11), FILTER, false));
+    List<LongContent> gaps = ImmutableList.of(
+      new LongContent(2), new LongContent(1), new LongContent(4));
+    MergeHierarchy<Object, Long, LongContent, LongRange> hierarchy =
+      MergeHierarchy.create(leaves, gaps, combiner(), LongRangeHome.INSTANCE);
+    Assert.assertEquals(Query.of(leaves), hierarchy.cut(4));
+    Assert.assertEquals(Query.of(ImmutableList.of(leaves.get(0),
+      FilteredIndexRange.of(LongRange.of(3, 6), FILTER, true), leaves.get(3))), hierarchy.cut(3));
+    Assert.assertEquals(Query.of(ImmutableList.of(
+      FilteredIndexRange.of(LongRange.of(0, 6), FILTER, true), leaves.get(3))), hierarchy.cut(2));
+    Assert.assertEquals(Query.of(ImmutableList.of(
+      FilteredIndexRange.of(LongRange.of(0, 11), FILTER, true))), hierarchy.cut(1));
+    Assert.assertEquals(hierarchy.cut(2), hierarchy.cut(LinearMergeCostModel.ofLong(3, 1)));
+  }
+
+  @Test
+  public void empty() {
+    MergeHierarchy<Object, Long, LongContent, LongRange> hierarchy = MergeHierarchy.create(
+      ImmutableList.<FilteredIndexRange<Object, LongRange>>of(),
+      ImmutableList.<LongContent>of(), combiner(), LongRangeHome.INSTANCE);
+    Assert.assertEquals(0, hierarchy.getLeafCount());
+    Assert.assertEquals(Query.emptyQuery(), hierarchy.cut(3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxFilteredIndexRangesMustBePositive() {
+    MergeHierarchy.create(
+      ImmutableList.of(FilteredIndexRange.of(LongRange.of(0, 1), FILTER, false)),
+      ImmutableList.<LongContent>of(), combiner(), LongRangeHome.INSTANCE).cut(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void gapCountMustMatch() {
+    MergeHierarchy.create(
+      ImmutableList.of(FilteredIndexRange.of(LongRange.of(0, 1), FILTER, false)),
+      ImmutableList.of(new LongContent(1)), combiner(), LongRangeHome.INSTANCE);
+  }
+
+  private static long coveredLength(Query<Object, LongRange> query) {
+    long length = 0;
+    for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+      length += range.getIndexRange().length().value();
+    }
+    return length;
+  }
+
+  private static Query<Object, LongRange> plan(
+    int[] m, QueryBuilder<Object, LongRange> builder) {
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return builder.get();
+  }
+
+  private static PlainFilterCombiner<Object, Long, LongContent, LongRange> combiner() {
+    return new PlainFilterCombiner<Object, Long, LongContent, LongRange>(FILTER);
+  }
+
+  private static RegionInspector<Object, LongContent> inspector(List<List<LongRange>> region) {
+    return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+      Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+}
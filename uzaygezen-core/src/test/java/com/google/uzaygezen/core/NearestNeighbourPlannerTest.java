@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class NearestNeighbourPlannerTest {
+
+  @Test
+  public void coversAllNearestNeighbours() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{4, 3, 4}, {6, 6}, {5}}) {
+      for (int i = 0; i < 10; ++i) {
+        long[][] points = randomPoints(random, m, 1 + random.nextInt(200));
+        for (int maxNodes : new int[] {1, 10, 1000}) {
+          Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup =
+            QueryTestUtils.rollup(m, points, maxNodes);
+          long[] query = randomPoints(random, m, 1)[0];
+          for (int k : new int[] {1, 3, 50, 1000}) {
+            check(m, points, rollup, query, k);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void exactRollupStopsEarly() {
+    int[] m = {6, 6};
+    long[][] points = new long[64][];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = new long[] {i, i};
+    }
+    NearestNeighbourPlanner<Object> planner = NearestNeighbourPlanner.create(spec(m),
+      new long[] {0, 0}, 1, QueryTestUtils.rollup(m, points, Integer.MAX_VALUE),
+      Functions.constant(new Object()));
+    List<FilteredIndexRange<Object, LongRange>> ranges = new ArrayList<>();
+    Iterators.addAll(ranges, planner);
+    Assert.assertEquals(1, ranges.size());
+    Assert.assertEquals(LongRange.of(0, 1), ranges.get(0).getIndexRange());
+    Assert.assertEquals(0, planner.getSquaredDistanceBound(), 0);
+    Assert.assertEquals(1, planner.getRowsCovered());
+  }
+
+  @Test
+  public void emptyRollup() {
+    int[] m = {3, 3};
+    NearestNeighbourPlanner<Object> planner = NearestNeighbourPlanner.create(spec(m),
+      new long[] {1, 2}, 5, QueryTestUtils.rollup(m, new long[0][], 10),
+      Functions.constant(new Object()));
+    Assert.assertFalse(planner.hasNext());
+  }
+
+  private static void check(int[] m, long[][] points,
+    Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup, long[] query, int k) {
+    NearestNeighbourPlanner<Object> planner = NearestNeighbourPlanner.create(
+      spec(m), query, k, rollup, Functions.constant(new Object()));
+    List<LongRange> ranges = new ArrayList<>();
+    while (planner.hasNext()) {
+      ranges.add(planner.next().getIndexRange());
+    }
+    long[] distances = new long[points.length];
+    for (int i = 0; i < points.length; ++i) {
+      distances[i] = squaredDistance(points[i], query);
+    }
+    long[] sorted = distances.clone();
+    Arrays.sort(sorted);
+    long kth = sorted[Math.min(k, points.length) - 1];
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    long covered = 0;
+    for (int i = 0; i < points.length; ++i) {
+      boolean inRanges = contains(ranges, QueryTestUtils.index(chc, m, points[i]));
+      Assert.assertTrue(distances[i] > kth || inRanges);
+      covered += inRanges ? 1 : 0;
+    }
+    Assert.assertEquals(covered, planner.getRowsCovered());
+    Assert.assertTrue(planner.getSquaredDistanceBound() >= kth);
+  }
+
+  private static boolean contains(List<LongRange> ranges, long index) {
+    for (LongRange range : ranges) {
+      if (range.contains(index)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long squaredDistance(long[] a, long[] b) {
+    long sum = 0;
+    for (int i = 0; i < a.length; ++i) {
+      sum += (a[i] - b[i]) * (a[i] - b[i]);
+    }
+    return sum;
+  }
+
+  private static long[][] randomPoints(Random random, int[] m, int n) {
+    long[][] points = new long[n][m.length];
+    for (int i = 0; i < n; ++i) {
+      for (int j = 0; j < m.length; ++j) {
+        points[i][j] = random.nextInt(1 << m[j]);
+      }
+    }
+    return points;
+  }
+
+  private static MultiDimensionalSpec spec(int[] m) {
+    return new MultiDimensionalSpec(Ints.asList(m));
+  }
+}
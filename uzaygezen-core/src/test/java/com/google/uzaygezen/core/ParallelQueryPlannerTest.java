@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class ParallelQueryPlannerTest {
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void sameQueryAsSequentialTraversal() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {3, 4, 2};
+    MultiDimensionalSpec spec = new MultiDimensionalSpec(Ints.asList(m));
+    for (int q = 0; q < 20; ++q) {
+      final List<List<LongRange>> region =
+        QueryTestUtils.randomRegion(random, m, 1 + random.nextInt(3));
+      Supplier<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>> inspectorSupplier =
+        new Supplier<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>>() {
+          @Override
+          public RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> get() {
+            return SimpleRegionInspector.create(region, new LongContent(1 + (region.size() & 1)),
+              RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+              TestUtils.ZERO_LONG_CONTENT);
+          }
+        };
+      for (final int maxRanges : new int[] {1, 2, 3, 5, 1000}) {
+        for (final boolean removeVacuum : new boolean[] {false, true}) {
+          Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>> builderFactory =
+            new Function<RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>, QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange>>() {
+              @Override
+              public QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> apply(
+                RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector) {
+                return BacktrackingQueryBuilder.create(inspector,
+                  new ListConcatCombiner<Long, LongContent, LongRange>(3), maxRanges, removeVacuum,
+                  LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+              }
+            };
+          QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> sequential =
+            builderFactory.apply(inspectorSupplier.get());
+          CompactHilbertCurve chc = new CompactHilbertCurve(spec);
+          chc.accept(new ZoomingSpaceVisitorAdapter(chc, sequential));
+          Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> expected = sequential.get();
+          for (int splitLevel = 0; splitLevel <= spec.maxBitsPerDimension(); ++splitLevel) {
+            Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> actual =
+              ParallelQueryPlanner.create(spec, inspectorSupplier, builderFactory, splitLevel, pool).get();
+            Assert.assertEquals(expected, actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void splitLevelMustNotExceedMaxBitsPerDimension() {
+    ParallelQueryPlanner.create(new MultiDimensionalSpec(Ints.asList(2, 3)),
+      new Supplier<RegionInspector<Object, LongContent>>() {
+        @Override
+        public RegionInspector<Object, LongContent> get() {
+          throw new UnsupportedOperationException();
+        }
+      }, new Function<RegionInspector<Object, LongContent>, QueryBuilder<Object, LongRange>>() {
+        @Override
+        public QueryBuilder<Object, LongRange> apply(RegionInspector<Object, LongContent> input) {
+          throw new UnsupportedOperationException();
+        }
+      }, 4, pool);
+  }
+
+  
+}
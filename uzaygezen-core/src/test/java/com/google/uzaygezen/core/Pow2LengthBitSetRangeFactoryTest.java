@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 /**
  * TODO: Create an exhaustive space search test.
@@ -143,6 +144,11 @@ public class Pow2LengthBitSetRangeFactoryTest {
         new Pow2LengthBitSetRange(grandchildBitSet, 0), NodeValue.of("d", true));
     Map<Pow2LengthBitSetRange, NodeValue<String>> actual = range.apply(root);
     Assert.assertEquals(expected, actual);
+    Map<Pow2LengthBitSetRangeKey, NodeValue<String>> expectedCompact = Maps.newHashMap();
+    for (Map.Entry<Pow2LengthBitSetRange, NodeValue<String>> entry : expected.entrySet()) {
+      expectedCompact.put(Pow2LengthBitSetRangeKey.of(entry.getKey()), entry.getValue());
+    }
+    Assert.assertEquals(expectedCompact, range.applyCompact(root));
   }
 
   private void checkSingleElement(Pow2LengthBitSetRangeFactory<String> range, int level) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.uzaygezen.core;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class Pow2LengthBitSetRangeKeyTest {
+
+  @Test
+  public void toRangeIsInverseOfOf() {
+    Random random = new Random(TestUtils.SEED);
+    for (int size : new int[] {0, 1, 63, 64, 65, 127, 128, 130}) {
+      for (int i = 0; i < 32; ++i) {
+        Pow2LengthBitSetRange range = randomRange(random, size);
+        Pow2LengthBitSetRangeKey key = Pow2LengthBitSetRangeKey.of(range);
+        Assert.assertEquals(size, key.getSize());
+        Assert.assertEquals(range.getLevel(), key.getLevel());
+        Assert.assertEquals(range, key.toRange());
+        Assert.assertEquals(key, Pow2LengthBitSetRangeKey.of(key.toRange()));
+        Assert.assertEquals(key.hashCode(), Pow2LengthBitSetRangeKey.of(range.clone()).hashCode());
+      }
+    }
+  }
+
+  @Test
+  public void refilledProbeEqualsTheImmutableKey() {
+    Random random = new Random(TestUtils.SEED);
+    for (int size : new int[] {0, 1, 63, 64, 65, 127, 128, 130}) {
+      Pow2LengthBitSetRangeKey probe = Pow2LengthBitSetRangeKey.newProbe(size);
+      for (int i = 0; i < 32; ++i) {
+        Pow2LengthBitSetRange range = randomRange(random, size);
+        probe.refill(range);
+        Pow2LengthBitSetRangeKey key = Pow2LengthBitSetRangeKey.of(range);
+        Assert.assertEquals(key, probe);
+        Assert.assertEquals(key.hashCode(), probe.hashCode());
+        Pow2LengthBitSetRangeKey snapshot = probe.snapshot();
+        probe.refill(randomRange(random, size));
+        Assert.assertEquals(key, snapshot);
+        Assert.assertEquals(range, snapshot.toRange());
+      }
+    }
+  }
+
+  @Test
+  public void keyDoesNotChangeWithTheUnderlyingBitVector() {
+    BitVector start = TestUtils.createBitVector(8, 10);
+    Pow2LengthBitSetRangeKey key = Pow2LengthBitSetRangeKey.of(new Pow2LengthBitSetRange(start, 2));
+    start.set(9);
+    Assert.assertEquals(new Pow2LengthBitSetRange(TestUtils.createBitVector(8, 10), 2), key.toRange());
+  }
+
+  @Test
+  public void enclosesAgreesWithPow2LengthBitSetRange() {
+    Random random = new Random(TestUtils.SEED);
+    for (int size : new int[] {0, 1, 5, 63, 64, 65, 127, 128, 130}) {
+      for (int i = 0; i < 256; ++i) {
+        Pow2LengthBitSetRange a = randomRange(random, size);
+        Pow2LengthBitSetRange b = randomRange(random, size);
+        if (random.nextBoolean()) {
+          // Make b a sub-range of a half of the time.
+          BitVector start = a.getStart().clone();
+          int level = random.nextInt(a.getLevel() + 1);
+          for (int j = level; j < a.getLevel(); ++j) {
+            start.set(j, random.nextBoolean());
+          }
+          b = new Pow2LengthBitSetRange(start, level);
+        }
+        Assert.assertEquals(a.encloses(b),
+            Pow2LengthBitSetRangeKey.of(a).encloses(Pow2LengthBitSetRangeKey.of(b)));
+        Assert.assertEquals(b.encloses(a),
+            Pow2LengthBitSetRangeKey.of(b).encloses(Pow2LengthBitSetRangeKey.of(a)));
+      }
+    }
+  }
+
+  private static Pow2LengthBitSetRange randomRange(Random random, int size) {
+    int level = random.nextInt(size + 1);
+    BitVector start = BitVectorFactories.OPTIMAL.apply(size);
+    for (int j = level; j < size; ++j) {
+      start.set(j, random.nextBoolean());
+    }
+    return new Pow2LengthBitSetRange(start, level);
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Supplier;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class ProgressiveQueryPlannerTest {
+
+  private static final Object FILTER = new Object();
+
+  /**
+   * Runs the refinements in the calling thread, so that the tests are
+   * deterministic.
+   */
+  private static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  @Test
+  public void refinementsConvergeToTheExactQuery() throws Exception {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {4, 3, 4};
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, m, 3);
+      Query<Object, LongRange> uncapped = plan(m, builderFactory(Integer.MAX_VALUE).apply(
+        inspectorSupplier(region).get()));
+      for (int maxRanges : new int[] {1, 4, Integer.MAX_VALUE}) {
+        Query<Object, LongRange> exact = plan(m, builderFactory(maxRanges).apply(
+          inspectorSupplier(region).get()));
+        for (int coarseDepth = 0; coarseDepth <= 4; ++coarseDepth) {
+          for (int depthStep = 1; depthStep <= 3; ++depthStep) {
+            ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+              planner(m, region, maxRanges, coarseDepth, depthStep, SAME_THREAD);
+            Query<Object, LongRange> coarse = planner.start();
+            // Every query selects the whole region, but the capped ones need not nest.
+            Assert.assertTrue(covers(m, coarse, uncapped));
+            Assert.assertTrue(planner.isFinished());
+            Assert.assertEquals(4, planner.getLatestDepth());
+            Assert.assertEquals(exact, planner.getLatest());
+            Assert.assertEquals(exact, planner.getFinal().get());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void coarseQueryIsOverSelective() throws Exception {
+    int[] m = {4, 3, 4};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), m, 3);
+    ManualExecutor executor = new ManualExecutor();
+    ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+      planner(m, region, Integer.MAX_VALUE, 0, 2, executor);
+    Assert.assertNull(planner.getLatest());
+    Assert.assertEquals(-1, planner.getLatestDepth());
+    Query<Object, LongRange> coarse = planner.start();
+    Assert.assertEquals(1, coarse.getFilteredIndexRanges().size());
+    Assert.assertEquals(
+      LongRange.of(0, 1 << 11), coarse.getFilteredIndexRanges().get(0).getIndexRange());
+    Assert.assertTrue(coarse.isPotentialOverSelectivity());
+    Assert.assertEquals(0, planner.getLatestDepth());
+    Assert.assertFalse(planner.getFinal().isDone());
+    executor.runAll();
+    Assert.assertTrue(planner.isFinished());
+    Assert.assertEquals(plan(m, builderFactory(Integer.MAX_VALUE).apply(
+      inspectorSupplier(region).get())), planner.getFinal().get());
+  }
+
+  @Test
+  public void resumeIndexTrimsTheLatestQuery() {
+    int[] m = {4, 3, 4};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), m, 3);
+    ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+      planner(m, region, Integer.MAX_VALUE, 1, 1, SAME_THREAD);
+    planner.start();
+    Query<Object, LongRange> latest = planner.getLatest();
+    Assert.assertEquals(latest, planner.getLatest(0L));
+    Assert.assertEquals(Query.emptyQuery(), planner.getLatest(1L << 11));
+    for (long resume = 0; resume <= 1 << 11; resume += 37) {
+      Query<Object, LongRange> rest = planner.getLatest(resume);
+      for (long index = 0; index < 1 << 11; ++index) {
+        Assert.assertEquals(index >= resume && contains(latest, index), contains(rest, index));
+      }
+    }
+  }
+
+  @Test
+  public void cancelStopsTheRefinements() {
+    int[] m = {4, 3, 4};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), m, 3);
+    ManualExecutor executor = new ManualExecutor();
+    ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+      planner(m, region, Integer.MAX_VALUE, 1, 1, executor);
+    Query<Object, LongRange> coarse = planner.start();
+    planner.cancel();
+    executor.runAll();
+    Assert.assertTrue(planner.getFinal().isCancelled());
+    Assert.assertEquals(1, planner.getLatestDepth());
+    Assert.assertSame(coarse, planner.getLatest());
+  }
+
+  @Test
+  public void refinesInTheBackground() throws Exception {
+    int[] m = {10, 8, 9};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), m, 5);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+        planner(m, region, 50, 2, 3, executor);
+      planner.start();
+      Assert.assertEquals(plan(m, builderFactory(50).apply(inspectorSupplier(region).get())),
+        planner.getFinal().get(1, TimeUnit.MINUTES));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void canOnlyStartOnce() {
+    int[] m = {2, 2};
+    List<List<LongRange>> region = QueryTestUtils.randomRegion(
+      new Random(TestUtils.SEED), m, 1);
+    ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner =
+      planner(m, region, 1, 0, 1, SAME_THREAD);
+    planner.start();
+    planner.start();
+  }
+
+  private static boolean covers(int[] m, Query<Object, LongRange> outer,
+    Query<Object, LongRange> inner) {
+    for (long index = 0; index < 1L << sum(m); ++index) {
+      if (contains(inner, index) && !contains(outer, index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean contains(Query<Object, LongRange> query, long index) {
+    for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+      if (range.getIndexRange().contains(index)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int sum(int[] m) {
+    int sum = 0;
+    for (int x : m) {
+      sum += x;
+    }
+    return sum;
+  }
+
+  private static ProgressiveQueryPlanner<Object, Long, LongContent, LongRange> planner(int[] m,
+    List<List<LongRange>> region, int maxRanges, int coarseDepth, int depthStep,
+    Executor executor) {
+    return ProgressiveQueryPlanner.create(new MultiDimensionalSpec(Ints.asList(m)),
+      inspectorSupplier(region), builderFactory(maxRanges), Functions.constant(FILTER),
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT, coarseDepth, depthStep, executor);
+  }
+
+  private static Query<Object, LongRange> plan(int[] m, QueryBuilder<Object, LongRange> builder) {
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return builder.get();
+  }
+
+  private static Supplier<RegionInspector<Object, LongContent>> inspectorSupplier(
+    final List<List<LongRange>> region) {
+    return new Supplier<RegionInspector<Object, LongContent>>() {
+      @Override
+      public RegionInspector<Object, LongContent> get() {
+        return SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+          Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      }
+    };
+  }
+
+  private static Function<RegionInspector<Object, LongContent>, QueryBuilder<Object, LongRange>> builderFactory(
+    final int maxRanges) {
+    return new Function<RegionInspector<Object, LongContent>, QueryBuilder<Object, LongRange>>() {
+      @Override
+      public QueryBuilder<Object, LongRange> apply(RegionInspector<Object, LongContent> inspector) {
+        return BacktrackingQueryBuilder.create(inspector,
+          new PlainFilterCombiner<Object, Long, LongContent, LongRange>(FILTER), maxRanges,
+          true, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      }
+    };
+  }
+
+  private static class ManualExecutor implements Executor {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove().run();
+      }
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class QueryCacheTest {
+
+  private static final List<LongRange> A = ImmutableList.of(TestUtils.ZERO_TEN, TestUtils.TWO_SIX);
+  private static final List<LongRange> B = ImmutableList.of(TestUtils.SIX_TEN, TestUtils.ONE_TEN);
+
+  private static final MultiDimensionalSpec SPEC =
+    new MultiDimensionalSpec(ImmutableList.of(4, 4));
+
+  @Test
+  public void keyIgnoresOrthotopeOrder() {
+    QueryCacheKey ab = key(ImmutableList.of(A, B), 10, true, 5, 1);
+    QueryCacheKey ba = key(ImmutableList.of(B, A), 10, true, 5, 1);
+    Assert.assertEquals(ab, ba);
+    Assert.assertEquals(ab.hashCode(), ba.hashCode());
+    Assert.assertFalse(ab.equals(key(ImmutableList.of(A, B), 11, true, 5, 1)));
+    Assert.assertFalse(ab.equals(key(ImmutableList.of(A, B), 10, false, 5, 1)));
+    Assert.assertFalse(ab.equals(key(ImmutableList.of(A, B), 10, true, 6, 1)));
+    Assert.assertFalse(ab.equals(key(ImmutableList.of(A, B), 10, true, 5, 2)));
+    Assert.assertFalse(ab.equals(key(ImmutableList.of(A), 10, true, 5, 1)));
+  }
+
+  @Test
+  public void keyDependsOnTheSpaceAndTheOverlapThreshold() {
+    QueryCacheKey key = key(ImmutableList.of(A, B), 10, true, 5, 1);
+    Assert.assertFalse(key.equals(QueryCacheKey.of(
+      new MultiDimensionalSpec(ImmutableList.of(4, 5)), ImmutableList.of(A, B),
+      TestUtils.ONE_LONG_CONTENT, 10, true, 5, 1)));
+    Assert.assertFalse(key.equals(QueryCacheKey.of(
+      SPEC, ImmutableList.of(A, B), new LongContent(2), 10, true, 5, 1)));
+    Assert.assertEquals(key, QueryCacheKey.of(new MultiDimensionalSpec(ImmutableList.of(4, 4)),
+      ImmutableList.of(A, B), new LongContent(1), 10, true, 5, 1));
+  }
+
+  @Test
+  public void hitsAndMisses() {
+    QueryCache<Object, LongRange> cache = QueryCache.create(100);
+    CountingPlanner planner = new CountingPlanner(3);
+    QueryCacheKey key = key(ImmutableList.of(A), 10, true, 5, 1);
+    Query<Object, LongRange> first = cache.get(key, planner);
+    Assert.assertSame(first, cache.get(key(ImmutableList.of(A), 10, true, 5, 1), planner));
+    Assert.assertEquals(1, planner.calls.get());
+    Assert.assertEquals(1, cache.stats().hitCount());
+    Assert.assertEquals(1, cache.stats().missCount());
+    cache.invalidateAll();
+    Assert.assertNull(cache.getIfPresent(key));
+    cache.get(key, planner);
+    Assert.assertEquals(2, planner.calls.get());
+  }
+
+  @Test
+  public void evictsByTotalPlanSize() {
+    QueryCache<Object, LongRange> cache = QueryCache.create(40);
+    for (int i = 0; i < 20; ++i) {
+      cache.get(key(ImmutableList.of(A), 10, true, 5, i), new CountingPlanner(9));
+    }
+    Assert.assertTrue(cache.size() <= 4);
+    Assert.assertTrue(cache.stats().evictionCount() >= 16);
+    // The most recent entry is still there.
+    Assert.assertNotNull(cache.getIfPresent(key(ImmutableList.of(A), 10, true, 5, 19)));
+  }
+
+  @Test
+  public void concurrentLookupsPlanOnce() throws InterruptedException {
+    final QueryCache<Object, LongRange> cache = QueryCache.create(100);
+    final CountingPlanner planner = new CountingPlanner(2);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Query<Object, LongRange>> results = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; ++i) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          Query<Object, LongRange> query =
+            cache.get(key(ImmutableList.of(B), 1, false, "x", 0), planner);
+          synchronized (results) {
+            results.add(query);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(1, planner.calls.get());
+    Assert.assertEquals(8, results.size());
+    for (Query<Object, LongRange> query : results) {
+      Assert.assertSame(results.get(0), query);
+    }
+  }
+
+  private static QueryCacheKey key(List<List<LongRange>> region, int maxFilteredIndexRanges,
+    boolean alwaysRemoveVacuum, Object combinerConfig, long rollupVersion) {
+    return QueryCacheKey.of(SPEC, region, TestUtils.ONE_LONG_CONTENT, maxFilteredIndexRanges,
+      alwaysRemoveVacuum, combinerConfig, rollupVersion);
+  }
+
+  private static class CountingPlanner implements QueryFactory<Object, LongRange> {
+
+    private final int rangeCount;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    CountingPlanner(int rangeCount) {
+      this.rangeCount = rangeCount;
+    }
+
+    @Override
+    public Query<Object, LongRange> get() {
+      calls.incrementAndGet();
+      List<FilteredIndexRange<Object, LongRange>> ranges = new ArrayList<>();
+      for (int i = 0; i < rangeCount; ++i) {
+        ranges.add(FilteredIndexRange.of(LongRange.of(2 * i, 2 * i + 1), new Object(), false));
+      }
+      return Query.of(ranges);
+    }
+  }
+}
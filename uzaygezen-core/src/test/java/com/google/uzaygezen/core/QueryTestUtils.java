@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * Query regions and checks shared by the query planning tests.
+ * 
+ * @author Daniel Aioanei
+ */
+public final class QueryTestUtils {
+
+  private QueryTestUtils() {}
+
+  /**
+   * Generates a random region of {@code orthotopeCount} orthotopes. The
+   * orthotopes are disjoint since their ranges on the first dimension are.
+   */
+  public static List<List<LongRange>> randomRegion(Random random, int[] m, int orthotopeCount) {
+    Preconditions.checkArgument(orthotopeCount <= 1 << m[0]);
+    SortedSet<Integer> cuts = new TreeSet<>();
+    while (cuts.size() < orthotopeCount) {
+      cuts.add(random.nextInt(1 << m[0]));
+    }
+    List<List<LongRange>> region = new ArrayList<>();
+    int previousCut = 0;
+    for (int cut : cuts) {
+      List<LongRange> orthotope = new ArrayList<>();
+      orthotope.add(LongRange.of(previousCut + random.nextInt(cut - previousCut + 1), cut + 1));
+      previousCut = cut + 1;
+      for (int i = 1; i < m.length; ++i) {
+        int a = random.nextInt(1 << m[i]);
+        int b = random.nextInt(1 << m[i]);
+        orthotope.add(LongRange.of(Math.min(a, b), Math.max(a, b) + 1));
+      }
+      region.add(orthotope);
+    }
+    return region;
+  }
+
+  /**
+   * Point membership test for {@link #checkShape}.
+   */
+  public interface Shape {
+    boolean contains(long[] p);
+  }
+
+  /**
+   * Checks that an exact query built with {@code inspector} selects exactly
+   * the points of {@code shape}, by enumerating the whole space.
+   */
+  public static void checkShape(
+    int[] m, RegionInspector<Object, LongContent> inspector, Shape shape) {
+    QueryBuilder<Object, LongRange> builder = BacktrackingQueryBuilder.create(inspector,
+      new PlainFilterCombiner<Object, Long, LongContent, LongRange>(new Object()),
+      Integer.MAX_VALUE, true, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    BitSet selected = new BitSet();
+    for (FilteredIndexRange<Object, LongRange> range : builder.get().getFilteredIndexRanges()) {
+      Assert.assertFalse(range.isPotentialOverSelectivity());
+      selected.set((int) (long) range.getIndexRange().getStart(),
+        (int) (long) range.getIndexRange().getEnd());
+    }
+    BitSet expected = new BitSet();
+    int mSum = chc.getSpec().sumBitsPerDimension();
+    BitVector index = BitVectorFactories.OPTIMAL.apply(mSum);
+    BitVector[] p = new BitVector[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(m[i]);
+    }
+    long[] point = new long[m.length];
+    for (long h = 0; h < 1L << mSum; ++h) {
+      index.copyFrom(h);
+      chc.indexInverse(index, p);
+      for (int i = 0; i < m.length; ++i) {
+        point[i] = p[i].toExactLong();
+      }
+      if (shape.contains(point)) {
+        expected.set((int) h);
+      }
+    }
+    Assert.assertEquals(expected, selected);
+  }
+
+  /**
+   * @return the compact Hilbert index of {@code point}
+   */
+  public static long index(CompactHilbertCurve chc, int[] m, long[] point) {
+    BitVector[] p = new BitVector[m.length];
+    for (int j = 0; j < m.length; ++j) {
+      p[j] = BitVectorFactories.OPTIMAL.apply(m[j]);
+      p[j].copyFrom(point[j]);
+    }
+    BitVector index = BitVectorFactories.OPTIMAL.apply(chc.getSpec().sumBitsPerDimension());
+    chc.index(p, 0, index);
+    return index.toExactLong();
+  }
+
+  /**
+   * Rolls up one row for each point, keeping at most {@code maxNodes} nodes.
+   */
+  public static Map<Pow2LengthBitSetRangeKey, NodeValue<LongContent>> rollup(
+    int[] m, long[][] points, int maxNodes) {
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    int[] elementLengths = Ints.toArray(new HilbertIndexMasks(chc.getSpec()).cardinalities());
+    StreamingRollup<BitVector, LongContent> rollup =
+      BoundedRollup.create(TestUtils.ZERO_LONG_CONTENT, maxNodes);
+    long[] indexes = new long[points.length];
+    for (int i = 0; i < points.length; ++i) {
+      indexes[i] = index(chc, m, points[i]);
+    }
+    Arrays.sort(indexes);
+    BitVector hilbertIndex = BitVectorFactories.OPTIMAL.apply(chc.getSpec().sumBitsPerDimension());
+    for (long index : indexes) {
+      BitVector[] path = new BitVector[elementLengths.length];
+      for (int i = 0; i < path.length; ++i) {
+        path[i] = BitVectorFactories.OPTIMAL.apply(elementLengths[path.length - i - 1]);
+      }
+      hilbertIndex.copyFrom(index);
+      BitVectorMath.split(hilbertIndex, path);
+      rollup.feedRow(Iterators.forArray(path), TestUtils.ONE_LONG_CONTENT);
+    }
+    Pow2LengthBitSetRangeFactory<LongContent> factory =
+      Pow2LengthBitSetRangeFactory.create(Ints.asList(elementLengths));
+    return factory.applyCompact(rollup.finish());
+  }
+}
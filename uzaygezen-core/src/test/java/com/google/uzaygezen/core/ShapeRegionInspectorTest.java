@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * Tests for {@link ShapeRegionInspector} and its subclasses.
+ * 
+ * @author Daniel Aioanei
+ */
+public class ShapeRegionInspectorTest {
+
+  @Test
+  public void convexPolytopeSelectsExactlyItsPoints() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{5, 5}, {4, 3, 4}, {6}}) {
+      for (int i = 0; i < 20; ++i) {
+        int halfSpaces = random.nextInt(5);
+        final double[][] a = new double[halfSpaces][m.length];
+        final double[] b = new double[halfSpaces];
+        for (int j = 0; j < halfSpaces; ++j) {
+          for (int k = 0; k < m.length; ++k) {
+            a[j][k] = random.nextInt(11) - 5;
+            b[j] += a[j][k] * random.nextInt(1 << m[k]);
+          }
+          b[j] += random.nextInt(5);
+        }
+        check(m, ConvexPolytopeRegionInspector.<Object, Long, LongContent, LongRange>create(
+          m.length, a, b, Functions.constant(new Object()), LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT), new Shape() {
+          @Override
+          public boolean contains(long[] p) {
+            for (int j = 0; j < a.length; ++j) {
+              double sum = 0;
+              for (int k = 0; k < p.length; ++k) {
+                sum += a[j][k] * p[k];
+              }
+              if (sum > b[j]) {
+                return false;
+              }
+            }
+            return true;
+          }
+        });
+      }
+    }
+  }
+
+  @Test
+  public void starShapedPolygonSelectsExactlyItsPoints() {
+    Random random = new Random(TestUtils.SEED);
+    int[] m = {6, 5};
+    for (int i = 0; i < 30; ++i) {
+      int n = 3 + random.nextInt(12);
+      double[] angles = new double[n];
+      for (int j = 0; j < n; ++j) {
+        angles[j] = random.nextDouble() * 2 * Math.PI;
+      }
+      Arrays.sort(angles);
+      final double[] x = new double[n];
+      final double[] y = new double[n];
+      double cx = random.nextInt(64);
+      double cy = random.nextInt(32);
+      for (int j = 0; j < n; ++j) {
+        double radius = 1 + random.nextInt(30);
+        // Rounding keeps many points exactly on the boundary.
+        x[j] = Math.rint(cx + radius * Math.cos(angles[j]));
+        y[j] = Math.rint(cy + radius * Math.sin(angles[j]));
+      }
+      if (!isSimple(x, y)) {
+        continue;
+      }
+      check(m, PolygonRegionInspector.<Object, Long, LongContent, LongRange>create(
+        x, y, Functions.constant(new Object()), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT), new Shape() {
+        @Override
+        public boolean contains(long[] p) {
+          return polygonContains(x, y, p[0], p[1]);
+        }
+      });
+    }
+  }
+
+  @Test
+  public void concavePolygon() {
+    // A U shape.
+    final double[] x = {2, 12, 12, 9, 9, 5, 5, 2};
+    final double[] y = {2, 2, 14, 14, 6, 6, 14, 14};
+    check(new int[] {4, 4}, PolygonRegionInspector.<Object, Long, LongContent, LongRange>create(
+      x, y, Functions.constant(new Object()), LongRangeHome.INSTANCE,
+      TestUtils.ZERO_LONG_CONTENT), new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        return polygonContains(x, y, p[0], p[1]);
+      }
+    });
+    Assert.assertTrue(polygonContains(x, y, 3, 10));
+    Assert.assertFalse(polygonContains(x, y, 7, 10));
+    Assert.assertTrue(polygonContains(x, y, 7, 6));
+  }
+
+  @Test
+  public void ballSelectsExactlyItsPoints() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{5, 5}, {4, 3, 4}, {3, 3, 3, 3}}) {
+      for (int i = 0; i < 10; ++i) {
+        final long[] center = new long[m.length];
+        for (int k = 0; k < m.length; ++k) {
+          center[k] = random.nextInt(1 << m[k]);
+        }
+        final long radius = random.nextInt(12);
+        for (final BallRegionInspector.Metric metric : BallRegionInspector.Metric.values()) {
+          check(m, BallRegionInspector.<Object, Long, LongContent, LongRange>create(center,
+            radius, metric, Functions.constant(new Object()), LongRangeHome.INSTANCE,
+            TestUtils.ZERO_LONG_CONTENT), new Shape() {
+            @Override
+            public boolean contains(long[] p) {
+              long distance = 0;
+              for (int k = 0; k < p.length; ++k) {
+                long d = Math.abs(p[k] - center[k]);
+                distance = metric == BallRegionInspector.Metric.EUCLIDEAN ? distance + d * d
+                  : Math.max(distance, d);
+              }
+              return distance <= (metric == BallRegionInspector.Metric.EUCLIDEAN
+                ? radius * radius : radius);
+            }
+          });
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ballFarFromHugeOrthotopes() {
+    BallRegionInspector<Object, Long, LongContent, LongRange> inspector =
+      BallRegionInspector.create(new long[] {1L << 61, 5}, 3037000499L,
+        BallRegionInspector.Metric.EUCLIDEAN, Functions.constant(new Object()),
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    Assert.assertEquals(SpatialRelation.OVERLAPS,
+      inspector.classify(new long[] {0, 0}, new long[] {(1L << 62) - 1, 7}));
+    Assert.assertEquals(SpatialRelation.DISJOINT,
+      inspector.classify(new long[] {0, 0}, new long[] {1L << 40, 7}));
+    Assert.assertEquals(SpatialRelation.COVERED,
+      inspector.classify(new long[] {1L << 61, 0}, new long[] {(1L << 61) + 1000, 7}));
+  }
+
+  @Test
+  public void overlappingBoxUnionSelectsExactlyItsPoints() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{5, 5}, {4, 3, 4}}) {
+      for (int n : new int[] {1, 2, 5, 30, 200}) {
+        final List<List<LongRange>> boxes = new ArrayList<>();
+        for (int j = 0; j < n; ++j) {
+          List<LongRange> box = new ArrayList<>();
+          for (int k = 0; k < m.length; ++k) {
+            long a = random.nextInt(1 << m[k]);
+            long b = a + 1 + random.nextInt((int) ((1 << m[k]) - a));
+            box.add(LongRange.of(a, b));
+          }
+          boxes.add(box);
+        }
+        check(m, BoxUnionRegionInspector.<Object, Long, LongContent, LongRange>create(boxes,
+          Functions.constant(new Object()), LongRangeHome.INSTANCE,
+          TestUtils.ZERO_LONG_CONTENT), new Shape() {
+          @Override
+          public boolean contains(long[] p) {
+            for (List<LongRange> box : boxes) {
+              boolean inside = true;
+              for (int k = 0; k < p.length; ++k) {
+                inside &= box.get(k).contains(p[k]);
+              }
+              if (inside) {
+                return true;
+              }
+            }
+            return false;
+          }
+        });
+      }
+    }
+  }
+
+  @Test
+  public void boxUnionCoversNodeSplitAcrossBoxes() {
+    BoxUnionRegionInspector<Object, Long, LongContent, LongRange> inspector =
+      BoxUnionRegionInspector.create(ImmutableList.<List<LongRange>>of(
+        ImmutableList.of(LongRange.of(0, 3), LongRange.of(0, 8)),
+        ImmutableList.of(LongRange.of(2, 8), LongRange.of(0, 5)),
+        ImmutableList.of(LongRange.of(1, 8), LongRange.of(4, 8))),
+        Functions.constant(new Object()), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    Assert.assertEquals(
+      SpatialRelation.COVERED, inspector.classify(new long[] {0, 0}, new long[] {7, 7}));
+    Assert.assertEquals(
+      SpatialRelation.OVERLAPS, inspector.classify(new long[] {0, 0}, new long[] {8, 7}));
+    Assert.assertEquals(
+      SpatialRelation.DISJOINT, inspector.classify(new long[] {8, 8}, new long[] {15, 15}));
+  }
+
+  @Test
+  public void denseBoxUnionGivesUpCarvingLargeNodes() {
+    List<List<LongRange>> tiles = new ArrayList<>();
+    for (int x = 0; x < 32; ++x) {
+      for (int y = 0; y < 32; ++y) {
+        tiles.add(ImmutableList.of(LongRange.of(x, x + 1), LongRange.of(y, y + 1)));
+      }
+    }
+    BoxUnionRegionInspector<Object, Long, LongContent, LongRange> inspector =
+      BoxUnionRegionInspector.create(tiles, Functions.constant(new Object()),
+        LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    // Covered, but proving it would take more than the piece budget.
+    Assert.assertEquals(
+      SpatialRelation.OVERLAPS, inspector.classify(new long[] {0, 0}, new long[] {31, 31}));
+    Assert.assertEquals(
+      SpatialRelation.COVERED, inspector.classify(new long[] {4, 4}, new long[] {5, 5}));
+    check(new int[] {5, 5}, inspector, new Shape() {
+      @Override
+      public boolean contains(long[] p) {
+        return true;
+      }
+    });
+  }
+
+  private interface Shape {
+    boolean contains(long[] p);
+  }
+
+  private static void check(
+    int[] m, RegionInspector<Object, LongContent> inspector, Shape shape) {
+    QueryBuilder<Object, LongRange> builder = BacktrackingQueryBuilder.create(inspector,
+      new PlainFilterCombiner<Object, Long, LongContent, LongRange>(new Object()),
+      Integer.MAX_VALUE, true, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    BitSet selected = new BitSet();
+    for (FilteredIndexRange<Object, LongRange> range : builder.get().getFilteredIndexRanges()) {
+      Assert.assertFalse(range.isPotentialOverSelectivity());
+      selected.set((int) (long) range.getIndexRange().getStart(),
+        (int) (long) range.getIndexRange().getEnd());
+    }
+    BitSet expected = new BitSet();
+    int mSum = chc.getSpec().sumBitsPerDimension();
+    BitVector index = BitVectorFactories.OPTIMAL.apply(mSum);
+    BitVector[] p = new BitVector[m.length];
+    for (int i = 0; i < m.length; ++i) {
+      p[i] = BitVectorFactories.OPTIMAL.apply(m[i]);
+    }
+    long[] point = new long[m.length];
+    for (long h = 0; h < 1L << mSum; ++h) {
+      index.copyFrom(h);
+      chc.indexInverse(index, p);
+      for (int i = 0; i < m.length; ++i) {
+        point[i] = p[i].toExactLong();
+      }
+      if (shape.contains(point)) {
+        expected.set((int) h);
+      }
+    }
+    Assert.assertEquals(expected, selected);
+  }
+
+  /**
+   * Closed polygon membership: on an edge, or odd crossing number.
+   */
+  private static boolean polygonContains(double[] x, double[] y, double px, double py) {
+    boolean inside = false;
+    for (int i = 0, j = x.length - 1; i < x.length; j = i++) {
+      double cross = (x[i] - x[j]) * (py - y[j]) - (y[i] - y[j]) * (px - x[j]);
+      if (cross == 0 && Math.min(x[i], x[j]) <= px && px <= Math.max(x[i], x[j])
+        && Math.min(y[i], y[j]) <= py && py <= Math.max(y[i], y[j])) {
+        return true;
+      }
+      if ((y[i] > py) != (y[j] > py)
+        && px < x[j] + (x[i] - x[j]) * (py - y[j]) / (y[i] - y[j])) {
+        inside = !inside;
+      }
+    }
+    return inside;
+  }
+
+  /**
+   * Rejects polygons with repeated vertices or crossing non-adjacent edges.
+   */
+  private static boolean isSimple(double[] x, double[] y) {
+    int n = x.length;
+    for (int i = 0; i < n; ++i) {
+      int i1 = (i + 1) % n;
+      if (x[i] == x[i1] && y[i] == y[i1]) {
+        return false;
+      }
+      for (int j = i + 1; j < n; ++j) {
+        int j1 = (j + 1) % n;
+        if (j == i1 || j1 == i) {
+          continue;
+        }
+        if (segmentsIntersect(x[i], y[i], x[i1], y[i1], x[j], y[j], x[j1], y[j1])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+    double cx, double cy, double dx, double dy) {
+    double d1 = Math.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax));
+    double d2 = Math.signum((bx - ax) * (dy - ay) - (by - ay) * (dx - ax));
+    double d3 = Math.signum((dx - cx) * (ay - cy) - (dy - cy) * (ax - cx));
+    double d4 = Math.signum((dx - cx) * (by - cy) - (dy - cy) * (bx - cx));
+    if (d1 * d2 < 0 && d3 * d4 < 0) {
+      return true;
+    }
+    return (d1 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+      || (d2 == 0 && onSegment(ax, ay, bx, by, dx, dy))
+      || (d3 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+      || (d4 == 0 && onSegment(cx, cy, dx, dy, bx, by));
+  }
+
+  private static boolean onSegment(
+    double ax, double ay, double bx, double by, double px, double py) {
+    return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py
+      && py <= Math.max(ay, by);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class StreamingQueryPlannerTest {
+
+  private static final int[] M = {4, 3, 4};
+  private static final MultiDimensionalSpec SPEC = new MultiDimensionalSpec(Ints.asList(M));
+
+  @Test
+  public void zeroMaxGapMatchesBacktrackingQueryBuilderThatRemovesVacuum() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 3);
+      QueryBuilder<RangeListFilter<Long, LongContent, LongRange>, LongRange> builder =
+        BacktrackingQueryBuilder.create(inspector(region, new int[1]),
+          ListConcatCombiner.<Long, LongContent, LongRange>unbounded(), Integer.MAX_VALUE, true,
+          LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+      CompactHilbertCurve chc = new CompactHilbertCurve(SPEC);
+      chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+      StreamingQueryPlanner<RangeListFilter<Long, LongContent, LongRange>, Long, LongContent, LongRange> streaming =
+        create(region, TestUtils.ZERO_LONG_CONTENT, new int[1]);
+      Assert.assertEquals(builder.get(), Query.of(ImmutableList.copyOf(streaming)));
+    }
+  }
+
+  @Test
+  public void rangesFurtherApartThanMaxGap() {
+    Random random = new Random(TestUtils.SEED);
+    for (int i = 0; i < 20; ++i) {
+      List<List<LongRange>> region = QueryTestUtils.randomRegion(random, M, 3);
+      long maxGap = random.nextInt(64);
+      Query<RangeListFilter<Long, LongContent, LongRange>, LongRange> query =
+        Query.of(ImmutableList.copyOf(create(region, new LongContent(maxGap), new int[1])));
+      List<FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange>> ranges =
+        query.getFilteredIndexRanges();
+      for (int j = 1; j < ranges.size(); ++j) {
+        // SimpleRegionInspector estimates the gap with its length.
+        Assert.assertTrue(ranges.get(j).getIndexRange().getStart()
+          - ranges.get(j - 1).getIndexRange().getEnd() > maxGap);
+      }
+      BudgetedRegionInspectorTest.checkSelectsAllPoints(region, query);
+    }
+  }
+
+  @Test
+  public void firstRangeIsAvailableBeforePlanningEnds() {
+    List<List<LongRange>> region = ImmutableList.<List<LongRange>>of(
+      ImmutableList.of(LongRange.of(0, 3), LongRange.of(0, 8), LongRange.of(0, 16)));
+    int[] calls = new int[1];
+    Iterator<FilteredIndexRange<RangeListFilter<Long, LongContent, LongRange>, LongRange>> streaming =
+      create(region, TestUtils.ZERO_LONG_CONTENT, calls);
+    Assert.assertTrue(streaming.hasNext());
+    int callsForFirstRange = calls[0];
+    while (streaming.hasNext()) {
+      streaming.next();
+    }
+    Assert.assertTrue(callsForFirstRange < calls[0]);
+  }
+
+  private static StreamingQueryPlanner<RangeListFilter<Long, LongContent, LongRange>, Long, LongContent, LongRange> create(
+    List<List<LongRange>> region, LongContent maxGap, int[] calls) {
+    return StreamingQueryPlanner.create(SPEC, inspector(region, calls),
+      ListConcatCombiner.<Long, LongContent, LongRange>unbounded(), maxGap,
+      LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+  }
+
+  private static RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> inspector(
+    List<List<LongRange>> region, final int[] calls) {
+    final RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent> delegate =
+      SimpleRegionInspector.create(region, TestUtils.ONE_LONG_CONTENT,
+        RangeListFilter.creator(Level.FINE, LongRangeHome.INSTANCE), LongRangeHome.INSTANCE,
+        TestUtils.ZERO_LONG_CONTENT);
+    return new RegionInspector<RangeListFilter<Long, LongContent, LongRange>, LongContent>() {
+      @Override
+      public int getNumberOfDimensions() {
+        return delegate.getNumberOfDimensions();
+      }
+
+      @Override
+      public Assessment<RangeListFilter<Long, LongContent, LongRange>, LongContent> assess(
+        Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+        calls[0]++;
+        return delegate.assess(indexRange, orthotope);
+      }
+    };
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.uzaygezen.core;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
+
+/**
+ * @author Daniel Aioanei
+ */
+public class TileQueryTemplatesTest {
+
+  private static final Object FILTER = new Object();
+
+  @Test
+  public void matchesTraversal() {
+    Random random = new Random(TestUtils.SEED);
+    for (int[] m : new int[][] {{4, 4}, {4, 3, 4}, {5, 2}, {6}, {3, 0, 5}, {2, 6, 1}}) {
+      TileQueryTemplates<Object> templates = templates(m);
+      for (int zoom = 0; zoom <= templates.getMaxZoom(); ++zoom) {
+        for (int i = 0; i < 10; ++i) {
+          long[] tile = new long[m.length];
+          for (int j = 0; j < m.length; ++j) {
+            tile[j] = random.nextInt(1 << Math.min(zoom, m[j]));
+          }
+          List<LongRange> orthotope = templates.getOrthotope(zoom, tile);
+          Assert.assertEquals(plan(m, orthotope), templates.get(zoom, tile));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void memoizedCellOffsetsMatchTraversalForAllTiles() {
+    for (int[] m : new int[][] {{5, 2}, {2, 4, 1}, {3, 3, 2}}) {
+      TileQueryTemplates<Object> templates = templates(m);
+      for (int zoom = 0; zoom <= templates.getMaxZoom(); ++zoom) {
+        long[] tile = new long[m.length];
+        int tileCount = 0;
+        do {
+          Assert.assertEquals(
+            plan(m, templates.getOrthotope(zoom, tile)), templates.get(zoom, tile));
+          ++tileCount;
+        } while (nextTile(m, zoom, tile));
+        Assert.assertTrue(templates.getMemoizedCount(zoom) <= tileCount);
+      }
+    }
+  }
+
+  @Test
+  public void tilesShareTheMemoizedCellOffsets() {
+    int[] m = {8, 4};
+    TileQueryTemplates<Object> templates = templates(m);
+    // Tiles of 32x2 points made of 16 cells of 2x2 points.
+    Assert.assertEquals(16, templates.getCellsPerTile(3));
+    long[] tile = new long[m.length];
+    int tileCount = 0;
+    do {
+      templates.get(3, tile);
+      ++tileCount;
+    } while (nextTile(m, 3, tile));
+    Assert.assertEquals(64, tileCount);
+    // The 8 tiles along the first dimension lie in nodes of few orientations.
+    Assert.assertTrue(templates.getMemoizedCount(3) < tileCount / 2);
+  }
+
+  @Test
+  public void fullCellTilesAreSingleRanges() {
+    TileQueryTemplates<Object> templates = templates(new int[] {5, 5, 5});
+    for (int zoom = 0; zoom <= 5; ++zoom) {
+      Assert.assertEquals(1, templates.getCellsPerTile(zoom));
+      Query<Object, LongRange> query = templates.get(zoom, new long[3]);
+      Assert.assertEquals(1, query.getFilteredIndexRanges().size());
+      Assert.assertEquals(1L << 3 * (5 - zoom),
+        query.getFilteredIndexRanges().get(0).getIndexRange().length().value());
+    }
+  }
+
+  @Test
+  public void partialCells() {
+    TileQueryTemplates<Object> templates = templates(new int[] {4, 3});
+    Assert.assertEquals(1, templates.getCellsPerTile(0));
+    // Tiles of 8x4 points made of two 4x4 cells.
+    Assert.assertEquals(2, templates.getCellsPerTile(1));
+    Assert.assertEquals(2, templates.getCellsPerTile(3));
+    Assert.assertEquals(1, templates.getCellsPerTile(4));
+    Assert.assertEquals(
+      ImmutableList.of(LongRange.of(8, 16), LongRange.of(0, 4)),
+      templates.getOrthotope(1, new long[] {1, 0}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tileOutOfBounds() {
+    templates(new int[] {4, 3}).get(1, new long[] {2, 0});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zoomOutOfBounds() {
+    templates(new int[] {4, 3}).get(5, new long[] {0, 0});
+  }
+
+  /**
+   * Advances to the next tile in row major order.
+   * 
+   * @return false if {@code tile} was the last one
+   */
+  private static boolean nextTile(int[] m, int zoom, long[] tile) {
+    for (int i = 0; i < m.length; ++i) {
+      if (++tile[i] < 1L << Math.min(zoom, m[i])) {
+        return true;
+      }
+      tile[i] = 0;
+    }
+    return false;
+  }
+
+  private static TileQueryTemplates<Object> templates(int[] m) {
+    return TileQueryTemplates.create(
+      new MultiDimensionalSpec(Ints.asList(m)), Functions.constant(FILTER));
+  }
+
+  private static Query<Object, LongRange> plan(int[] m, List<LongRange> orthotope) {
+    QueryBuilder<Object, LongRange> builder = BacktrackingQueryBuilder.create(
+      SimpleRegionInspector.create(ImmutableList.of(orthotope), TestUtils.ONE_LONG_CONTENT,
+        Functions.constant(FILTER), LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT),
+      new PlainFilterCombiner<Object, Long, LongContent, LongRange>(FILTER), Integer.MAX_VALUE,
+      true, LongRangeHome.INSTANCE, TestUtils.ZERO_LONG_CONTENT);
+    CompactHilbertCurve chc = new CompactHilbertCurve(m);
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, builder));
+    return builder.get();
+  }
+}
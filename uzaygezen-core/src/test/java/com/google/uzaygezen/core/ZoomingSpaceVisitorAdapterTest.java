@@ -16,6 +16,7 @@
 
 package com.google.uzaygezen.core;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.easymock.EasyMock;
@@ -86,6 +87,38 @@ public class ZoomingSpaceVisitorAdapterTest {
     }
   }
   
+  @Test
+  public void viewsAreReusedAndTrackTheCurveBitVectors() {
+    final CompactHilbertCurve chc = new CompactHilbertCurve(new int[] {2, 3});
+    final List<Pow2LengthBitSetRange> seenIndexRanges = new ArrayList<>();
+    final List<List<Pow2LengthBitSetRange>> seenOrthotopes = new ArrayList<>();
+    final int[] visitCount = new int[1];
+    chc.accept(new ZoomingSpaceVisitorAdapter(chc, new SpaceVisitor() {
+      @Override
+      public boolean visit(
+          Pow2LengthBitSetRange indexRange, List<Pow2LengthBitSetRange> orthotope) {
+        visitCount[0]++;
+        int level = orthotope.get(1).getLevel();
+        while (seenIndexRanges.size() <= level) {
+          seenIndexRanges.add(null);
+          seenOrthotopes.add(null);
+        }
+        if (seenIndexRanges.get(level) == null) {
+          seenIndexRanges.set(level, indexRange);
+          seenOrthotopes.set(level, orthotope);
+        } else {
+          Assert.assertSame(seenIndexRanges.get(level), indexRange);
+          Assert.assertSame(seenOrthotopes.get(level), orthotope);
+        }
+        Assert.assertEquals(Pow2LengthBitSetRange.levelSum(orthotope), indexRange.getLevel());
+        Assert.assertTrue(indexRange.getStart().areAllLowestBitsClear(indexRange.getLevel()));
+        return true;
+      }
+    }));
+    // All nodes of the tree: 1 + 2 + 8 + 32.
+    Assert.assertEquals(43, visitCount[0]);
+  }
+
   private static class FakeSpaceFillingCurve implements SpaceFillingCurve {
 
     private final MultiDimensionalSpec spec;